@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2011-2021 HERE Europe B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.here.android.sampleapp.threeDModel;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.here.android.mpa.mapping.LocalMesh;
+import com.here.android.mpa.mapping.MapLocalModel;
+import com.owens.oobjloader.builder.MeshSimplifier;
+import com.owens.oobjloader.builder.PackedMesh;
+
+import android.util.Log;
+
+/**
+ * A MapLocalModel together with simplified versions of its mesh. The model shows the level of
+ * detail that matches the zoom level of the map, the full mesh when zoomed in closely and
+ * coarser meshes further out.
+ */
+class LodModel {
+    private static final String TAG = LodModel.class.getSimpleName();
+
+    // Zoom levels below which the next coarser level of detail is shown
+    private static final double[] ZOOM_THRESHOLDS = { 17.0, 15.5, 14.0 };
+    // Each level of detail aims for this fraction of the triangles of the previous one
+    private static final float REDUCTION = 0.5f;
+    // Meshes with fewer triangles are not simplified any further
+    private static final int MIN_TRIANGLES = 64;
+    // A level is dropped if it doesn't save at least this fraction of the previous one
+    private static final float MIN_SAVING = 0.1f;
+
+    private final MapLocalModel m_model;
+    private final List<LocalMesh> m_meshes = new ArrayList<>();
+    private final List<Integer> m_triangleCounts = new ArrayList<>();
+    private int m_level = 0;
+    private final float m_radius;
+
+    /**
+     * Creates the model with the given mesh and its simplified levels of detail.
+     *
+     * @param levelIndices
+     *            the triangles of each level of detail as returned by {@link #simplify}, indices
+     *            of the vertices of the full mesh
+     */
+    LodModel(String name, FloatBuffer vertices, FloatBuffer textureCoordinates,
+            IntBuffer vertexIndices, List<IntBuffer> levelIndices) {
+        m_model = new MapLocalModel();
+        addLevel(createMesh(vertices, textureCoordinates, vertexIndices),
+                vertexIndices.capacity() / 3);
+        m_model.setMesh(m_meshes.get(0));
+        m_radius = radius(vertices);
+
+        if (!levelIndices.isEmpty()) {
+            float[] positions = toArray(vertices);
+            float[] textureCoords = toArray(textureCoordinates);
+            for (IntBuffer indices : levelIndices) {
+                // Each level only keeps the vertices its triangles use
+                PackedMesh mesh = PackedMesh.compact(positions, textureCoords, 0,
+                        positions.length / 3, toArray(indices));
+                addLevel(createMesh(FloatBuffer.wrap(mesh.positions),
+                        FloatBuffer.wrap(mesh.textureCoords), IntBuffer.wrap(mesh.indices)),
+                        mesh.getTriangleCount());
+            }
+        }
+        Log.i(TAG, "Group " + name + ": triangles per level of detail " + m_triangleCounts);
+    }
+
+    /**
+     * Generates up to three simplified levels of detail for the given mesh. They only depend on
+     * the mesh, so they are stored in the {@link MeshCache} along with it.
+     *
+     * @return the triangles of each level, as indices of the vertices of the given mesh
+     */
+    static List<IntBuffer> simplify(String name, FloatBuffer vertices,
+            IntBuffer vertexIndices) {
+        long start = System.nanoTime();
+        List<IntBuffer> levels = new ArrayList<>();
+        MeshSimplifier simplifier = new MeshSimplifier(toArray(vertices), 0,
+                vertices.capacity() / 3, toArray(vertexIndices), 0, vertexIndices.capacity());
+        int triangles = simplifier.getTriangleCount();
+        while (levels.size() < ZOOM_THRESHOLDS.length && triangles >= MIN_TRIANGLES) {
+            int simplified = simplifier.simplify((int) (triangles * REDUCTION));
+            if (simplified > triangles * (1 - MIN_SAVING)) {
+                break;
+            }
+            levels.add(IntBuffer.wrap(simplifier.getIndices()));
+            triangles = simplified;
+        }
+        Log.i(TAG, "Group " + name + ": " + levels.size() + " levels of detail simplified in "
+                + (System.nanoTime() - start) / 1000000 + " ms");
+        return levels;
+    }
+
+    private void addLevel(LocalMesh mesh, int triangleCount) {
+        m_meshes.add(mesh);
+        m_triangleCounts.add(triangleCount);
+    }
+
+    private static LocalMesh createMesh(FloatBuffer vertices, FloatBuffer textureCoordinates,
+            IntBuffer vertexIndices) {
+        LocalMesh mesh = new LocalMesh();
+        mesh.setVertices(vertices);
+        mesh.setVertexIndices(vertexIndices);
+        mesh.setTextureCoordinates(textureCoordinates);
+        return mesh;
+    }
+
+    // Distance of the farthest vertex from the origin
+    private static float radius(FloatBuffer vertices) {
+        float max = 0;
+        for (int i = 0; i + 2 < vertices.capacity(); i += 3) {
+            float x = vertices.get(i);
+            float y = vertices.get(i + 1);
+            float z = vertices.get(i + 2);
+            max = Math.max(max, x * x + y * y + z * z);
+        }
+        return (float) Math.sqrt(max);
+    }
+
+    private static float[] toArray(FloatBuffer buffer) {
+        FloatBuffer copy = buffer.duplicate();
+        copy.clear();
+        float[] values = new float[copy.remaining()];
+        copy.get(values);
+        return values;
+    }
+
+    private static int[] toArray(IntBuffer buffer) {
+        IntBuffer copy = buffer.duplicate();
+        copy.clear();
+        int[] values = new int[copy.remaining()];
+        copy.get(values);
+        return values;
+    }
+
+    /**
+     * @return the level of detail to show at the given zoom level, 0 being the full mesh
+     */
+    static int levelForZoom(double zoomLevel) {
+        int level = 0;
+        while (level < ZOOM_THRESHOLDS.length && zoomLevel < ZOOM_THRESHOLDS[level]) {
+            level++;
+        }
+        return level;
+    }
+
+    MapLocalModel getModel() {
+        return m_model;
+    }
+
+    /**
+     * @return the distance of the farthest vertex from the anchor, in the units of the mesh
+     */
+    float getRadius() {
+        return m_radius;
+    }
+
+    /**
+     * @return the number of triangles of each level of detail, starting with the full mesh
+     */
+    List<Integer> getTriangleCounts() {
+        return m_triangleCounts;
+    }
+
+    /**
+     * Shows the given level of detail, or the coarsest one if the model has fewer levels.
+     */
+    void setLevel(int level) {
+        level = Math.min(level, m_meshes.size() - 1);
+        if (level != m_level) {
+            m_level = level;
+            m_model.setMesh(m_meshes.get(level));
+        }
+    }
+}
@@ -18,30 +18,37 @@ package com.here.android.sampleapp.threeDModel;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 
 import com.here.android.mpa.common.GeoCoordinate;
 import com.here.android.mpa.common.Image;
 import com.here.android.mpa.common.OnEngineInitListener;
-import com.here.android.mpa.mapping.LocalMesh;
 import com.here.android.mpa.mapping.Map;
 import com.here.android.mpa.mapping.AndroidXMapFragment;
 import com.here.android.mpa.mapping.MapLocalModel;
 import com.here.android.mpa.mapping.MapModelObject;
-import com.owens.oobjloader.builder.Build;
-import com.owens.oobjloader.builder.Face;
-import com.owens.oobjloader.builder.FaceVertex;
-import com.owens.oobjloader.builder.Group;
+import com.here.android.mpa.mapping.MapState;
 import com.owens.oobjloader.builder.Material;
+import com.owens.oobjloader.builder.MaterialRegistry;
+import com.owens.oobjloader.builder.PackedBuild;
+import com.owens.oobjloader.builder.PackedGroup;
 import com.owens.oobjloader.parser.Parse;
+import com.owens.oobjloader.parser.ResourceOpener;
 
 import androidx.appcompat.app.AppCompatActivity;
 
 import android.app.AlertDialog;
 import android.content.DialogInterface;
 import androidx.annotation.NonNull;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.Choreographer;
 import android.view.View;
 import android.widget.Button;
 import android.widget.Toast;
@@ -52,14 +59,27 @@ import android.widget.Toast;
  * it extracts data from the loader and convert it into what HERE Android SDK APIs accept.
  */
 public class MapFragmentView {
+    private static final String TAG = MapFragmentView.class.getSimpleName();
+
     private AndroidXMapFragment m_mapFragment;
     private AppCompatActivity m_activity;
     private Map m_map;
     private Button m_displayButton;
-    private ArrayList<MapLocalModel> m_modelList;
+    private ArrayList<LodModel> m_modelList;
+    private Handle3DModelTask m_loadTask;
+    private CharSequence m_displayLabel;
+    private TextureCache m_textureCache;
+    private ModelManager m_modelManager;
+
+    // Decoded textures are kept up to this size, so reloading a model doesn't decode them again
+    private static final long TEXTURE_CACHE_BYTES = 32 * 1024 * 1024;
+    // Cached meshes take half the space, at the cost of decoding them and an error of at most
+    // half a 16 bit step of each group's bounding box
+    private static final boolean QUANTIZE_CACHED_MESHES = true;
 
     public MapFragmentView(AppCompatActivity activity) {
         m_activity = activity;
+        m_textureCache = new TextureCache(activity.getAssets(), TEXTURE_CACHE_BYTES);
         initMapFragment();
         initDisplayButton();
     }
@@ -90,6 +110,8 @@ public class MapFragmentView {
                         m_map.setCenter(new GeoCoordinate(49.259149, -123.008555),
                                 Map.Animation.LINEAR);
                         m_map.setZoomLevel(13.2);
+                        m_map.addTransformListener(m_transformListener);
+                        m_modelManager = new ModelManager(m_map);
 
                     } else {
                         new AlertDialog.Builder(m_activity).setMessage(
@@ -110,151 +132,302 @@ public class MapFragmentView {
         }
     }
 
+    // Lets the OBJ parser read the model and its material libraries from the app's assets
+    private final ResourceOpener m_assetOpener = new ResourceOpener() {
+        @Override
+        public InputStream open(String filename) throws IOException {
+            return m_activity.getAssets().open(filename);
+        }
+
+        @Override
+        public String resolve(String filename) {
+            // Asset names are paths from the root of the assets
+            return filename;
+        }
+    };
+
+    // Switches the models to the level of detail of the new zoom level, and keeps only the
+    // models near the new viewport on the map
+    private final Map.OnTransformListener m_transformListener = new Map.OnTransformListener() {
+        @Override
+        public void onMapTransformStart() {
+        }
+
+        @Override
+        public void onMapTransformEnd(MapState mapState) {
+            updateLevelOfDetail(mapState.getZoomLevel());
+            if (m_modelManager != null) {
+                m_modelManager.update(m_map.getBoundingBox());
+            }
+        }
+    };
+
+    private void updateLevelOfDetail(double zoomLevel) {
+        if (m_modelList == null) {
+            return;
+        }
+        int level = LodModel.levelForZoom(zoomLevel);
+        for (LodModel model : m_modelList) {
+            model.setLevel(level);
+        }
+    }
+
     @SuppressWarnings("deprecation")
     private void initDisplayButton() {
         m_displayButton = (Button) m_activity.findViewById(R.id.displayButton);
+        m_displayLabel = m_displayButton.getText();
         m_displayButton.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
+                if (m_loadTask != null) {
+                    // The button cancels the load that is in progress
+                    m_loadTask.cancel(false);
+                    return;
+                }
                 // Trigger a 3D model loader task by specifying the name of the OBJ file
-                new Handle3DModelTask().execute("lexus_hs.obj");
+                m_loadTask = new Handle3DModelTask();
+                m_loadTask.execute("lexus_hs.obj");
             }
         });
 
     }
 
+    /**
+     * Loads the model in the background and shows each group as soon as its model is ready. The
+     * finished models are collected and added to the map together on the next frame, so a burst
+     * of groups does not turn into a burst of map updates.
+     */
     @SuppressWarnings("deprecation")
-    private class Handle3DModelTask extends android.os.AsyncTask<String, Void, ArrayList<MapLocalModel>> {
+    private class Handle3DModelTask extends android.os.AsyncTask<String, LodModel, ArrayList<LodModel>>
+            implements Choreographer.FrameCallback {
+        private final ArrayList<LodModel> m_pendingModels = new ArrayList<>();
+        private boolean m_frameScheduled = false;
+        private boolean m_shownFirstGroup = false;
+        private long m_startTime;
+        private long m_firstGroupTime;
 
         @Override
         protected void onPreExecute() {
+            m_startTime = SystemClock.elapsedRealtime();
+            m_displayButton.setText("Cancel");
             Toast.makeText(m_activity, "Start parsing OBJ file...", Toast.LENGTH_SHORT).show();
         }
 
         @Override
-        protected ArrayList<MapLocalModel> doInBackground(String... fileName) {
+        protected ArrayList<LodModel> doInBackground(String... fileName) {
             return construct3DModel(fileName);
         }
 
         @Override
-        protected void onPostExecute(ArrayList<MapLocalModel> modelList) {
-            // Clear the map if there are any existing models
-            if (m_modelList != null) {
-                for (MapLocalModel model : m_modelList) {
-                    m_map.removeMapObject(model);
-                }
+        protected void onProgressUpdate(LodModel... models) {
+            Collections.addAll(m_pendingModels, models);
+            if (!m_frameScheduled) {
+                m_frameScheduled = true;
+                Choreographer.getInstance().postFrameCallback(this);
             }
+        }
 
-            // Display the model on map
-            for (MapLocalModel model : modelList) {
-                model.setAnchor(m_map.getCenter());
-                m_map.addMapObject(model);
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            m_frameScheduled = false;
+            if (!isCancelled()) {
+                showPendingModels();
+            }
+        }
+
+        private void showPendingModels() {
+            if (m_pendingModels.isEmpty()) {
+                return;
+            }
+            if (!m_shownFirstGroup) {
+                m_shownFirstGroup = true;
+                m_firstGroupTime = SystemClock.elapsedRealtime() - m_startTime;
+
+                // Clear the map if there are any existing models
+                m_modelManager.clear();
+                m_modelList = new ArrayList<>();
                 m_map.setZoomLevel(18);
                 m_map.setTilt(60f);
             }
-            m_modelList = modelList;
 
+            // Display the models on map, if they are in view
+            int level = LodModel.levelForZoom(m_map.getZoomLevel());
+            GeoCoordinate anchor = m_map.getCenter();
+            for (LodModel model : m_pendingModels) {
+                model.getModel().setAnchor(anchor);
+                model.setLevel(level);
+                m_modelManager.add(model, anchor);
+                m_modelList.add(model);
+            }
+            m_pendingModels.clear();
+            m_modelManager.update(m_map.getBoundingBox());
+        }
+
+        @Override
+        protected void onPostExecute(ArrayList<LodModel> modelList) {
+            // Don't wait for the frame callback with the last groups
+            Choreographer.getInstance().removeFrameCallback(this);
+            m_frameScheduled = false;
+            showPendingModels();
+            finish();
+
+            long totalTime = SystemClock.elapsedRealtime() - m_startTime;
+            Log.i(TAG, "Loaded " + modelList.size() + " groups, first group shown after "
+                    + m_firstGroupTime + " ms, all groups after " + totalTime + " ms, "
+                    + m_modelManager);
             Toast.makeText(m_activity, "3D model displayed successfully!", Toast.LENGTH_SHORT)
                     .show();
         }
 
-        private ArrayList<MapLocalModel> construct3DModel(String[] path) {
+        @Override
+        protected void onCancelled(ArrayList<LodModel> modelList) {
+            // The groups that are already shown stay on the map
+            Choreographer.getInstance().removeFrameCallback(this);
+            m_pendingModels.clear();
+            finish();
+
+            Log.i(TAG, "Loading cancelled after " + (SystemClock.elapsedRealtime() - m_startTime)
+                    + " ms");
+            Toast.makeText(m_activity, "Loading cancelled", Toast.LENGTH_SHORT).show();
+        }
+
+        private void finish() {
+            m_loadTask = null;
+            m_displayButton.setText(m_displayLabel);
+        }
+
+        private ArrayList<LodModel> construct3DModel(String[] path) {
+            String assetName = path[0];
+            MeshCache cache = new MeshCache(new File(m_activity.getCacheDir(), "meshes"),
+                    QUANTIZE_CACHED_MESHES);
+            long contentHash = 0;
+            boolean hashed = false;
+            List<MeshCache.CachedGroup> cachedGroups = null;
+            try {
+                contentHash = MeshCache.contentHash(m_activity.getAssets().open(assetName));
+                hashed = true;
+                cachedGroups = cache.load(assetName, contentHash);
+            } catch (IOException e) {
+                Log.w(TAG, "Unable to hash " + assetName + ": " + e.getMessage());
+            }
+
+            ArrayList<LodModel> modelList = new ArrayList<>();
+            if (cachedGroups != null) {
+                // The model was parsed and simplified on a previous launch, use the
+                // memory-mapped meshes
+                for (MeshCache.CachedGroup group : cachedGroups) {
+                    requestTexture(group.material);
+                }
+                for (MeshCache.CachedGroup group : cachedGroups) {
+                    if (isCancelled()) {
+                        return modelList;
+                    }
+                    LodModel model = new LodModel(group.name, group.vertices,
+                            group.textureCoordinates, group.vertexIndices, group.levelIndices);
+                    configureModelMaterial(model.getModel(), group.material);
+                    modelList.add(model);
+                    publishProgress(model);
+                }
+                Log.i(TAG, m_textureCache.toString());
+                return modelList;
+            }
+
             // Parsing OBJ file
-            Build builder = new Build();
+            PackedBuild builder = new PackedBuild();
+            boolean parsed = false;
             try {
-                Parse parser = new Parse(builder, m_activity, path[0]);
+                Parse parser = new Parse(builder, m_assetOpener, assetName, Parse.MODE_STREAMING);
+                parsed = true;
             } catch (IOException e) {
                 Toast.makeText(m_activity, e.getMessage(), Toast.LENGTH_SHORT).show();
             }
 
-            ArrayList<MapLocalModel> modelList = new ArrayList<>();
+            if (isCancelled()) {
+                return modelList;
+            }
+
+            // Let the textures decode while the meshes are built
+            for (PackedGroup group : builder.groups.values()) {
+                requestTexture(builder.materialLib.get(group.getMaterialName()));
+            }
+
             // Iterate each group defined in the OBJ file to construct a model
-            for (java.util.Map.Entry<String, Group> entry : builder.groups.entrySet()) {
-                Group group = entry.getValue();
+            java.util.Map<PackedGroup, List<IntBuffer>> levelIndices = new HashMap<>();
+            for (java.util.Map.Entry<String, PackedGroup> entry : builder.groups.entrySet()) {
+                if (isCancelled()) {
+                    return modelList;
+                }
+                PackedGroup group = entry.getValue();
 
-                // Build the mesh first
-                MapLocalModel model = constructMesh(group);
+                // Build the mesh and its levels of detail first
+                LodModel model = constructMesh(builder, group, levelIndices);
 
                 // Read material data from the file
                 Material currentMat = builder.materialLib.get(group.getMaterialName());
-                model = configureModelMaterial(model, currentMat);
+                configureModelMaterial(model.getModel(), currentMat);
 
                 modelList.add(model);
+                publishProgress(model);
             }
-            return modelList;
-        }
-
-        @NonNull
-        private MapLocalModel constructMesh(Group group) {
-            // Allocate 3 buffers to store data
-            FloatBuffer verticesBuffer = FloatBuffer.allocate(group.getVertIndicesList().size());
-            FloatBuffer textCoordBuffer = FloatBuffer
-                    .allocate(group.getVertIndicesList().size() / 3 * 2);
-            IntBuffer vertIndicesBuffer = IntBuffer.allocate(group.getVertIndicesList().size());
-
-            // The OBJ loader already generated faces with corresponding vertices and texture
-            // coordinates which are specified in the OBJ file, so we will need to iterate each
-            // face to read these data.
-            int offset = 0;
-            for (Face face : group.getFaceList()) {
-                for (FaceVertex fv : face.vertices) {
-                    verticesBuffer.put(fv.v.x);
-                    verticesBuffer.put(fv.v.y);
-                    verticesBuffer.put(fv.v.z);
-                    if (fv.t != null) {
-                        textCoordBuffer.put(fv.t.u);
-                        // OpenGL considers (0,0) to be bottom left, while OBJ file considers
-                        // (0,0) to be top left.
-                        textCoordBuffer.put(1 - fv.t.v);
-                    }
-                }
+            Log.i(TAG, m_textureCache.toString() + ", " + MaterialRegistry.getStats());
 
-                // All faces need to be decomposed into triangles.The vertex indices are ordered
-                // in clockwise direction.Because the vertices were already put into buffer in
-                // the order specified in OBJ file,so the an offset should also be added to the
-                // vertex indices.
-
-                // Triangles
-                vertIndicesBuffer.put(0 + offset);
-                vertIndicesBuffer.put(1 + offset);
-                vertIndicesBuffer.put(2 + offset);
-
-                // Quadragons.Decomposed into 2 triangles.
-                if (face.vertices.size() >= 4) {
-                    vertIndicesBuffer.put(0 + offset);
-                    vertIndicesBuffer.put(2 + offset);
-                    vertIndicesBuffer.put(3 + offset);
+            // Only a completely parsed mesh of a known content may be loaded on later launches
+            if (hashed && parsed && !isCancelled()) {
+                try {
+                    cache.store(assetName, contentHash, builder, levelIndices);
+                } catch (IOException e) {
+                    Log.w(TAG, "Unable to cache " + assetName + ": " + e.getMessage());
                 }
+            }
+            return modelList;
+        }
 
-                // Pentagons.Decomposed into 3 triangles.
-                if (face.vertices.size() >= 5) {
-                    vertIndicesBuffer.put(0 + offset);
-                    vertIndicesBuffer.put(3 + offset);
-                    vertIndicesBuffer.put(4 + offset);
-                }
+        private void requestTexture(Material material) {
+            if (material != null && material.mapKdFilename != null) {
+                m_textureCache.request(material.mapKdFilename);
+            }
+        }
 
-                offset += face.vertices.size();
+        @NonNull
+        private LodModel constructMesh(PackedBuild builder, PackedGroup group,
+                java.util.Map<PackedGroup, List<IntBuffer>> levelIndices) {
+            // The packed builder already keeps welded vertices and the faces decomposed into
+            // triangles, with indices relative to the group, so the group's ranges can be
+            // copied into the buffers as they are.
+            int vertexCount = group.getVertexCount();
+            FloatBuffer verticesBuffer = FloatBuffer.allocate(vertexCount * 3);
+            verticesBuffer.put(builder.positions.array(), group.getFirstVertex() * 3,
+                    vertexCount * 3);
+
+            IntBuffer vertIndicesBuffer = IntBuffer.allocate(group.getIndexCount());
+            vertIndicesBuffer.put(builder.indices.array(), group.getFirstIndex(),
+                    group.getIndexCount());
+
+            // OpenGL considers (0,0) to be bottom left, while OBJ file considers (0,0) to be top
+            // left.
+            FloatBuffer textCoordBuffer = FloatBuffer.allocate(vertexCount * 2);
+            float[] textureCoords = builder.textureCoords.array();
+            int end = (group.getFirstVertex() + vertexCount) * 2;
+            for (int i = group.getFirstVertex() * 2; i < end; i += 2) {
+                textCoordBuffer.put(textureCoords[i]);
+                textCoordBuffer.put(1 - textureCoords[i + 1]);
             }
 
-            // Create model
-            LocalMesh mesh = new LocalMesh();
-            mesh.setVertices(verticesBuffer);
-            mesh.setVertexIndices(vertIndicesBuffer);
-            mesh.setTextureCoordinates(textCoordBuffer);
-            MapLocalModel model = new MapLocalModel();
-            model.setMesh(mesh);
-            return model;
+            // Simplify once here, the levels of detail are cached along with the mesh
+            List<IntBuffer> levels = LodModel.simplify(group.getName(), verticesBuffer,
+                    vertIndicesBuffer);
+            levelIndices.put(group, levels);
+            return new LodModel(group.getName(), verticesBuffer, textCoordBuffer,
+                    vertIndicesBuffer, levels);
         }
 
         private MapLocalModel configureModelMaterial(MapLocalModel model, Material currentMat) {
             if (currentMat.mapKdFilename != null) {
-                Image img = new Image();
-                try {
-                    img.setImageAsset(currentMat.mapKdFilename);
-                } catch (IOException e) {
-                    Toast.makeText(m_activity, e.getMessage(), Toast.LENGTH_SHORT).show();
+                // Decoded once and shared by all groups using the same texture
+                Image img = m_textureCache.get(currentMat.mapKdFilename);
+                if (img != null) {
+                    model.setTexture(img);
                 }
-                model.setTexture(img);
             }
 
             MapModelObject.PhongMaterial mat = new MapModelObject.PhongMaterial();
@@ -0,0 +1,552 @@
+/*
+ * Copyright (c) 2011-2021 HERE Europe B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.here.android.sampleapp.threeDModel;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import com.owens.oobjloader.builder.Material;
+import com.owens.oobjloader.builder.PackedBuild;
+import com.owens.oobjloader.builder.PackedGroup;
+import com.owens.oobjloader.builder.ReflectivityTransmiss;
+
+import android.util.Log;
+
+/**
+ * Binary cache for parsed OBJ models, so that later loads can skip parsing entirely.
+ *
+ * A cache file holds, for every group, the vertices, the texture coordinates (already flipped to
+ * the OpenGL convention) and the triangle indices in the layout LocalMesh expects, together with
+ * the material the group uses and the triangles of its simplified levels of detail (see
+ * {@link LodModel#simplify}), so that neither parsing nor simplification is repeated. Files are named after the asset and a hash of its content, so a
+ * changed asset simply misses the cache. Loading memory-maps the file and hands out buffers that
+ * point into the mapping, nothing is parsed or copied.
+ *
+ * In quantized mode the vertices and texture coordinates are stored as 16 bit values relative
+ * to the bounding box of the group (see {@link QuantizedMesh}), which halves their size. They are
+ * decoded into new buffers when loading, the indices are still mapped.
+ *
+ * File layout, header in big endian (DataOutputStream) and data in native byte order:
+ * <pre>
+ *   int magic, int version, long contentHash, boolean littleEndian, int headerLength
+ *   boolean quantized
+ *   int materialCount, materials...
+ *   int groupCount, { UTF name, int materialIndex, int vertexCount, int indexCount,
+ *                     int dataOffset, int levelCount, int[levelCount] levelIndexCounts,
+ *                     if quantized: float[3] positionMin, float[3] positionStep,
+ *                                   float[2] textureMin, float[2] textureStep }...
+ *   padding up to headerLength
+ *   per group: float[vertexCount * 3] vertices, float[vertexCount * 2] texture coordinates,
+ *              int[indexCount] indices
+ *   or if quantized: short[vertexCount * 3] vertices, short[vertexCount * 2] texture
+ *              coordinates, padding to 4 bytes, int[indexCount] indices
+ *   followed by int[levelIndexCount] indices for each level of detail
+ * </pre>
+ */
+class MeshCache {
+    private static final String TAG = MeshCache.class.getSimpleName();
+    private static final int MAGIC = 0x4d455348; // "MESH"
+    // Bumped whenever the cached mesh layout or the way meshes are built changes
+    private static final int VERSION = 7;
+    private static final String SUFFIX = ".meshcache";
+    // magic, version, contentHash, littleEndian, headerLength
+    private static final int PREAMBLE_LENGTH = 4 + 4 + 8 + 1 + 4;
+
+    /**
+     * A group as stored in the cache. The buffers are views of the memory-mapped file, apart
+     * from the decoded vertices and texture coordinates of a quantized cache.
+     */
+    static class CachedGroup {
+        String name;
+        Material material;
+        FloatBuffer vertices;
+        FloatBuffer textureCoordinates;
+        IntBuffer vertexIndices;
+        // The triangles of each simplified level of detail, indices of the vertices above
+        List<IntBuffer> levelIndices;
+        // The largest distance of a vertex from its original position, 0 unless quantized
+        float positionError;
+    }
+
+    private final File m_directory;
+    private final boolean m_quantized;
+
+    /**
+     * @param quantized
+     *            whether to store vertices and texture coordinates in 16 bits per component
+     */
+    MeshCache(File directory, boolean quantized) {
+        m_directory = directory;
+        m_quantized = quantized;
+    }
+
+    /**
+     * Computes the content hash used to key the cache.
+     */
+    static long contentHash(InputStream in) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[64 * 1024];
+        long length = 0;
+        try {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                crc.update(buffer, 0, read);
+                length += read;
+            }
+        } finally {
+            in.close();
+        }
+        return (length << 32) ^ crc.getValue();
+    }
+
+    private File cacheFile(String assetName, long contentHash) {
+        return new File(m_directory, assetName + "." + Long.toHexString(contentHash) + SUFFIX);
+    }
+
+    /**
+     * @return the cached groups of the given asset, or null if there is no valid cache entry.
+     */
+    List<CachedGroup> load(String assetName, long contentHash) {
+        File file = cacheFile(assetName, contentHash);
+        if (!file.isFile()) {
+            return null;
+        }
+
+        MappedByteBuffer mapped;
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                // The mapping stays valid after the channel is closed.
+                mapped = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+            } finally {
+                raf.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to map " + file + ": " + e.getMessage());
+            return null;
+        }
+
+        try {
+            boolean littleEndian = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+            mapped.order(ByteOrder.BIG_ENDIAN);
+            if (mapped.getInt() != MAGIC || mapped.getInt() != VERSION
+                    || mapped.getLong() != contentHash || (mapped.get() != 0) != littleEndian) {
+                Log.w(TAG, "Ignoring incompatible cache file " + file);
+                return null;
+            }
+            int headerLength = mapped.getInt();
+            byte[] header = new byte[headerLength - PREAMBLE_LENGTH];
+            mapped.get(header);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(header));
+            if (in.readBoolean() != m_quantized) {
+                Log.w(TAG, "Ignoring cache file " + file + " in the other storage mode");
+                return null;
+            }
+
+            Material[] materials = new Material[in.readInt()];
+            for (int i = 0; i < materials.length; i++) {
+                materials[i] = readMaterial(in);
+            }
+
+            int groupCount = in.readInt();
+            List<CachedGroup> groups = new ArrayList<>(groupCount);
+            for (int i = 0; i < groupCount; i++) {
+                CachedGroup group = new CachedGroup();
+                group.name = in.readUTF();
+                int materialIndex = in.readInt();
+                group.material = materialIndex >= 0 ? materials[materialIndex] : null;
+                int vertexCount = in.readInt();
+                int indexCount = in.readInt();
+                int offset = headerLength + in.readInt();
+                int[] levelIndexCounts = new int[in.readInt()];
+                for (int level = 0; level < levelIndexCounts.length; level++) {
+                    levelIndexCounts[level] = in.readInt();
+                }
+
+                if (m_quantized) {
+                    int vertexData = offset;
+                    float[] positionMin = readFloats(in, 3);
+                    float[] positionStep = readFloats(in, 3);
+                    float[] textureMin = readFloats(in, 2);
+                    float[] textureStep = readFloats(in, 2);
+                    group.vertices = QuantizedMesh.decode(
+                            region(mapped, offset, vertexCount * 3 * 2).asShortBuffer(), 3,
+                            positionMin, positionStep);
+                    offset += vertexCount * 3 * 2;
+                    group.textureCoordinates = QuantizedMesh.decode(
+                            region(mapped, offset, vertexCount * 2 * 2).asShortBuffer(), 2,
+                            textureMin, textureStep);
+                    offset = vertexData + quantizedVertexBytes(vertexCount);
+                    group.positionError = QuantizedMesh.errorBound(positionStep);
+                } else {
+                    group.vertices =
+                            region(mapped, offset, vertexCount * 3 * 4).asFloatBuffer();
+                    offset += vertexCount * 3 * 4;
+                    group.textureCoordinates =
+                            region(mapped, offset, vertexCount * 2 * 4).asFloatBuffer();
+                    offset += vertexCount * 2 * 4;
+                }
+                group.vertexIndices = region(mapped, offset, indexCount * 4).asIntBuffer();
+                offset += indexCount * 4;
+                group.levelIndices = new ArrayList<>(levelIndexCounts.length);
+                for (int levelIndexCount : levelIndexCounts) {
+                    group.levelIndices.add(
+                            region(mapped, offset, levelIndexCount * 4).asIntBuffer());
+                    offset += levelIndexCount * 4;
+                }
+                groups.add(group);
+            }
+            if (m_quantized) {
+                float maxError = 0;
+                for (CachedGroup group : groups) {
+                    maxError = Math.max(maxError, group.positionError);
+                }
+                Log.i(TAG, "Loaded quantized " + assetName + ", position error at most "
+                        + maxError);
+            }
+            return groups;
+        } catch (IOException | RuntimeException e) {
+            // Truncated or otherwise corrupt file, it will be rewritten after parsing.
+            Log.w(TAG, "Ignoring corrupt cache file " + file + ": " + e);
+            return null;
+        }
+    }
+
+    // Quantized vertices and texture coordinates, padded so that the indices are 4 byte aligned
+    private static int quantizedVertexBytes(int vertexCount) {
+        return (vertexCount * (3 + 2) * 2 + 3) & ~3;
+    }
+
+    private static float[] readFloats(DataInputStream in, int count) throws IOException {
+        float[] values = new float[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = in.readFloat();
+        }
+        return values;
+    }
+
+    private static void writeFloats(DataOutputStream out, float[] values) throws IOException {
+        for (float value : values) {
+            out.writeFloat(value);
+        }
+    }
+
+    private static ByteBuffer region(MappedByteBuffer mapped, int offset, int length) {
+        ByteBuffer region = mapped.duplicate();
+        region.limit(offset + length);
+        region.position(offset);
+        return region.slice().order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Writes the groups of the given build to the cache, replacing any entry for an older version
+     * of the asset.
+     *
+     * @param levelIndices
+     *            the levels of detail of each group, as returned by {@link LodModel#simplify}
+     */
+    void store(String assetName, long contentHash, PackedBuild builder,
+            Map<PackedGroup, List<IntBuffer>> levelIndices) throws IOException {
+        if (!m_directory.isDirectory() && !m_directory.mkdirs()) {
+            throw new IOException("Unable to create " + m_directory);
+        }
+
+        List<PackedGroup> groups = new ArrayList<>(builder.groups.values());
+        List<Material> materials = new ArrayList<>();
+        Map<String, Integer> materialIndices = new HashMap<>();
+        for (PackedGroup group : groups) {
+            Material material = builder.materialLib.get(group.getMaterialName());
+            if (material != null && !materialIndices.containsKey(material.name)) {
+                materialIndices.put(material.name, materials.size());
+                materials.add(material);
+            }
+        }
+
+        List<QuantizedMesh> quantizedMeshes = new ArrayList<>();
+        if (m_quantized) {
+            for (PackedGroup group : groups) {
+                quantizedMeshes.add(new QuantizedMesh(positions(builder, group),
+                        textureCoordinates(builder, group)));
+            }
+        }
+
+        ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(headerBytes);
+        header.writeBoolean(m_quantized);
+        header.writeInt(materials.size());
+        for (Material material : materials) {
+            writeMaterial(header, material);
+        }
+        header.writeInt(groups.size());
+        int dataOffset = 0;
+        for (int i = 0; i < groups.size(); i++) {
+            PackedGroup group = groups.get(i);
+            Integer materialIndex = materialIndices.get(group.getMaterialName());
+            header.writeUTF(group.getName());
+            header.writeInt(materialIndex != null ? materialIndex : -1);
+            header.writeInt(group.getVertexCount());
+            header.writeInt(group.getIndexCount());
+            header.writeInt(dataOffset);
+            List<IntBuffer> levels = levelIndices.get(group);
+            header.writeInt(levels.size());
+            for (IntBuffer level : levels) {
+                header.writeInt(level.capacity());
+                dataOffset += level.capacity() * 4;
+            }
+            if (m_quantized) {
+                QuantizedMesh mesh = quantizedMeshes.get(i);
+                writeFloats(header, mesh.positionMin);
+                writeFloats(header, mesh.positionStep);
+                writeFloats(header, mesh.textureMin);
+                writeFloats(header, mesh.textureStep);
+                dataOffset += quantizedVertexBytes(group.getVertexCount());
+            } else {
+                dataOffset += group.getVertexCount() * (3 + 2) * 4;
+            }
+            dataOffset += group.getIndexCount() * 4;
+        }
+        // Keep the data 4 byte aligned, so the float and int views can be read directly.
+        int headerLength = (PREAMBLE_LENGTH + header.size() + 3) & ~3;
+
+        ByteBuffer preamble = ByteBuffer.allocate(headerLength);
+        preamble.putInt(MAGIC);
+        preamble.putInt(VERSION);
+        preamble.putLong(contentHash);
+        preamble.put((byte) (ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN ? 1 : 0));
+        preamble.putInt(headerLength);
+        preamble.put(headerBytes.toByteArray());
+        preamble.position(0);
+
+        // Write to a temporary file first, so an interrupted write never leaves a cache file
+        // that looks valid.
+        File file = cacheFile(assetName, contentHash);
+        File tmpFile = new File(m_directory, file.getName() + ".tmp");
+        FileOutputStream out = new FileOutputStream(tmpFile);
+        try {
+            FileChannel channel = out.getChannel();
+            writeFully(channel, preamble);
+            for (int i = 0; i < groups.size(); i++) {
+                if (m_quantized) {
+                    writeQuantizedGroup(channel, builder, groups.get(i), quantizedMeshes.get(i));
+                } else {
+                    writeGroup(channel, builder, groups.get(i));
+                }
+                for (IntBuffer level : levelIndices.get(groups.get(i))) {
+                    writeIndices(channel, level);
+                }
+            }
+        } finally {
+            out.close();
+        }
+        if (!tmpFile.renameTo(file)) {
+            tmpFile.delete();
+            throw new IOException("Unable to rename " + tmpFile + " to " + file);
+        }
+        if (m_quantized) {
+            float maxError = 0;
+            for (QuantizedMesh mesh : quantizedMeshes) {
+                maxError = Math.max(maxError, mesh.getPositionErrorBound());
+            }
+            Log.i(TAG, "Stored quantized " + assetName + " in " + file.length()
+                    + " bytes, position error at most " + maxError);
+        }
+
+        // Drop the entries of previous versions of the asset
+        File[] files = m_directory.listFiles();
+        if (files != null) {
+            for (File other : files) {
+                String name = other.getName();
+                if (!other.equals(file) && name.startsWith(assetName + ".")
+                        && name.endsWith(SUFFIX)) {
+                    other.delete();
+                }
+            }
+        }
+    }
+
+    private static void writeGroup(FileChannel channel, PackedBuild builder, PackedGroup group)
+            throws IOException {
+        int first = group.getFirstVertex();
+        int vertexCount = group.getVertexCount();
+        ByteBuffer data = ByteBuffer
+                .allocate(vertexCount * (3 + 2) * 4 + group.getIndexCount() * 4)
+                .order(ByteOrder.nativeOrder());
+
+        data.asFloatBuffer().put(builder.positions.array(), first * 3, vertexCount * 3);
+        data.position(vertexCount * 3 * 4);
+
+        // OpenGL considers (0,0) to be bottom left, while OBJ file considers (0,0) to be top left.
+        FloatBuffer textureCoordinates = data.asFloatBuffer();
+        float[] uv = builder.textureCoords.array();
+        for (int i = first * 2; i < (first + vertexCount) * 2; i += 2) {
+            textureCoordinates.put(uv[i]);
+            textureCoordinates.put(1 - uv[i + 1]);
+        }
+        data.position(vertexCount * (3 + 2) * 4);
+
+        data.asIntBuffer().put(builder.indices.array(), group.getFirstIndex(),
+                group.getIndexCount());
+        data.position(0);
+        writeFully(channel, data);
+    }
+
+    private static void writeQuantizedGroup(FileChannel channel, PackedBuild builder,
+            PackedGroup group, QuantizedMesh mesh) throws IOException {
+        int vertexBytes = quantizedVertexBytes(group.getVertexCount());
+        ByteBuffer data = ByteBuffer.allocate(vertexBytes + group.getIndexCount() * 4)
+                .order(ByteOrder.nativeOrder());
+
+        data.asShortBuffer().put(mesh.positions).put(mesh.textureCoordinates);
+        data.position(vertexBytes);
+        data.asIntBuffer().put(builder.indices.array(), group.getFirstIndex(),
+                group.getIndexCount());
+        data.position(0);
+        writeFully(channel, data);
+    }
+
+    private static void writeIndices(FileChannel channel, IntBuffer indices)
+            throws IOException {
+        ByteBuffer data = ByteBuffer.allocate(indices.capacity() * 4)
+                .order(ByteOrder.nativeOrder());
+        IntBuffer source = indices.duplicate();
+        source.clear();
+        data.asIntBuffer().put(source);
+        writeFully(channel, data);
+    }
+
+    private static float[] positions(PackedBuild builder, PackedGroup group) {
+        int first = group.getFirstVertex() * 3;
+        return Arrays.copyOfRange(builder.positions.array(), first,
+                first + group.getVertexCount() * 3);
+    }
+
+    // OpenGL considers (0,0) to be bottom left, while OBJ file considers (0,0) to be top left.
+    private static float[] textureCoordinates(PackedBuild builder, PackedGroup group) {
+        float[] uv = builder.textureCoords.array();
+        float[] flipped = new float[group.getVertexCount() * 2];
+        int first = group.getFirstVertex() * 2;
+        for (int i = 0; i < flipped.length; i += 2) {
+            flipped[i] = uv[first + i];
+            flipped[i + 1] = 1 - uv[first + i + 1];
+        }
+        return flipped;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static void writeMaterial(DataOutputStream out, Material material)
+            throws IOException {
+        out.writeUTF(material.name);
+        writeReflectivity(out, material.ka);
+        writeReflectivity(out, material.kd);
+        writeReflectivity(out, material.ks);
+        writeReflectivity(out, material.tf);
+        out.writeInt(material.illumModel);
+        out.writeBoolean(material.dHalo);
+        out.writeDouble(material.dFactor);
+        out.writeDouble(material.nsExponent);
+        out.writeDouble(material.sharpnessValue);
+        out.writeDouble(material.niOpticalDensity);
+        writeString(out, material.mapKaFilename);
+        writeString(out, material.mapKdFilename);
+        writeString(out, material.mapKsFilename);
+        writeString(out, material.mapNsFilename);
+        writeString(out, material.mapDFilename);
+        writeString(out, material.decalFilename);
+        writeString(out, material.dispFilename);
+        writeString(out, material.bumpFilename);
+        out.writeInt(material.reflType);
+        writeString(out, material.reflFilename);
+    }
+
+    private static Material readMaterial(DataInputStream in) throws IOException {
+        Material material = new Material(in.readUTF());
+        readReflectivity(in, material.ka);
+        readReflectivity(in, material.kd);
+        readReflectivity(in, material.ks);
+        readReflectivity(in, material.tf);
+        material.illumModel = in.readInt();
+        material.dHalo = in.readBoolean();
+        material.dFactor = in.readDouble();
+        material.nsExponent = in.readDouble();
+        material.sharpnessValue = in.readDouble();
+        material.niOpticalDensity = in.readDouble();
+        material.mapKaFilename = readString(in);
+        material.mapKdFilename = readString(in);
+        material.mapKsFilename = readString(in);
+        material.mapNsFilename = readString(in);
+        material.mapDFilename = readString(in);
+        material.decalFilename = readString(in);
+        material.dispFilename = readString(in);
+        material.bumpFilename = readString(in);
+        material.reflType = in.readInt();
+        material.reflFilename = readString(in);
+        return material;
+    }
+
+    private static void writeReflectivity(DataOutputStream out, ReflectivityTransmiss rt)
+            throws IOException {
+        out.writeBoolean(rt.isRGB);
+        out.writeBoolean(rt.isXYZ);
+        out.writeDouble(rt.rx);
+        out.writeDouble(rt.gy);
+        out.writeDouble(rt.bz);
+    }
+
+    private static void readReflectivity(DataInputStream in, ReflectivityTransmiss rt)
+            throws IOException {
+        rt.isRGB = in.readBoolean();
+        rt.isXYZ = in.readBoolean();
+        rt.rx = in.readDouble();
+        rt.gy = in.readDouble();
+        rt.bz = in.readDouble();
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright (c) 2011-2021 HERE Europe B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.here.android.sampleapp.threeDModel;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import com.here.android.mpa.common.GeoBoundingBox;
+import com.here.android.mpa.common.GeoCoordinate;
+import com.here.android.mpa.mapping.Map;
+import com.here.android.mpa.mapping.MapObject;
+
+import android.util.Log;
+
+/**
+ * Keeps only the models near the viewport on the map.
+ *
+ * Every model is indexed by its geographic bounding box in a uniform grid of latitude and
+ * longitude cells. On update() the grid is queried with the viewport plus a margin, and models
+ * entering it are added to the map while models leaving it are removed, each in one batch. So
+ * the map only has to draw and hit test the models that can be seen, no matter how many are
+ * loaded.
+ */
+class ModelManager {
+    private static final String TAG = ModelManager.class.getSimpleName();
+
+    // Size of a grid cell in degrees, about 110 m north to south
+    private static final double CELL_DEGREES = 0.001;
+    private static final double METERS_PER_DEGREE = 111320.0;
+    // The viewport is extended by this fraction of its size on every side, so that models are
+    // already on the map when a short pan brings them into view
+    private static final double MARGIN = 0.25;
+
+    private static class Entry {
+        LodModel model;
+        double south;
+        double west;
+        double north;
+        double east;
+        boolean attached;
+        // The last query that found this entry
+        int queryStamp;
+    }
+
+    private final Map m_map;
+    private final ArrayList<Entry> m_entries = new ArrayList<>();
+    // Grid cell to the entries overlapping it, see cellKey()
+    private final HashMap<Long, ArrayList<Entry>> m_cells = new HashMap<>();
+    private ArrayList<Entry> m_attached = new ArrayList<>();
+    private ArrayList<Entry> m_visible = new ArrayList<>();
+    private int m_queryStamp = 0;
+    private int m_queryCount = 0;
+    private long m_lastQueryNanos = 0;
+    private long m_maxQueryNanos = 0;
+    private long m_totalQueryNanos = 0;
+
+    ModelManager(Map map) {
+        m_map = map;
+    }
+
+    /**
+     * Adds a model at the given anchor to the index. It is attached to the map by the next
+     * update() that finds it in the viewport.
+     */
+    void add(LodModel model, GeoCoordinate anchor) {
+        Entry entry = new Entry();
+        entry.model = model;
+        // The mesh is in meters around the anchor. A circle around its farthest vertex holds it
+        // in any orientation.
+        double radius = model.getRadius();
+        double latitude = anchor.getLatitude();
+        double longitude = anchor.getLongitude();
+        double latitudeRadius = radius / METERS_PER_DEGREE;
+        double longitudeRadius = radius
+                / (METERS_PER_DEGREE * Math.max(Math.cos(Math.toRadians(latitude)), 0.01));
+        entry.south = latitude - latitudeRadius;
+        entry.north = latitude + latitudeRadius;
+        entry.west = longitude - longitudeRadius;
+        entry.east = longitude + longitudeRadius;
+        m_entries.add(entry);
+
+        for (long row = cell(entry.south); row <= cell(entry.north); row++) {
+            for (long column = cell(entry.west); column <= cell(entry.east); column++) {
+                long key = cellKey(row, column);
+                ArrayList<Entry> entries = m_cells.get(key);
+                if (entries == null) {
+                    entries = new ArrayList<>();
+                    m_cells.put(key, entries);
+                }
+                entries.add(entry);
+            }
+        }
+    }
+
+    /**
+     * Removes all models from the map and from the index.
+     */
+    void clear() {
+        List<MapObject> objects = new ArrayList<>();
+        for (Entry entry : m_attached) {
+            objects.add(entry.model.getModel());
+        }
+        if (!objects.isEmpty()) {
+            m_map.removeMapObjects(objects);
+        }
+        m_attached.clear();
+        m_entries.clear();
+        m_cells.clear();
+    }
+
+    /**
+     * Attaches the models that intersect the viewport plus the margin, and detaches all others.
+     *
+     * @param viewport
+     *            the bounding box of the map view, or null to attach all models
+     */
+    void update(GeoBoundingBox viewport) {
+        long start = System.nanoTime();
+        m_queryStamp++;
+        m_visible.clear();
+        if (viewport == null) {
+            for (Entry entry : m_entries) {
+                entry.queryStamp = m_queryStamp;
+                m_visible.add(entry);
+            }
+        } else {
+            query(viewport);
+        }
+        m_lastQueryNanos = System.nanoTime() - start;
+        m_maxQueryNanos = Math.max(m_maxQueryNanos, m_lastQueryNanos);
+        m_totalQueryNanos += m_lastQueryNanos;
+        m_queryCount++;
+
+        List<MapObject> detached = new ArrayList<>();
+        for (Entry entry : m_attached) {
+            if (entry.queryStamp != m_queryStamp) {
+                entry.attached = false;
+                detached.add(entry.model.getModel());
+            }
+        }
+        List<MapObject> attached = new ArrayList<>();
+        for (Entry entry : m_visible) {
+            if (!entry.attached) {
+                entry.attached = true;
+                attached.add(entry.model.getModel());
+            }
+        }
+        // The visible entries are the attached ones from now on
+        ArrayList<Entry> previous = m_attached;
+        m_attached = m_visible;
+        m_visible = previous;
+
+        if (!detached.isEmpty()) {
+            m_map.removeMapObjects(detached);
+        }
+        if (!attached.isEmpty()) {
+            m_map.addMapObjects(attached);
+        }
+        Log.d(TAG, this + ", " + attached.size() + " attached, " + detached.size()
+                + " detached");
+    }
+
+    private void query(GeoBoundingBox viewport) {
+        GeoCoordinate topLeft = viewport.getTopLeft();
+        GeoCoordinate bottomRight = viewport.getBottomRight();
+        double latitudeMargin = (topLeft.getLatitude() - bottomRight.getLatitude()) * MARGIN;
+        double longitudeMargin = (bottomRight.getLongitude() - topLeft.getLongitude()) * MARGIN;
+        double south = bottomRight.getLatitude() - latitudeMargin;
+        double north = topLeft.getLatitude() + latitudeMargin;
+        double west = topLeft.getLongitude() - longitudeMargin;
+        double east = bottomRight.getLongitude() + longitudeMargin;
+
+        long rows = cell(north) - cell(south) + 1;
+        long columns = cell(east) - cell(west) + 1;
+        if (rows * columns > m_entries.size()) {
+            // Zoomed out so far that checking every model is cheaper than visiting the cells
+            for (Entry entry : m_entries) {
+                if (intersects(entry, south, west, north, east)) {
+                    entry.queryStamp = m_queryStamp;
+                    m_visible.add(entry);
+                }
+            }
+            return;
+        }
+        for (long row = cell(south); row <= cell(north); row++) {
+            for (long column = cell(west); column <= cell(east); column++) {
+                ArrayList<Entry> entries = m_cells.get(cellKey(row, column));
+                if (entries == null) {
+                    continue;
+                }
+                for (Entry entry : entries) {
+                    // Entries spanning several cells are only added once
+                    if (entry.queryStamp != m_queryStamp
+                            && intersects(entry, south, west, north, east)) {
+                        entry.queryStamp = m_queryStamp;
+                        m_visible.add(entry);
+                    }
+                }
+            }
+        }
+    }
+
+    private static boolean intersects(Entry entry, double south, double west, double north,
+            double east) {
+        return entry.south <= north && entry.north >= south && entry.west <= east
+                && entry.east >= west;
+    }
+
+    private static long cell(double degrees) {
+        return (long) Math.floor(degrees / CELL_DEGREES);
+    }
+
+    private static long cellKey(long row, long column) {
+        return (row << 32) | (column & 0xffffffffL);
+    }
+
+    int getAttachedCount() {
+        return m_attached.size();
+    }
+
+    int getTotalCount() {
+        return m_entries.size();
+    }
+
+    /**
+     * @return the duration of the last index query in microseconds
+     */
+    long getLastQueryMicros() {
+        return m_lastQueryNanos / 1000;
+    }
+
+    @Override
+    public String toString() {
+        return "ModelManager: " + m_attached.size() + " of " + m_entries.size()
+                + " models attached, " + m_cells.size() + " cells, query "
+                + m_lastQueryNanos / 1000 + " us (average "
+                + (m_queryCount > 0 ? m_totalQueryNanos / m_queryCount / 1000 : 0) + " us, max "
+                + m_maxQueryNanos / 1000 + " us)";
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2011-2021 HERE Europe B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.here.android.sampleapp.threeDModel;
+
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Vertex positions and texture coordinates quantized to 16 bits per component.
+ *
+ * Each component is stored as an unsigned 16 bit step between the minimum and maximum of that
+ * component in the group, so a vertex takes 10 bytes instead of 20. A component is off by at
+ * most half a step, the error bound below is the length of that error over all components.
+ */
+class QuantizedMesh {
+    private static final int STEPS = 0xffff;
+    // Values decoded per bulk transfer
+    private static final int DECODE_BATCH = 1024;
+
+    // x, y, z
+    final float[] positionMin = new float[3];
+    final float[] positionStep = new float[3];
+    final short[] positions;
+    // u, v
+    final float[] textureMin = new float[2];
+    final float[] textureStep = new float[2];
+    final short[] textureCoordinates;
+
+    /**
+     * @param positions
+     *            x, y, z per vertex
+     * @param textureCoordinates
+     *            u, v per vertex
+     */
+    QuantizedMesh(float[] positions, float[] textureCoordinates) {
+        this.positions = quantize(positions, 3, positionMin, positionStep);
+        this.textureCoordinates = quantize(textureCoordinates, 2, textureMin, textureStep);
+    }
+
+    private static short[] quantize(float[] values, int components, float[] min, float[] step) {
+        for (int c = 0; c < components; c++) {
+            float low = 0;
+            float high = 0;
+            for (int i = c; i < values.length; i += components) {
+                if (i == c || values[i] < low) {
+                    low = values[i];
+                }
+                if (i == c || values[i] > high) {
+                    high = values[i];
+                }
+            }
+            min[c] = low;
+            step[c] = (high - low) / STEPS;
+        }
+
+        short[] quantized = new short[values.length];
+        for (int i = 0; i < values.length; i++) {
+            int c = i % components;
+            int q = step[c] > 0 ? Math.round((values[i] - min[c]) / step[c]) : 0;
+            quantized[i] = (short) Math.min(Math.max(q, 0), STEPS);
+        }
+        return quantized;
+    }
+
+    /**
+     * @return the largest distance between a position and its decoded value
+     */
+    float getPositionErrorBound() {
+        return errorBound(positionStep);
+    }
+
+    static float errorBound(float[] step) {
+        float sum = 0;
+        for (float s : step) {
+            sum += s * s;
+        }
+        return (float) Math.sqrt(sum) / 2;
+    }
+
+    /**
+     * Decodes quantized values into a new buffer, as LocalMesh expects them.
+     *
+     * @param quantized
+     *            the remaining values are decoded, components interleaved
+     * @param components
+     *            the number of components per vertex
+     */
+    static FloatBuffer decode(ShortBuffer quantized, int components, float[] min, float[] step) {
+        FloatBuffer decoded = FloatBuffer.allocate(quantized.remaining());
+        // Bulk transfers through arrays, element by element buffer access is a lot slower
+        short[] in = new short[DECODE_BATCH * components];
+        float[] out = new float[in.length];
+        while (quantized.hasRemaining()) {
+            int count = Math.min(in.length, quantized.remaining());
+            quantized.get(in, 0, count);
+            for (int i = 0; i < count; i += components) {
+                for (int c = 0; c < components; c++) {
+                    out[i + c] = min[c] + (in[i + c] & 0xffff) * step[c];
+                }
+            }
+            decoded.put(out, 0, count);
+        }
+        decoded.flip();
+        return decoded;
+    }
+}
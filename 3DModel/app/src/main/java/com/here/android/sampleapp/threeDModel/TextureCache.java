@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2011-2021 HERE Europe B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.here.android.sampleapp.threeDModel;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.here.android.mpa.common.Image;
+
+import android.content.res.AssetManager;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+/**
+ * Least recently used cache of decoded texture images, keyed by asset file name.
+ *
+ * Each texture is decoded once on a background executor, and every group that uses it gets the
+ * same Image. Requesting a texture only starts the decode, so the textures of a model can be
+ * decoded while its meshes are built. Decoded images are evicted, least recently used first,
+ * once their total size exceeds the byte budget. Images that are still in use by a model stay
+ * valid, the cache just forgets about them.
+ */
+class TextureCache {
+    private static final String TAG = TextureCache.class.getSimpleName();
+    private static final int DECODE_THREADS = 2;
+    // Idle decoder threads exit after this many seconds
+    private static final int KEEP_ALIVE_SECONDS = 5;
+
+    private static class Entry {
+        Future<Image> image;
+        // 0 until the image is decoded
+        long bytes;
+    }
+
+    private final AssetManager m_assets;
+    private final long m_maxBytes;
+    private final ThreadPoolExecutor m_executor;
+    // In access order, so the first entry is the least recently used one
+    private final LinkedHashMap<String, Entry> m_entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long m_bytes = 0;
+    private int m_hits = 0;
+    private int m_misses = 0;
+    private int m_evictions = 0;
+
+    TextureCache(AssetManager assets, long maxBytes) {
+        m_assets = assets;
+        m_maxBytes = maxBytes;
+        m_executor = new ThreadPoolExecutor(DECODE_THREADS, DECODE_THREADS, KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        m_executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Returns the image of the given asset, and starts decoding it if it is not cached yet.
+     */
+    synchronized Future<Image> request(final String filename) {
+        Entry entry = m_entries.get(filename);
+        if (entry != null) {
+            m_hits++;
+            return entry.image;
+        }
+        m_misses++;
+        final Entry newEntry = new Entry();
+        newEntry.image = m_executor.submit(new Callable<Image>() {
+            @Override
+            public Image call() throws IOException {
+                try {
+                    Bitmap bitmap = decode(filename);
+                    Image image = new Image();
+                    image.setBitmap(bitmap);
+                    decoded(filename, newEntry, bitmap.getByteCount());
+                    return image;
+                } catch (IOException | RuntimeException e) {
+                    // Forget about it, so that the next request tries again
+                    failed(filename, newEntry);
+                    throw e;
+                }
+            }
+        });
+        m_entries.put(filename, newEntry);
+        return newEntry.image;
+    }
+
+    /**
+     * Returns the image of the given asset, decoding it first if needed.
+     *
+     * @return the image, or null if it could not be decoded
+     */
+    Image get(String filename) {
+        try {
+            return request(filename).get();
+        } catch (ExecutionException e) {
+            Log.w(TAG, "Unable to decode " + filename + ": " + e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return null;
+    }
+
+    private Bitmap decode(String filename) throws IOException {
+        InputStream in = m_assets.open(filename);
+        try {
+            Bitmap bitmap = BitmapFactory.decodeStream(in);
+            if (bitmap == null) {
+                throw new IOException("Not a supported image format");
+            }
+            return bitmap;
+        } finally {
+            in.close();
+        }
+    }
+
+    private synchronized void decoded(String filename, Entry entry, long bytes) {
+        if (m_entries.get(filename) != entry) {
+            // Removed by failed(), which does not happen for a decoded image
+            return;
+        }
+        entry.bytes = bytes;
+        m_bytes += bytes;
+
+        Iterator<Entry> iterator = m_entries.values().iterator();
+        while (m_bytes > m_maxBytes && iterator.hasNext()) {
+            Entry eldest = iterator.next();
+            if (eldest.bytes == 0) {
+                // Still decoding
+                continue;
+            }
+            iterator.remove();
+            m_bytes -= eldest.bytes;
+            m_evictions++;
+        }
+    }
+
+    private synchronized void failed(String filename, Entry entry) {
+        if (m_entries.get(filename) == entry) {
+            m_entries.remove(filename);
+        }
+    }
+
+    synchronized int getHitCount() {
+        return m_hits;
+    }
+
+    synchronized int getMissCount() {
+        return m_misses;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "TextureCache: " + m_entries.size() + " images, " + m_bytes + " of " + m_maxBytes
+                + " bytes, " + m_hits + " hits, " + m_misses + " misses, " + m_evictions
+                + " evictions";
+    }
+}
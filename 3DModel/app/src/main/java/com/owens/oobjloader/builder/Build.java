@@ -14,6 +14,7 @@ import static java.util.logging.Level.SEVERE;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Map;
 import java.util.logging.Logger;
 
 import com.owens.oobjloader.parser.BuilderInterface;
@@ -35,7 +36,20 @@ public class Build implements BuilderInterface {
     // or verticesN, two faces might end up specifying the same combination. Clearly (@TODO:
     // really?) this
     // combination should be shared between both faces.
-    HashMap<String, FaceVertex> faceVerticeMap = new HashMap<String, FaceVertex>();
+    //
+    // Face vertices used to be keyed by FaceVertex.toString(), i.e. by the coordinates of the
+    // vertices rather than by their indices. To keep exactly that behaviour without building a
+    // String per face vertex, every vertex is mapped to the first vertex with bit-identical
+    // coordinates as it is added (canonicalG/T/N), and the map is keyed on the triple of those
+    // canonical indices, with -1 for a missing texture or normal. The value is the index into
+    // faceVerticeList.
+    IntTripleMap faceVerticeMap = new IntTripleMap();
+    private IntTripleMap coordinatesG = new IntTripleMap();
+    private IntTripleMap coordinatesT = new IntTripleMap();
+    private IntTripleMap coordinatesN = new IntTripleMap();
+    private IntArray canonicalG = new IntArray(1024);
+    private IntArray canonicalT = new IntArray(1024);
+    private IntArray canonicalN = new IntArray(1024);
     // Each face vertex as it is parsed, minus the redundant face vertices. @TODO: Not used anywhere
     // yet, maybe get rid of this.
     public ArrayList<FaceVertex> faceVerticeList = new ArrayList<FaceVertex>();
@@ -66,21 +80,34 @@ public class Build implements BuilderInterface {
     }
 
     public void addVertexGeometric(float x, float y, float z) {
+        canonicalG.add(canonicalIndex(coordinatesG, verticesG.size(), x, y, z));
         verticesG.add(new VertexGeometric(x, y, z));
         // log.log(INFO,"Added geometric vertex " + verticesG.size() + " = " +
         // verticesG.get(verticesG.size() - 1));
     }
 
     public void addVertexTexture(float u, float v) {
+        canonicalT.add(canonicalIndex(coordinatesT, verticesT.size(), u, v, 0));
         verticesT.add(new VertexTexture(u, v));
         // log.log(INFO,"Added texture vertex " + verticesT.size() + " = " +
         // verticesT.get(verticesT.size() - 1));
     }
 
     public void addVertexNormal(float x, float y, float z) {
+        canonicalN.add(canonicalIndex(coordinatesN, verticesN.size(), x, y, z));
         verticesN.add(new VertexNormal(x, y, z));
     }
 
+    // Returns the index of the first vertex added with the same coordinates, which is the given
+    // index if there is none. floatToIntBits is used because, like Float.toString(), it tells
+    // 0.0 and -0.0 apart and treats all NaNs as equal.
+    private static int canonicalIndex(IntTripleMap coordinates, int index, float x, float y,
+            float z) {
+        int existing = coordinates.putIfAbsent(Float.floatToIntBits(x), Float.floatToIntBits(y),
+                Float.floatToIntBits(z), index);
+        return existing < 0 ? index : existing;
+    }
+
     public void addPoints(int[] values) {
         log.log(INFO, "@TODO: Got " + values.length + " points in builder, ignoring");
     }
@@ -104,6 +131,9 @@ public class Build implements BuilderInterface {
             // > vertex numbers. Negative values indicate relative vertex numbers.
 
             FaceVertex fv = new FaceVertex();
+            int keyV = -1;
+            int keyT = -1;
+            int keyN = -1;
             // log.log(INFO,"Adding vertex g=" + vertexIndices[loopi] + " t=" + vertexIndices[loopi
             // + 1] + " n=" + vertexIndices[loopi + 2]);
             int vertexIndex;
@@ -119,6 +149,7 @@ public class Build implements BuilderInterface {
                 // Note: vertex indices are 1-indexed, i.e. they start at
                 // one, so we offset by -1 for the 0-indexed array lists.
                 fv.v = verticesG.get(vertexIndex - 1);
+                keyV = canonicalG.get(vertexIndex - 1);
             } else {
                 log.log(SEVERE,
                         "Index for geometric vertex=" + vertexIndex
@@ -140,6 +171,7 @@ public class Build implements BuilderInterface {
                     // Note: vertex indices are 1-indexed, i.e. they start at
                     // one, so we offset by -1 for the 0-indexed array lists.
                     fv.t = verticesT.get(vertexIndex - 1);
+                    keyT = canonicalT.get(vertexIndex - 1);
                 } else {
                     log.log(SEVERE,
                             "Index for texture vertex=" + vertexIndex
@@ -162,6 +194,7 @@ public class Build implements BuilderInterface {
                     // Note: vertex indices are 1-indexed, i.e. they start at
                     // one, so we offset by -1 for the 0-indexed array lists.
                     fv.n = verticesN.get(vertexIndex - 1);
+                    keyN = canonicalN.get(vertexIndex - 1);
                 } else {
                     log.log(SEVERE,
                             "Index for vertex normal=" + vertexIndex
@@ -180,14 +213,13 @@ public class Build implements BuilderInterface {
             // Make sure we don't end up with redundant vertice
             // combinations - i.e. any specific combination of g,v and
             // t is only stored once and is reused instead.
-            String key = fv.toString();
-            FaceVertex fv2 = faceVerticeMap.get(key);
-            if (null == fv2) {
-                faceVerticeMap.put(key, fv);
+            int existing = faceVerticeMap.putIfAbsent(keyV, keyT, keyN,
+                    faceVerticeList.size());
+            if (existing < 0) {
                 fv.index = faceVerticeList.size();
                 faceVerticeList.add(fv);
             } else {
-                fv = fv2;
+                fv = faceVerticeList.get(existing);
             }
 
             face.add(fv);
@@ -385,6 +417,9 @@ public class Build implements BuilderInterface {
     // > not specified, a white material is used.
     public void setCurrentUseMaterial(String name) {
         currentMaterial = materialLib.get(name);
+        if (null != currentMaterial) {
+            currentMaterial.resolveMaps();
+        }
         currentGroup.setMaterialName(name);
     }
 
@@ -404,23 +439,13 @@ public class Build implements BuilderInterface {
     // >
     // > filename is the name of the library file that defines the
     // > materials. There is no default.
-    // @TODO: I think I need to just delete this... because we now parse material lib files in
-    // Parse.java in processMaterialLib()
-    // public void addMaterialLib(String[] names) {
-    // if (null == names) {
-    // log.log(INFO,"@TODO: Got a mtllib line with null names array - blank group line? (i.e.
-    // \"g\\n\" ?)");
-    // return;
-    // }
-    // if (names.length == 1) {
-    // log.log(INFO,"@TODO: Got a mtllib line with one name=|" + names[0] + "|");
-    // return;
-    // }
-    // log.log(INFO,"@TODO: Got a mtllib line;");
-    // for (int loopi = 0; loopi < names.length; loopi++) {
-    // log.log(INFO," names[" + loopi + "] = |" + names[loopi] + "|");
-    // }
-    // }
+    //
+    // Parse reads each library once through MaterialRegistry and hands us its materials, which
+    // are shared with every other build that uses the same library.
+    public void addMaterialLib(String filename, Map<String, Material> materials) {
+        materialLib.putAll(materials);
+    }
+
     public void newMtl(String name) {
         currentMaterialBeingParsed = new Material(name);
         materialLib.put(name, currentMaterialBeingParsed);
@@ -483,24 +508,9 @@ public class Build implements BuilderInterface {
         currentMaterialBeingParsed.niOpticalDensity = opticalDensity;
     }
 
+    // The filename is resolved when the material is used, see Material.resolveMaps()
     public void setMapDecalDispBump(int type, String filename) {
-        if (type == MTL_MAP_KA) {
-            currentMaterialBeingParsed.mapKaFilename = filename;
-        } else if (type == MTL_MAP_KD) {
-            currentMaterialBeingParsed.mapKdFilename = filename;
-        } else if (type == MTL_MAP_KS) {
-            currentMaterialBeingParsed.mapKsFilename = filename;
-        } else if (type == MTL_MAP_NS) {
-            currentMaterialBeingParsed.mapNsFilename = filename;
-        } else if (type == MTL_MAP_D) {
-            currentMaterialBeingParsed.mapDFilename = filename;
-        } else if (type == MTL_DECAL) {
-            currentMaterialBeingParsed.decalFilename = filename;
-        } else if (type == MTL_DISP) {
-            currentMaterialBeingParsed.dispFilename = filename;
-        } else if (type == MTL_BUMP) {
-            currentMaterialBeingParsed.bumpFilename = filename;
-        }
+        currentMaterialBeingParsed.addMap(type, filename);
     }
 
     public void setRefl(int type, String filename) {
@@ -0,0 +1,73 @@
+package com.owens.oobjloader.builder;
+
+import java.util.Arrays;
+
+/**
+ * Growable float array, used instead of ArrayList&lt;Float&gt; to avoid one object per value.
+ */
+public class FloatArray {
+    private float[] values;
+    private int size;
+
+    public FloatArray() {
+        this(64);
+    }
+
+    public FloatArray(int initialCapacity) {
+        values = new float[Math.max(initialCapacity, 1)];
+    }
+
+    public void add(float value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+        }
+        values[size++] = value;
+    }
+
+    public void add(float x, float y) {
+        ensureCapacity(size + 2);
+        values[size++] = x;
+        values[size++] = y;
+    }
+
+    public void add(float x, float y, float z) {
+        ensureCapacity(size + 3);
+        values[size++] = x;
+        values[size++] = y;
+        values[size++] = z;
+    }
+
+    public float get(int index) {
+        return values[index];
+    }
+
+    public void set(int index, float value) {
+        values[index] = value;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public void ensureCapacity(int capacity) {
+        if (capacity > values.length) {
+            values = Arrays.copyOf(values, Math.max(capacity, values.length * 2));
+        }
+    }
+
+    /**
+     * @return the backing array. Only the first size() values are valid, and the array is
+     *         replaced whenever the list grows.
+     */
+    public float[] array() {
+        return values;
+    }
+
+    public float[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+}
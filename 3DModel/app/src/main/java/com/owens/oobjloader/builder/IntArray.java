@@ -0,0 +1,73 @@
+package com.owens.oobjloader.builder;
+
+import java.util.Arrays;
+
+/**
+ * Growable int array, used instead of ArrayList&lt;Integer&gt; to avoid one object per value.
+ */
+public class IntArray {
+    private int[] values;
+    private int size;
+
+    public IntArray() {
+        this(64);
+    }
+
+    public IntArray(int initialCapacity) {
+        values = new int[Math.max(initialCapacity, 1)];
+    }
+
+    public void add(int value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+        }
+        values[size++] = value;
+    }
+
+    public void add(int x, int y) {
+        ensureCapacity(size + 2);
+        values[size++] = x;
+        values[size++] = y;
+    }
+
+    public void add(int x, int y, int z) {
+        ensureCapacity(size + 3);
+        values[size++] = x;
+        values[size++] = y;
+        values[size++] = z;
+    }
+
+    public int get(int index) {
+        return values[index];
+    }
+
+    public void set(int index, int value) {
+        values[index] = value;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public void ensureCapacity(int capacity) {
+        if (capacity > values.length) {
+            values = Arrays.copyOf(values, Math.max(capacity, values.length * 2));
+        }
+    }
+
+    /**
+     * @return the backing array. Only the first size() values are valid, and the array is
+     *         replaced whenever the list grows.
+     */
+    public int[] array() {
+        return values;
+    }
+
+    public int[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+}
@@ -0,0 +1,106 @@
+package com.owens.oobjloader.builder;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map from a triple of ints to a non-negative int value. Used by Build to
+ * de-duplicate vertices without creating String keys or boxed values.
+ */
+class IntTripleMap {
+    private static final int NO_VALUE = -1;
+
+    private int[] keys;
+    private int[] values;
+    private int mask;
+    private int size;
+
+    IntTripleMap() {
+        this(1024);
+    }
+
+    IntTripleMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(expectedSize, 8) * 2 - 1) * 2;
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity * 3];
+        values = new int[capacity];
+        Arrays.fill(values, NO_VALUE);
+        mask = capacity - 1;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the value stored for the key, or -1 if there is none.
+     */
+    int get(int a, int b, int c) {
+        int slot = hash(a, b, c) & mask;
+        while (values[slot] != NO_VALUE) {
+            int key = slot * 3;
+            if (keys[key] == a && keys[key + 1] == b && keys[key + 2] == c) {
+                return values[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return NO_VALUE;
+    }
+
+    /**
+     * Stores the value unless the key is already present.
+     *
+     * @return the value already stored for the key, or -1 if the given value was stored.
+     */
+    int putIfAbsent(int a, int b, int c, int value) {
+        int slot = hash(a, b, c) & mask;
+        while (values[slot] != NO_VALUE) {
+            int key = slot * 3;
+            if (keys[key] == a && keys[key + 1] == b && keys[key + 2] == c) {
+                return values[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        int key = slot * 3;
+        keys[key] = a;
+        keys[key + 1] = b;
+        keys[key + 2] = c;
+        values[slot] = value;
+        // Keep the load factor at or below 1/2 so probe sequences stay short.
+        if (++size * 2 > values.length) {
+            rehash();
+        }
+        return NO_VALUE;
+    }
+
+    private void rehash() {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(oldValues.length * 2);
+        for (int loopi = 0; loopi < oldValues.length; loopi++) {
+            if (oldValues[loopi] == NO_VALUE) {
+                continue;
+            }
+            int a = oldKeys[loopi * 3];
+            int b = oldKeys[loopi * 3 + 1];
+            int c = oldKeys[loopi * 3 + 2];
+            int slot = hash(a, b, c) & mask;
+            while (values[slot] != NO_VALUE) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot * 3] = a;
+            keys[slot * 3 + 1] = b;
+            keys[slot * 3 + 2] = c;
+            values[slot] = oldValues[loopi];
+        }
+    }
+
+    private static int hash(int a, int b, int c) {
+        int h = a * 0x9e3779b1;
+        h = (h ^ b) * 0x85ebca6b;
+        h = (h ^ c) * 0xc2b2ae35;
+        return h ^ (h >>> 16);
+    }
+}
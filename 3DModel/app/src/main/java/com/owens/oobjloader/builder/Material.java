@@ -9,6 +9,8 @@ package com.owens.oobjloader.builder;
 // In addition this code may also be used under the "unlicense" described
 // at http://unlicense.org/ .  See the file UNLICENSE in the repo.
 
+import java.util.ArrayList;
+
 import com.owens.oobjloader.parser.BuilderInterface;
 
 
@@ -36,7 +38,104 @@ public class Material {
     public int reflType = BuilderInterface.MTL_REFL_TYPE_UNKNOWN;
     public String reflFilename = null;
 
+    // Texture map statements (type and arguments) that have not been resolved into the map
+    // filenames above yet, see resolveMaps().
+    private ArrayList<Integer> unresolvedMapTypes = null;
+    private ArrayList<String> unresolvedMapArguments = null;
+
     public Material(String name) {
         this.name = name;
     }
+
+    /**
+     * Records a map_Ka, map_Kd, map_Ks, map_Ns, map_d, decal, disp or bump statement. The
+     * filename is only extracted from the arguments by resolveMaps(), so materials that are
+     * never used don't pay for it.
+     */
+    public synchronized void addMap(int type, String arguments) {
+        if (unresolvedMapTypes == null) {
+            unresolvedMapTypes = new ArrayList<Integer>();
+            unresolvedMapArguments = new ArrayList<String>();
+        }
+        unresolvedMapTypes.add(type);
+        unresolvedMapArguments.add(arguments);
+    }
+
+    /**
+     * Sets the map filenames from the statements recorded by addMap(). Called by the builders
+     * when a material is used, does nothing if the maps are already resolved.
+     */
+    public synchronized void resolveMaps() {
+        if (unresolvedMapTypes == null) {
+            return;
+        }
+        for (int loopi = 0; loopi < unresolvedMapTypes.size(); loopi++) {
+            setMap(unresolvedMapTypes.get(loopi),
+                    stripMapOptions(unresolvedMapArguments.get(loopi)));
+        }
+        unresolvedMapTypes = null;
+        unresolvedMapArguments = null;
+    }
+
+    private void setMap(int type, String filename) {
+        if (type == BuilderInterface.MTL_MAP_KA) {
+            mapKaFilename = filename;
+        } else if (type == BuilderInterface.MTL_MAP_KD) {
+            mapKdFilename = filename;
+        } else if (type == BuilderInterface.MTL_MAP_KS) {
+            mapKsFilename = filename;
+        } else if (type == BuilderInterface.MTL_MAP_NS) {
+            mapNsFilename = filename;
+        } else if (type == BuilderInterface.MTL_MAP_D) {
+            mapDFilename = filename;
+        } else if (type == BuilderInterface.MTL_DECAL) {
+            decalFilename = filename;
+        } else if (type == BuilderInterface.MTL_DISP) {
+            dispFilename = filename;
+        } else if (type == BuilderInterface.MTL_BUMP) {
+            bumpFilename = filename;
+        }
+    }
+
+    // Removes the options that may precede the filename of a texture map, e.g.
+    // "-s 1 1 1 -clamp on wood.jpg" becomes "wood.jpg". The last token is always kept as
+    // the filename, and arguments without options are returned as they are.
+    static String stripMapOptions(String arguments) {
+        if (!arguments.startsWith("-")) {
+            return arguments;
+        }
+        String[] tokens = arguments.split("\\s+");
+        int loopi = 0;
+        while (loopi < tokens.length - 1 && tokens[loopi].startsWith("-")) {
+            String option = tokens[loopi++];
+            int maxArguments = 1;
+            if (option.equals("-o") || option.equals("-s") || option.equals("-t")) {
+                // u [v [w]]
+                maxArguments = 3;
+            } else if (option.equals("-mm")) {
+                // base gain
+                maxArguments = 2;
+            }
+            for (int count = 0; count < maxArguments && loopi < tokens.length - 1; count++) {
+                if (maxArguments == 3 && !isNumber(tokens[loopi])) {
+                    break;
+                }
+                loopi++;
+            }
+        }
+        StringBuilder filename = new StringBuilder(tokens[loopi]);
+        for (loopi++; loopi < tokens.length; loopi++) {
+            filename.append(' ').append(tokens[loopi]);
+        }
+        return filename.toString();
+    }
+
+    private static boolean isNumber(String token) {
+        try {
+            Float.parseFloat(token);
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
 }
\ No newline at end of file
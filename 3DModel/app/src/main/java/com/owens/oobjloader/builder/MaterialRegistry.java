@@ -0,0 +1,82 @@
+package com.owens.oobjloader.builder;
+
+import com.owens.oobjloader.parser.ResourceOpener;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Process-wide registry of parsed material libraries (.mtl files), keyed by the ResourceOpener
+ * that reads them and the path the opener resolves the mtllib name to.
+ *
+ * Parse reads each library only once, and every model that uses it gets the same Material
+ * instances, so loading many OBJ files that share a library neither parses nor stores its
+ * materials again. Libraries of different openers, or of different directories of one opener,
+ * are kept apart even if their file names are equal. The openers are held weakly, so the
+ * libraries of an opener that is no longer used are dropped with it. The materials are shared,
+ * so they must not be modified once they are registered, apart from Material.resolveMaps().
+ */
+public class MaterialRegistry {
+    private static final WeakHashMap<ResourceOpener, HashMap<String, Map<String, Material>>> libraries =
+            new WeakHashMap<ResourceOpener, HashMap<String, Map<String, Material>>>();
+    private static int hitCount = 0;
+    private static int missCount = 0;
+
+    private MaterialRegistry() {
+    }
+
+    /**
+     * @param path the library's path as returned by opener.resolve()
+     * @return the materials of the given library by name, or null if it has not been registered
+     */
+    public static synchronized Map<String, Material> get(ResourceOpener opener, String path) {
+        HashMap<String, Map<String, Material>> openerLibraries = libraries.get(opener);
+        Map<String, Material> materials = null == openerLibraries ? null : openerLibraries.get(path);
+        if (materials != null) {
+            hitCount++;
+        } else {
+            missCount++;
+        }
+        return materials;
+    }
+
+    /**
+     * Registers the materials of a library. If another thread registered the same library in the
+     * meantime, its materials are kept and returned instead.
+     *
+     * @param path the library's path as returned by opener.resolve()
+     * @return the registered materials by name
+     */
+    public static synchronized Map<String, Material> register(ResourceOpener opener, String path,
+            Map<String, Material> materials) {
+        HashMap<String, Map<String, Material>> openerLibraries = libraries.get(opener);
+        if (null == openerLibraries) {
+            openerLibraries = new HashMap<String, Map<String, Material>>();
+            libraries.put(opener, openerLibraries);
+        }
+        Map<String, Material> registered = openerLibraries.get(path);
+        if (registered == null) {
+            registered = Collections.unmodifiableMap(new HashMap<String, Material>(materials));
+            openerLibraries.put(path, registered);
+        }
+        return registered;
+    }
+
+    /**
+     * Forgets all libraries, e.g. when the .mtl files have changed.
+     */
+    public static synchronized void clear() {
+        libraries.clear();
+    }
+
+    public static synchronized String getStats() {
+        int libraryCount = 0;
+        for (HashMap<String, Map<String, Material>> openerLibraries : libraries.values()) {
+            libraryCount += openerLibraries.size();
+        }
+        return libraryCount + " material libraries, " + hitCount + " hits, " + missCount
+                + " misses";
+    }
+}
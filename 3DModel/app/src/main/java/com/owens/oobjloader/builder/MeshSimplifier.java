@@ -0,0 +1,447 @@
+package com.owens.oobjloader.builder;
+
+import java.util.Arrays;
+
+/**
+ * Mesh simplification by edge collapse with the quadric error metric of Garland and Heckbert,
+ * used to build levels of detail for a mesh.
+ *
+ * Instead of keeping every edge in a priority queue, the triangles are swept in passes with a
+ * rising error threshold and every edge below the threshold is collapsed, which is a lot cheaper
+ * and gives similar results. An edge is always collapsed into one of its two vertices, never into
+ * a new position, so texture coordinates stay valid without interpolation. Border vertices are
+ * never moved; since vertices are welded by position and texture coordinate, texture seams are
+ * borders as well, so simplified meshes don't open cracks along them. Collapses that would flip
+ * or degenerate a triangle are skipped.
+ *
+ * Every call to {@link #simplify(int)} continues with the mesh left by the previous call, so a
+ * sequence of levels of detail with decreasing triangle counts is cheap to generate.
+ */
+public class MeshSimplifier {
+    private static final int MAX_PASSES = 100;
+    // How fast the error threshold rises from pass to pass
+    private static final double AGGRESSIVENESS = 7;
+    // Deleted triangles are removed and the vertex references rebuilt every few passes
+    private static final int COMPACT_INTERVAL = 5;
+
+    private final int vertexCount;
+    // Per vertex: the vertex of the input mesh whose attributes it has, the position scaled into
+    // the unit cube so that the error thresholds don't depend on the model size, and the error
+    // quadric as the 10 unique values of the symmetric 4x4 matrix.
+    private final int[] sources;
+    private final double[] points;
+    private final double[] quadrics;
+    private final boolean[] border;
+    // Per vertex: the range of its triangle references, pairs of (triangle, corner) in refs
+    private final int[] refStart;
+    private final int[] refCount;
+    private final IntArray refs = new IntArray(1024);
+
+    // Per triangle: 3 vertex ids, the error of each edge followed by the smallest of them, and
+    // the unit normal.
+    private int triangleCount;
+    private final int[] triangles;
+    private final double[] errors;
+    private final double[] normals;
+    private final boolean[] deleted;
+    private final boolean[] dirty;
+    private int deletedCount = 0;
+
+    private final double[] quadric = new double[10];
+    // Set by calculateError(), true if collapsing into the second vertex has the smaller error
+    private boolean keepSecond;
+    private boolean[] removed0 = new boolean[16];
+    private boolean[] removed1 = new boolean[16];
+
+    /**
+     * Copies a mesh, given as ranges of vertex and index arrays like the groups of a
+     * {@link PackedBuild}. Indices are relative to firstVertex.
+     */
+    public MeshSimplifier(float[] positions, int firstVertex, int vertexCount, int[] indices,
+            int firstIndex, int indexCount) {
+        this.vertexCount = vertexCount;
+        sources = new int[vertexCount];
+        for (int loopi = 0; loopi < vertexCount; loopi++) {
+            sources[loopi] = loopi;
+        }
+        points = new double[vertexCount * 3];
+        quadrics = new double[vertexCount * 10];
+        border = new boolean[vertexCount];
+        refStart = new int[vertexCount];
+        refCount = new int[vertexCount];
+
+        float min = Float.POSITIVE_INFINITY;
+        float max = Float.NEGATIVE_INFINITY;
+        for (int loopi = firstVertex * 3; loopi < (firstVertex + vertexCount) * 3; loopi++) {
+            min = Math.min(min, positions[loopi]);
+            max = Math.max(max, positions[loopi]);
+        }
+        double scale = max > min ? 1.0 / (max - min) : 1.0;
+        for (int loopi = 0; loopi < vertexCount * 3; loopi++) {
+            points[loopi] = (positions[firstVertex * 3 + loopi] - min) * scale;
+        }
+
+        int maxTriangles = indexCount / 3;
+        triangles = new int[maxTriangles * 3];
+        errors = new double[maxTriangles * 4];
+        normals = new double[maxTriangles * 3];
+        deleted = new boolean[maxTriangles];
+        dirty = new boolean[maxTriangles];
+        for (int loopi = 0; loopi < maxTriangles; loopi++) {
+            int a = indices[firstIndex + loopi * 3];
+            int b = indices[firstIndex + loopi * 3 + 1];
+            int c = indices[firstIndex + loopi * 3 + 2];
+            // Triangles that use a vertex twice have no area and would only get in the way
+            if (a != b && b != c && c != a) {
+                triangles[triangleCount * 3] = a;
+                triangles[triangleCount * 3 + 1] = b;
+                triangles[triangleCount * 3 + 2] = c;
+                triangleCount++;
+            }
+        }
+
+        for (int t = 0; t < triangleCount; t++) {
+            updateNormal(t);
+            double nx = normals[t * 3];
+            double ny = normals[t * 3 + 1];
+            double nz = normals[t * 3 + 2];
+            int p0 = triangles[t * 3] * 3;
+            double d = -(nx * points[p0] + ny * points[p0 + 1] + nz * points[p0 + 2]);
+            for (int j = 0; j < 3; j++) {
+                addPlane(triangles[t * 3 + j] * 10, nx, ny, nz, d);
+            }
+        }
+        buildRefs();
+        findBorders();
+        for (int t = 0; t < triangleCount; t++) {
+            updateErrors(t);
+        }
+    }
+
+    /**
+     * @return the number of triangles of the mesh in its current state
+     */
+    public int getTriangleCount() {
+        return triangleCount - deletedCount;
+    }
+
+    /**
+     * Collapses edges until the mesh has at most targetTriangleCount triangles, or no more edges
+     * can be collapsed.
+     *
+     * @return the number of triangles left
+     */
+    public int simplify(int targetTriangleCount) {
+        for (int pass = 0; pass < MAX_PASSES; pass++) {
+            if (getTriangleCount() <= targetTriangleCount) {
+                break;
+            }
+            if (pass > 0 && pass % COMPACT_INTERVAL == 0) {
+                compact();
+            }
+            Arrays.fill(dirty, 0, triangleCount, false);
+
+            double threshold = 1e-9 * Math.pow(pass + 3, AGGRESSIVENESS);
+            for (int t = 0; t < triangleCount; t++) {
+                if (errors[t * 4 + 3] > threshold || deleted[t] || dirty[t]) {
+                    continue;
+                }
+                for (int j = 0; j < 3; j++) {
+                    if (errors[t * 4 + j] > threshold) {
+                        continue;
+                    }
+                    int i0 = triangles[t * 3 + j];
+                    int i1 = triangles[t * 3 + (j + 1) % 3];
+                    if (border[i0] || border[i1]) {
+                        continue;
+                    }
+                    if (collapse(i0, i1)) {
+                        break;
+                    }
+                }
+                if (getTriangleCount() <= targetTriangleCount) {
+                    break;
+                }
+            }
+        }
+        return getTriangleCount();
+    }
+
+    /**
+     * @return the triangles of the mesh in its current state, as indices of the vertices it was
+     *         created with, relative to firstVertex. Pass them to {@link PackedMesh#compact} to
+     *         drop the vertices that are no longer used.
+     */
+    public int[] getIndices() {
+        int[] indices = new int[getTriangleCount() * 3];
+        int index = 0;
+        for (int t = 0; t < triangleCount; t++) {
+            if (deleted[t]) {
+                continue;
+            }
+            for (int j = 0; j < 3; j++) {
+                indices[index++] = sources[triangles[t * 3 + j]];
+            }
+        }
+        return indices;
+    }
+
+    // Collapses the edge from i0 to i1 into i0, which takes over the attributes of i1 if that
+    // has the smaller error. Returns false if the collapse would flip a triangle.
+    private boolean collapse(int i0, int i1) {
+        calculateError(i0, i1);
+        int keep = keepSecond ? i1 : i0;
+        double px = points[keep * 3];
+        double py = points[keep * 3 + 1];
+        double pz = points[keep * 3 + 2];
+
+        if (removed0.length < refCount[i0]) {
+            removed0 = new boolean[refCount[i0] * 2];
+        }
+        if (removed1.length < refCount[i1]) {
+            removed1 = new boolean[refCount[i1] * 2];
+        }
+        if (flipped(px, py, pz, i0, i1, removed0) || flipped(px, py, pz, i1, i0, removed1)) {
+            return false;
+        }
+
+        if (keepSecond) {
+            System.arraycopy(points, i1 * 3, points, i0 * 3, 3);
+            sources[i0] = sources[i1];
+        }
+        for (int loopi = 0; loopi < 10; loopi++) {
+            quadrics[i0 * 10 + loopi] += quadrics[i1 * 10 + loopi];
+        }
+
+        int start = refs.size();
+        updateTriangles(i0, i0, removed0);
+        updateTriangles(i0, i1, removed1);
+        int count = (refs.size() - start) / 2;
+        if (count <= refCount[i0]) {
+            // The new references fit into the old range of i0
+            int[] values = refs.array();
+            System.arraycopy(values, start, values, refStart[i0] * 2, count * 2);
+        } else {
+            refStart[i0] = start / 2;
+        }
+        refCount[i0] = count;
+        return true;
+    }
+
+    // Checks whether moving vertex i0 to p flips one of its triangles. Triangles that also use
+    // i1 disappear with the collapse, they are flagged in removed instead.
+    private boolean flipped(double px, double py, double pz, int i0, int i1, boolean[] removed) {
+        int start = refStart[i0];
+        for (int k = 0; k < refCount[i0]; k++) {
+            int t = refs.get((start + k) * 2);
+            if (deleted[t]) {
+                continue;
+            }
+            int corner = refs.get((start + k) * 2 + 1);
+            int id1 = triangles[t * 3 + (corner + 1) % 3];
+            int id2 = triangles[t * 3 + (corner + 2) % 3];
+            if (id1 == i1 || id2 == i1) {
+                removed[k] = true;
+                continue;
+            }
+            removed[k] = false;
+
+            double ax = points[id1 * 3] - px;
+            double ay = points[id1 * 3 + 1] - py;
+            double az = points[id1 * 3 + 2] - pz;
+            double bx = points[id2 * 3] - px;
+            double by = points[id2 * 3 + 1] - py;
+            double bz = points[id2 * 3 + 2] - pz;
+            double lengthA = Math.sqrt(ax * ax + ay * ay + az * az);
+            double lengthB = Math.sqrt(bx * bx + by * by + bz * bz);
+            if (lengthA == 0 || lengthB == 0) {
+                return true;
+            }
+            double cosine = (ax * bx + ay * by + az * bz) / (lengthA * lengthB);
+            if (Math.abs(cosine) > 0.999) {
+                return true;
+            }
+            double nx = ay * bz - az * by;
+            double ny = az * bx - ax * bz;
+            double nz = ax * by - ay * bx;
+            double length = Math.sqrt(nx * nx + ny * ny + nz * nz);
+            if ((nx * normals[t * 3] + ny * normals[t * 3 + 1] + nz * normals[t * 3 + 2])
+                    < 0.2 * length) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Points the live triangles of vertex v to i0 and appends their references, deleting the
+    // triangles flagged in removed.
+    private void updateTriangles(int i0, int v, boolean[] removed) {
+        int start = refStart[v];
+        for (int k = 0; k < refCount[v]; k++) {
+            int t = refs.get((start + k) * 2);
+            int corner = refs.get((start + k) * 2 + 1);
+            if (deleted[t]) {
+                continue;
+            }
+            if (removed[k]) {
+                deleted[t] = true;
+                deletedCount++;
+                continue;
+            }
+            triangles[t * 3 + corner] = i0;
+            dirty[t] = true;
+            updateNormal(t);
+            updateErrors(t);
+            refs.add(t, corner);
+        }
+    }
+
+    // Returns the error of collapsing i0 and i1, and sets keepSecond to the vertex to keep.
+    private double calculateError(int i0, int i1) {
+        for (int loopi = 0; loopi < 10; loopi++) {
+            quadric[loopi] = quadrics[i0 * 10 + loopi] + quadrics[i1 * 10 + loopi];
+        }
+        double error0 = vertexError(quadric, points[i0 * 3], points[i0 * 3 + 1],
+                points[i0 * 3 + 2]);
+        double error1 = vertexError(quadric, points[i1 * 3], points[i1 * 3 + 1],
+                points[i1 * 3 + 2]);
+        keepSecond = error1 < error0;
+        return Math.min(error0, error1);
+    }
+
+    private static double vertexError(double[] q, double x, double y, double z) {
+        return q[0] * x * x + 2 * q[1] * x * y + 2 * q[2] * x * z + 2 * q[3] * x
+                + q[4] * y * y + 2 * q[5] * y * z + 2 * q[6] * y
+                + q[7] * z * z + 2 * q[8] * z + q[9];
+    }
+
+    private void addPlane(int offset, double a, double b, double c, double d) {
+        quadrics[offset] += a * a;
+        quadrics[offset + 1] += a * b;
+        quadrics[offset + 2] += a * c;
+        quadrics[offset + 3] += a * d;
+        quadrics[offset + 4] += b * b;
+        quadrics[offset + 5] += b * c;
+        quadrics[offset + 6] += b * d;
+        quadrics[offset + 7] += c * c;
+        quadrics[offset + 8] += c * d;
+        quadrics[offset + 9] += d * d;
+    }
+
+    private void updateNormal(int t) {
+        int p0 = triangles[t * 3] * 3;
+        int p1 = triangles[t * 3 + 1] * 3;
+        int p2 = triangles[t * 3 + 2] * 3;
+        double ax = points[p1] - points[p0];
+        double ay = points[p1 + 1] - points[p0 + 1];
+        double az = points[p1 + 2] - points[p0 + 2];
+        double bx = points[p2] - points[p0];
+        double by = points[p2 + 1] - points[p0 + 1];
+        double bz = points[p2 + 2] - points[p0 + 2];
+        double nx = ay * bz - az * by;
+        double ny = az * bx - ax * bz;
+        double nz = ax * by - ay * bx;
+        double length = Math.sqrt(nx * nx + ny * ny + nz * nz);
+        if (length > 0) {
+            nx /= length;
+            ny /= length;
+            nz /= length;
+        }
+        normals[t * 3] = nx;
+        normals[t * 3 + 1] = ny;
+        normals[t * 3 + 2] = nz;
+    }
+
+    private void updateErrors(int t) {
+        double min = Double.MAX_VALUE;
+        for (int j = 0; j < 3; j++) {
+            double error = calculateError(triangles[t * 3 + j], triangles[t * 3 + (j + 1) % 3]);
+            errors[t * 4 + j] = error;
+            min = Math.min(min, error);
+        }
+        errors[t * 4 + 3] = min;
+    }
+
+    // Removes the deleted triangles and rebuilds the vertex references, which also drops the
+    // references left behind by collapses.
+    private void compact() {
+        int live = 0;
+        for (int t = 0; t < triangleCount; t++) {
+            if (deleted[t]) {
+                continue;
+            }
+            if (live != t) {
+                System.arraycopy(triangles, t * 3, triangles, live * 3, 3);
+                System.arraycopy(errors, t * 4, errors, live * 4, 4);
+                System.arraycopy(normals, t * 3, normals, live * 3, 3);
+                deleted[live] = false;
+            }
+            live++;
+        }
+        Arrays.fill(deleted, live, triangleCount, false);
+        triangleCount = live;
+        deletedCount = 0;
+        buildRefs();
+    }
+
+    private void buildRefs() {
+        Arrays.fill(refCount, 0);
+        for (int loopi = 0; loopi < triangleCount * 3; loopi++) {
+            refCount[triangles[loopi]]++;
+        }
+        int start = 0;
+        for (int v = 0; v < vertexCount; v++) {
+            refStart[v] = start;
+            start += refCount[v];
+            refCount[v] = 0;
+        }
+        refs.clear();
+        refs.ensureCapacity(start * 2);
+        for (int loopi = 0; loopi < start; loopi++) {
+            refs.add(0, 0);
+        }
+        for (int t = 0; t < triangleCount; t++) {
+            for (int j = 0; j < 3; j++) {
+                int v = triangles[t * 3 + j];
+                int ref = refStart[v] + refCount[v]++;
+                refs.set(ref * 2, t);
+                refs.set(ref * 2 + 1, j);
+            }
+        }
+    }
+
+    // A vertex is on a border if it shares an edge with a vertex whose fan only has one triangle
+    // on that edge.
+    private void findBorders() {
+        IntArray neighbours = new IntArray();
+        IntArray counts = new IntArray();
+        for (int v = 0; v < vertexCount; v++) {
+            neighbours.clear();
+            counts.clear();
+            for (int k = 0; k < refCount[v]; k++) {
+                int t = refs.get((refStart[v] + k) * 2);
+                for (int j = 0; j < 3; j++) {
+                    int id = triangles[t * 3 + j];
+                    int found = -1;
+                    for (int n = 0; n < neighbours.size(); n++) {
+                        if (neighbours.get(n) == id) {
+                            found = n;
+                            break;
+                        }
+                    }
+                    if (found < 0) {
+                        neighbours.add(id);
+                        counts.add(1);
+                    } else {
+                        counts.set(found, counts.get(found) + 1);
+                    }
+                }
+            }
+            for (int n = 0; n < neighbours.size(); n++) {
+                if (counts.get(n) == 1) {
+                    border[neighbours.get(n)] = true;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,318 @@
+package com.owens.oobjloader.builder;
+
+import static java.util.logging.Level.INFO;
+import static java.util.logging.Level.SEVERE;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import com.owens.oobjloader.parser.BuilderInterface;
+
+/**
+ * A BuilderInterface implementation that keeps the geometry in primitive arrays instead of one
+ * object per vertex, face vertex and face like {@link Build} does.
+ *
+ * Face corners with the same position and texture coordinate are welded into one vertex of
+ * {@link #positions}, {@link #textureCoords} and {@link #normals}, and faces are triangulated by
+ * ear clipping into {@link #indices}, so concave polygons and polygons with any number of corners
+ * are supported. Since a group only changes when a new group name is seen, each group's vertices
+ * and indices are contiguous and are recorded as ranges in a {@link PackedGroup}. Vertices are
+ * only welded within a group. Corners without a texture coordinate or normal get zeros, so the
+ * arrays can be copied into mesh buffers as they are. Welded corners that had different normals
+ * keep the normal of the first corner.
+ *
+ * Groups, materials and relative indices are handled the same way as in Build. Material
+ * libraries are delegated to a Build instance.
+ */
+public class PackedBuild implements BuilderInterface {
+
+    private static final String DEFAULT_GROUP_NAME = "default";
+
+    private Logger log = Logger.getLogger(PackedBuild.class.getName());
+
+    public String objFilename = null;
+    // The v, vt and vn statements as parsed, referenced by the face indices.
+    public FloatArray positionPool = new FloatArray(3 * 1024);
+    public FloatArray texturePool = new FloatArray(2 * 1024);
+    public FloatArray normalPool = new FloatArray(3 * 1024);
+    // One entry per vertex: x,y,z for positions and normals, u,v for texture coordinates.
+    public FloatArray positions = new FloatArray(3 * 1024);
+    public FloatArray textureCoords = new FloatArray(2 * 1024);
+    public FloatArray normals = new FloatArray(3 * 1024);
+    // Triangle indices, relative to the first vertex of the group they belong to.
+    public IntArray indices = new IntArray(3 * 1024);
+    public HashMap<String, PackedGroup> groups = new HashMap<String, PackedGroup>();
+    public HashMap<String, Material> materialLib;
+    public String objectName = null;
+    public int faceTriCount = 0;
+    public int faceQuadCount = 0;
+    public int facePolyCount = 0;
+    public int faceErrorCount = 0;
+    // Number of face corners before welding
+    public int cornerCount = 0;
+
+    private final Build materials = new Build();
+    private PackedGroup currentGroup = null;
+    private int[] resolved = new int[3 * 16];
+    private int[] cornerVertices = new int[16];
+    private float[] cornerPositions = new float[3 * 16];
+    private final Triangulator triangulator = new Triangulator();
+    // Welding compares coordinates, so every pool entry is mapped to the first entry with
+    // bit-identical coordinates, the same way Build de-duplicates face vertices.
+    private IntTripleMap positionCoordinates = new IntTripleMap();
+    private IntTripleMap textureCoordinates = new IntTripleMap();
+    private IntArray canonicalPositions = new IntArray(1024);
+    private IntArray canonicalTextures = new IntArray(1024);
+    // (canonical position, canonical texture or -1, 0) to the group relative vertex index
+    private IntTripleMap weldedVertices = null;
+
+    public PackedBuild() {
+        materialLib = materials.materialLib;
+    }
+
+    /**
+     * @return the number of vertices over all groups
+     */
+    public int getVertexCount() {
+        return positions.size() / 3;
+    }
+
+    public void setObjFilename(String filename) {
+        this.objFilename = filename;
+        materials.setObjFilename(filename);
+    }
+
+    public void addVertexGeometric(float x, float y, float z) {
+        canonicalPositions.add(canonicalIndex(positionCoordinates, positionPool.size() / 3,
+                x, y, z));
+        positionPool.add(x, y, z);
+    }
+
+    public void addVertexTexture(float u, float v) {
+        canonicalTextures.add(canonicalIndex(textureCoordinates, texturePool.size() / 2, u, v,
+                0));
+        texturePool.add(u, v);
+    }
+
+    private static int canonicalIndex(IntTripleMap coordinates, int index, float x, float y,
+            float z) {
+        int existing = coordinates.putIfAbsent(Float.floatToIntBits(x), Float.floatToIntBits(y),
+                Float.floatToIntBits(z), index);
+        return existing < 0 ? index : existing;
+    }
+
+    public void addVertexNormal(float x, float y, float z) {
+        normalPool.add(x, y, z);
+    }
+
+    public void addPoints(int[] values) {
+        log.log(INFO, "@TODO: Got " + values.length + " points in builder, ignoring");
+    }
+
+    public void addLine(int[] values) {
+        log.log(INFO, "@TODO: Got a line of " + values.length + " segments in builder, ignoring");
+    }
+
+    public void addFace(int[] vertexIndices) {
+        int cornerCount = vertexIndices.length / 3;
+        if (resolved.length < cornerCount * 3) {
+            resolved = new int[cornerCount * 3];
+            cornerVertices = new int[cornerCount];
+            cornerPositions = new float[cornerCount * 3];
+        }
+
+        // Resolve all indices first so a face with a missing vertex is dropped as a whole.
+        for (int loopi = 0; loopi < cornerCount * 3; loopi += 3) {
+            resolved[loopi] = resolveIndex(vertexIndices[loopi], positionPool.size() / 3,
+                    "geometric vertex");
+            if (resolved[loopi] < 0) {
+                log.log(SEVERE,
+                        "Can't add vertex to face with missing vertex!  Throwing away face.");
+                faceErrorCount++;
+                return;
+            }
+            resolved[loopi + 1] = resolveIndex(vertexIndices[loopi + 1], texturePool.size() / 2,
+                    "texture vertex");
+            resolved[loopi + 2] = resolveIndex(vertexIndices[loopi + 2], normalPool.size() / 3,
+                    "vertex normal");
+        }
+
+        if (currentGroup == null) {
+            startGroup(DEFAULT_GROUP_NAME);
+        }
+
+        float[] positionValues = positionPool.array();
+        float[] textureValues = texturePool.array();
+        float[] normalValues = normalPool.array();
+        for (int loopi = 0; loopi < cornerCount; loopi++) {
+            int position = resolved[loopi * 3];
+            int texture = resolved[loopi * 3 + 1];
+            int normal = resolved[loopi * 3 + 2];
+            System.arraycopy(positionValues, position * 3, cornerPositions, loopi * 3, 3);
+
+            int vertex = weldedVertices.putIfAbsent(canonicalPositions.get(position),
+                    texture >= 0 ? canonicalTextures.get(texture) : -1, 0,
+                    currentGroup.vertexCount);
+            if (vertex < 0) {
+                vertex = currentGroup.vertexCount++;
+                positions.add(positionValues[position * 3], positionValues[position * 3 + 1],
+                        positionValues[position * 3 + 2]);
+                if (texture >= 0) {
+                    textureCoords.add(textureValues[texture * 2], textureValues[texture * 2 + 1]);
+                } else {
+                    textureCoords.add(0, 0);
+                }
+                if (normal >= 0) {
+                    normals.add(normalValues[normal * 3], normalValues[normal * 3 + 1],
+                            normalValues[normal * 3 + 2]);
+                } else {
+                    normals.add(0, 0, 0);
+                }
+            }
+            cornerVertices[loopi] = vertex;
+        }
+
+        int triangles = triangulator.triangulate(cornerPositions, cornerVertices, cornerCount,
+                indices);
+        currentGroup.indexCount += triangles * 3;
+        currentGroup.cornerCount += cornerCount;
+        this.cornerCount += cornerCount;
+
+        // collect some stats for laughs
+        if (cornerCount == 3) {
+            faceTriCount++;
+        } else if (cornerCount == 4) {
+            faceQuadCount++;
+        } else {
+            facePolyCount++;
+        }
+    }
+
+    // Returns the 0-based pool index, or -1 for an empty or out of range index. Relative
+    // (negative) indices are offset exactly like Build.addFace does, so both builders produce
+    // the same geometry.
+    private int resolveIndex(int vertexIndex, int poolSize, String what) {
+        if (vertexIndex == EMPTY_VERTEX_VALUE) {
+            return -1;
+        }
+        if (vertexIndex < 0) {
+            vertexIndex = vertexIndex + poolSize;
+        }
+        if (((vertexIndex - 1) >= 0) && ((vertexIndex - 1) < poolSize)) {
+            return vertexIndex - 1;
+        }
+        log.log(SEVERE, "Index for " + what + "=" + vertexIndex
+                + " is out of the current range of values 1 to " + poolSize + ", ignoring");
+        return -1;
+    }
+
+    private void startGroup(String name) {
+        currentGroup = new PackedGroup(name, getVertexCount(), indices.size());
+        groups.put(name, currentGroup);
+        weldedVertices = new IntTripleMap();
+    }
+
+    public void setCurrentGroupNames(String[] names) {
+        if (null == names) {
+            return;
+        }
+        for (int loopi = 0; loopi < names.length; loopi++) {
+            String group = names[loopi].trim();
+
+            if (null == groups.get(group)) {
+                startGroup(group);
+            }
+        }
+    }
+
+    public void addObjectName(String name) {
+        this.objectName = name;
+    }
+
+    // Smoothing groups only matter for generating normals, which the meshes the map renders don't
+    // have, so they are ignored.
+    public void setCurrentSmoothingGroup(int groupNumber) {
+    }
+
+    public void addMapLib(String[] names) {
+        materials.addMapLib(names);
+    }
+
+    public void setCurrentUseMap(String name) {
+        materials.setCurrentUseMap(name);
+    }
+
+    public void setCurrentUseMaterial(String name) {
+        if (currentGroup == null) {
+            startGroup(DEFAULT_GROUP_NAME);
+        }
+        currentGroup.setMaterialName(name);
+        Material material = materialLib.get(name);
+        if (material != null) {
+            material.resolveMaps();
+        }
+    }
+
+    public void addMaterialLib(String filename, Map<String, Material> materials) {
+        this.materials.addMaterialLib(filename, materials);
+    }
+
+    public void newMtl(String name) {
+        materials.newMtl(name);
+    }
+
+    public void setXYZ(int type, float x, float y, float z) {
+        materials.setXYZ(type, x, y, z);
+    }
+
+    public void setRGB(int type, float r, float g, float b) {
+        materials.setRGB(type, r, g, b);
+    }
+
+    public void setIllum(int illumModel) {
+        materials.setIllum(illumModel);
+    }
+
+    public void setD(boolean halo, float factor) {
+        materials.setD(halo, factor);
+    }
+
+    public void setNs(float exponent) {
+        materials.setNs(exponent);
+    }
+
+    public void setSharpness(float value) {
+        materials.setSharpness(value);
+    }
+
+    public void setNi(float opticalDensity) {
+        materials.setNi(opticalDensity);
+    }
+
+    public void setMapDecalDispBump(int type, String filename) {
+        materials.setMapDecalDispBump(type, filename);
+    }
+
+    public void setRefl(int type, String filename) {
+        materials.setRefl(type, filename);
+    }
+
+    public void doneParsingMaterial() {
+        materials.doneParsingMaterial();
+    }
+
+    public void doneParsingObj(String filename) {
+        log.log(INFO,
+                "Loaded filename '" + filename + "' with " + positionPool.size() / 3
+                        + " verticesG, " + texturePool.size() / 2 + " verticesT, "
+                        + normalPool.size() / 3 + " verticesN, " + cornerCount
+                        + " face vertices welded into " + getVertexCount() + " vertices ("
+                        + positions.size() * 4 + " bytes of positions instead of "
+                        + cornerCount * 3 * 4 + ") in " + groups.size() + " groups, "
+                        + (faceTriCount + faceQuadCount + facePolyCount) + " faces, of which "
+                        + faceTriCount + " triangles, " + faceQuadCount + " quads, and "
+                        + facePolyCount + " with more than 4 points, and faces with errors "
+                        + faceErrorCount);
+    }
+}
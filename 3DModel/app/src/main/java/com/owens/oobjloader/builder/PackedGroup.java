@@ -0,0 +1,79 @@
+package com.owens.oobjloader.builder;
+
+/**
+ * A group of a {@link PackedBuild}, recorded as ranges into the build's vertex and index arrays.
+ * Vertex indices of a group are relative to its first vertex.
+ */
+public class PackedGroup {
+    private final String name;
+    private String materialName;
+    int firstVertex;
+    int vertexCount;
+    int cornerCount;
+    int firstIndex;
+    int indexCount;
+
+    public PackedGroup(String name, int firstVertex, int firstIndex) {
+        this.name = name;
+        this.firstVertex = firstVertex;
+        this.firstIndex = firstIndex;
+    }
+
+    /**
+     * @return the group name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the materialName
+     */
+    public String getMaterialName() {
+        return materialName;
+    }
+
+    /**
+     * @param materialName
+     *            the materialName to set
+     */
+    public void setMaterialName(String materialName) {
+        this.materialName = materialName;
+    }
+
+    /**
+     * @return the index of the first vertex of this group
+     */
+    public int getFirstVertex() {
+        return firstVertex;
+    }
+
+    /**
+     * @return the number of vertices in this group
+     */
+    public int getVertexCount() {
+        return vertexCount;
+    }
+
+    /**
+     * @return the number of face corners in this group, i.e. the number of vertices it would
+     *         have without welding
+     */
+    public int getCornerCount() {
+        return cornerCount;
+    }
+
+    /**
+     * @return the position of the first triangle index of this group
+     */
+    public int getFirstIndex() {
+        return firstIndex;
+    }
+
+    /**
+     * @return the number of triangle indices in this group
+     */
+    public int getIndexCount() {
+        return indexCount;
+    }
+}
@@ -0,0 +1,59 @@
+package com.owens.oobjloader.builder;
+
+import java.util.Arrays;
+
+/**
+ * A self contained triangle mesh: x,y,z positions and u,v texture coordinates per vertex, and
+ * three vertex indices per triangle.
+ */
+public class PackedMesh {
+    public final float[] positions;
+    public final float[] textureCoords;
+    public final int[] indices;
+
+    public PackedMesh(float[] positions, float[] textureCoords, int[] indices) {
+        this.positions = positions;
+        this.textureCoords = textureCoords;
+        this.indices = indices;
+    }
+
+    /**
+     * Copies a mesh out of larger vertex arrays, keeping only the vertices the given triangles
+     * use. Indices are relative to firstVertex.
+     */
+    public static PackedMesh compact(float[] positions, float[] textureCoords, int firstVertex,
+            int vertexCount, int[] indices) {
+        int[] remap = new int[vertexCount];
+        Arrays.fill(remap, -1);
+        int[] meshIndices = new int[indices.length];
+        int usedVertices = 0;
+        for (int loopi = 0; loopi < indices.length; loopi++) {
+            int vertex = indices[loopi];
+            if (remap[vertex] < 0) {
+                remap[vertex] = usedVertices++;
+            }
+            meshIndices[loopi] = remap[vertex];
+        }
+
+        float[] meshPositions = new float[usedVertices * 3];
+        float[] meshTextureCoords = new float[usedVertices * 2];
+        for (int loopi = 0; loopi < vertexCount; loopi++) {
+            int vertex = remap[loopi];
+            if (vertex >= 0) {
+                System.arraycopy(positions, (firstVertex + loopi) * 3, meshPositions, vertex * 3,
+                        3);
+                System.arraycopy(textureCoords, (firstVertex + loopi) * 2, meshTextureCoords,
+                        vertex * 2, 2);
+            }
+        }
+        return new PackedMesh(meshPositions, meshTextureCoords, meshIndices);
+    }
+
+    public int getVertexCount() {
+        return positions.length / 3;
+    }
+
+    public int getTriangleCount() {
+        return indices.length / 3;
+    }
+}
@@ -0,0 +1,144 @@
+package com.owens.oobjloader.builder;
+
+/**
+ * Ear clipping triangulation for simple polygons, convex or concave, in 3D space.
+ *
+ * The polygon is projected onto the axis plane that is closest to its own plane (using the
+ * Newell normal), and ears are clipped in 2D. Triangles keep the winding of the polygon. If no
+ * ear can be found, which only happens for degenerate or self intersecting input, the rest of the
+ * polygon is fan triangulated. The scratch arrays are reused, so an instance must not be shared
+ * between threads.
+ */
+public class Triangulator {
+    private float[] u = new float[16];
+    private float[] v = new float[16];
+    private int[] remaining = new int[16];
+
+    /**
+     * Triangulates a polygon and appends the triangles to out.
+     *
+     * @param positions
+     *            x,y,z of each corner of the polygon, in order
+     * @param vertexIds
+     *            the index written to out for each corner
+     * @param count
+     *            the number of corners
+     * @param out
+     *            receives three vertex ids per triangle
+     * @return the number of triangles added
+     */
+    public int triangulate(float[] positions, int[] vertexIds, int count, IntArray out) {
+        if (count < 3) {
+            return 0;
+        }
+        if (count == 3) {
+            out.add(vertexIds[0], vertexIds[1], vertexIds[2]);
+            return 1;
+        }
+        if (u.length < count) {
+            u = new float[count];
+            v = new float[count];
+            remaining = new int[count];
+        }
+
+        project(positions, count);
+
+        // The sign of the area tells us the winding in the projection, so that convexity can be
+        // tested the same way for both windings.
+        float area = 0;
+        for (int loopi = 0, j = count - 1; loopi < count; j = loopi++) {
+            area += u[j] * v[loopi] - u[loopi] * v[j];
+        }
+        float orientation = area < 0 ? -1 : 1;
+
+        for (int loopi = 0; loopi < count; loopi++) {
+            remaining[loopi] = loopi;
+        }
+        int left = count;
+        int triangles = 0;
+        int current = 0;
+        int attempts = 0;
+        while (left > 3) {
+            if (attempts++ >= left) {
+                // No ear left, the polygon is degenerate. Fall back to a fan.
+                break;
+            }
+            int prev = remaining[(current + left - 1) % left];
+            int corner = remaining[current];
+            int next = remaining[(current + 1) % left];
+            if (isEar(prev, corner, next, left, orientation)) {
+                out.add(vertexIds[prev], vertexIds[corner], vertexIds[next]);
+                triangles++;
+                System.arraycopy(remaining, current + 1, remaining, current, left - current - 1);
+                left--;
+                current = current % left;
+                attempts = 0;
+            } else {
+                current = (current + 1) % left;
+            }
+        }
+        for (int loopi = 1; loopi + 1 < left; loopi++) {
+            out.add(vertexIds[remaining[0]], vertexIds[remaining[loopi]],
+                    vertexIds[remaining[loopi + 1]]);
+            triangles++;
+        }
+        return triangles;
+    }
+
+    // Projects the corners onto the axis plane with the largest area of the polygon.
+    private void project(float[] positions, int count) {
+        float nx = 0;
+        float ny = 0;
+        float nz = 0;
+        for (int loopi = 0, j = count - 1; loopi < count; j = loopi++) {
+            float xi = positions[loopi * 3];
+            float yi = positions[loopi * 3 + 1];
+            float zi = positions[loopi * 3 + 2];
+            float xj = positions[j * 3];
+            float yj = positions[j * 3 + 1];
+            float zj = positions[j * 3 + 2];
+            nx += (yj - yi) * (zj + zi);
+            ny += (zj - zi) * (xj + xi);
+            nz += (xj - xi) * (yj + yi);
+        }
+        nx = Math.abs(nx);
+        ny = Math.abs(ny);
+        nz = Math.abs(nz);
+        int uAxis = 0;
+        int vAxis = 1;
+        if (nx >= ny && nx >= nz) {
+            uAxis = 1;
+            vAxis = 2;
+        } else if (ny >= nz) {
+            uAxis = 2;
+            vAxis = 0;
+        }
+        for (int loopi = 0; loopi < count; loopi++) {
+            u[loopi] = positions[loopi * 3 + uAxis];
+            v[loopi] = positions[loopi * 3 + vAxis];
+        }
+    }
+
+    private boolean isEar(int prev, int corner, int next, int left, float orientation) {
+        if (cross(prev, corner, next) * orientation <= 0) {
+            // reflex or collinear
+            return false;
+        }
+        for (int loopi = 0; loopi < left; loopi++) {
+            int p = remaining[loopi];
+            if (p == prev || p == corner || p == next) {
+                continue;
+            }
+            if (cross(prev, corner, p) * orientation > 0 && cross(corner, next, p) * orientation > 0
+                    && cross(next, prev, p) * orientation > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // z component of (b - a) x (c - a) in the projection plane
+    private float cross(int a, int b, int c) {
+        return (u[b] - u[a]) * (v[c] - v[a]) - (v[b] - v[a]) * (u[c] - u[a]);
+    }
+}
@@ -14,6 +14,8 @@ import java.text.*;
 import java.io.*;
 import java.io.IOException;
 
+import com.owens.oobjloader.builder.Material;
+
 public interface BuilderInterface {
 
     public final int NO_SMOOTHING_GROUP = 0;
@@ -81,6 +83,10 @@ public interface BuilderInterface {
 
     public void setCurrentUseMaterial(String name);
 
+    // Adds the materials of a material library, which are shared with other builders and must
+    // not be modified.
+    public void addMaterialLib(String filename, Map<String, Material> materials);
+
     public void newMtl(String name);
 
     public void setXYZ(int type, float x, float y, float z);
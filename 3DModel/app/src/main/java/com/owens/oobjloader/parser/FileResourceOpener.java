@@ -0,0 +1,37 @@
+package com.owens.oobjloader.parser;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Opens files relative to a directory, for using Parse outside of Android. Openers of the same
+ * directory are equal, so they share material libraries.
+ */
+public class FileResourceOpener implements ResourceOpener {
+    private final File directory;
+
+    public FileResourceOpener(File directory) {
+        this.directory = directory;
+    }
+
+    public InputStream open(String filename) throws IOException {
+        return new FileInputStream(new File(directory, filename));
+    }
+
+    public String resolve(String filename) throws IOException {
+        return new File(directory, filename).getCanonicalPath();
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof FileResourceOpener
+                && directory.equals(((FileResourceOpener) other).directory);
+    }
+
+    @Override
+    public int hashCode() {
+        return directory.hashCode();
+    }
+}
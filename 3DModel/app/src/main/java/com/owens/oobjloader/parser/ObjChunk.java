@@ -0,0 +1,196 @@
+package com.owens.oobjloader.parser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+
+import com.owens.oobjloader.builder.Material;
+
+/**
+ * A line aligned piece of an OBJ file, parsed on a worker thread by the parallel mode of Parse.
+ *
+ * The geometry statements are recorded as builder calls with their values in primitive arrays,
+ * all other statements are kept as Strings. Parse then replays the chunks in file order on its
+ * own thread, so the builder sees exactly the same sequence of calls as with the sequential
+ * modes, and relative indices, groups and materials are resolved by the builder as usual.
+ *
+ * Only the geometry methods of BuilderInterface are recorded, the others must not be called.
+ */
+class ObjChunk implements BuilderInterface {
+    // Recorded events
+    static final int EVENT_VERTEX = 0;
+    static final int EVENT_TEXTURE = 1;
+    static final int EVENT_NORMAL = 2;
+    static final int EVENT_FACE = 3;
+    static final int EVENT_POINTS = 4;
+    static final int EVENT_LINE = 5;
+    static final int EVENT_OTHER = 6;
+
+    final byte[] data;
+    final int offset;
+    final int length;
+
+    int[] events = new int[1024];
+    int eventCount = 0;
+    float[] floats = new float[3 * 1024];
+    int floatCount = 0;
+    // For every face, points or line event: the number of indices followed by the indices, or
+    // -1 if the statement had no values at all.
+    int[] indices = new int[4 * 1024];
+    int indexCount = 0;
+    ArrayList<String> otherLines = new ArrayList<String>();
+    // Set if parsing stopped early, thrown again when the chunk is replayed
+    RuntimeException error = null;
+
+    ObjChunk(byte[] data, int offset, int length) {
+        this.data = data;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    void addOtherLine(String line) {
+        addEvent(EVENT_OTHER);
+        otherLines.add(line);
+    }
+
+    private void addEvent(int event) {
+        if (eventCount == events.length) {
+            events = Arrays.copyOf(events, eventCount * 2);
+        }
+        events[eventCount++] = event;
+    }
+
+    private void addFloats(float a, float b, float c, int count) {
+        if (floatCount + 3 > floats.length) {
+            floats = Arrays.copyOf(floats, floats.length * 2);
+        }
+        floats[floatCount++] = a;
+        floats[floatCount++] = b;
+        if (count == 3) {
+            floats[floatCount++] = c;
+        }
+    }
+
+    private void addIndices(int event, int[] values) {
+        addEvent(event);
+        int count = values == null ? 0 : values.length;
+        if (indexCount + count + 1 > indices.length) {
+            indices = Arrays.copyOf(indices, Math.max(indices.length * 2, indexCount + count + 1));
+        }
+        indices[indexCount++] = values == null ? -1 : count;
+        for (int loopi = 0; loopi < count; loopi++) {
+            indices[indexCount++] = values[loopi];
+        }
+    }
+
+    public void addVertexGeometric(float x, float y, float z) {
+        addEvent(EVENT_VERTEX);
+        addFloats(x, y, z, 3);
+    }
+
+    public void addVertexTexture(float u, float v) {
+        addEvent(EVENT_TEXTURE);
+        addFloats(u, v, 0, 2);
+    }
+
+    public void addVertexNormal(float x, float y, float z) {
+        addEvent(EVENT_NORMAL);
+        addFloats(x, y, z, 3);
+    }
+
+    public void addPoints(int[] values) {
+        addIndices(EVENT_POINTS, values);
+    }
+
+    public void addLine(int[] values) {
+        addIndices(EVENT_LINE, values);
+    }
+
+    public void addFace(int[] vertexIndices) {
+        addIndices(EVENT_FACE, vertexIndices);
+    }
+
+    private static UnsupportedOperationException notRecorded() {
+        return new UnsupportedOperationException("ObjChunk only records geometry statements");
+    }
+
+    public void setObjFilename(String filename) {
+        throw notRecorded();
+    }
+
+    public void addObjectName(String name) {
+        throw notRecorded();
+    }
+
+    public void addMapLib(String[] names) {
+        throw notRecorded();
+    }
+
+    public void setCurrentGroupNames(String[] names) {
+        throw notRecorded();
+    }
+
+    public void setCurrentSmoothingGroup(int groupNumber) {
+        throw notRecorded();
+    }
+
+    public void setCurrentUseMap(String name) {
+        throw notRecorded();
+    }
+
+    public void setCurrentUseMaterial(String name) {
+        throw notRecorded();
+    }
+
+    public void addMaterialLib(String filename, Map<String, Material> materials) {
+        throw notRecorded();
+    }
+
+    public void newMtl(String name) {
+        throw notRecorded();
+    }
+
+    public void setXYZ(int type, float x, float y, float z) {
+        throw notRecorded();
+    }
+
+    public void setRGB(int type, float r, float g, float b) {
+        throw notRecorded();
+    }
+
+    public void setIllum(int illumModel) {
+        throw notRecorded();
+    }
+
+    public void setD(boolean halo, float factor) {
+        throw notRecorded();
+    }
+
+    public void setNs(float exponent) {
+        throw notRecorded();
+    }
+
+    public void setSharpness(float value) {
+        throw notRecorded();
+    }
+
+    public void setNi(float opticalDensity) {
+        throw notRecorded();
+    }
+
+    public void setMapDecalDispBump(int type, String filename) {
+        throw notRecorded();
+    }
+
+    public void setRefl(int type, String filename) {
+        throw notRecorded();
+    }
+
+    public void doneParsingMaterial() {
+        throw notRecorded();
+    }
+
+    public void doneParsingObj(String filename) {
+        throw notRecorded();
+    }
+}
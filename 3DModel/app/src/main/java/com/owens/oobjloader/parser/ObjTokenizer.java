@@ -0,0 +1,252 @@
+package com.owens.oobjloader.parser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Line tokenizer for OBJ files that works directly on a reusable byte buffer.
+ *
+ * Lines are trimmed the same way String.trim() does and are never turned into Strings unless
+ * the caller asks for one via {@link #lineString()}. Numbers are parsed in place by
+ * StringUtils.parseInt/parseFloat over a CharSequence view of the buffer, so the results
+ * (including the exceptions thrown for malformed input) are identical to the String based
+ * parsing in StringUtils.
+ */
+class ObjTokenizer {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final InputStream in;
+    private byte[] buf = new byte[BUFFER_SIZE];
+    private int bufLength = 0;
+    private int bufPos = 0;
+    private boolean eof = false;
+
+    // The current (trimmed) line is buf[lineStart, lineEnd)
+    private int lineStart = 0;
+    private int lineEnd = 0;
+
+    private int[] indexScratch = new int[64];
+
+    // Absolute buffer positions as chars, for the number parsing in StringUtils. Reads buf on
+    // every call since the buffer is replaced when it grows.
+    private final CharSequence bufChars = new CharSequence() {
+        @Override
+        public int length() {
+            return bufLength;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (buf[index] & 0xff);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new String(buf, start, end - start);
+        }
+
+        @Override
+        public String toString() {
+            return new String(buf, 0, bufLength);
+        }
+    };
+
+    ObjTokenizer(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Tokenizes the given range of an array, which is used as is rather than copied.
+     */
+    ObjTokenizer(byte[] data, int offset, int length) {
+        this.in = null;
+        buf = data;
+        bufPos = offset;
+        bufLength = offset + length;
+        eof = true;
+    }
+
+    /**
+     * Advances to the next non-empty line.
+     *
+     * @return false once the end of the stream has been reached
+     */
+    boolean nextLine() throws IOException {
+        while (true) {
+            int end = findLineEnd();
+            if (end < 0) {
+                return false;
+            }
+            int start = bufPos;
+            bufPos = end < bufLength ? end + 1 : end;
+
+            while (start < end && (buf[start] & 0xff) <= ' ') {
+                start++;
+            }
+            while (end > start && (buf[end - 1] & 0xff) <= ' ') {
+                end--;
+            }
+            if (start < end) {
+                lineStart = start;
+                lineEnd = end;
+                return true;
+            }
+        }
+    }
+
+    // Returns the index of the terminator of the line starting at bufPos, or bufLength if the
+    // last line has no terminator, or -1 if there is no more input. Refills and grows the buffer
+    // as needed, so bufPos may move.
+    private int findLineEnd() throws IOException {
+        int scan = bufPos;
+        while (true) {
+            for (; scan < bufLength; scan++) {
+                byte b = buf[scan];
+                if (b == '\n' || b == '\r') {
+                    return scan;
+                }
+            }
+            if (eof) {
+                return bufPos < bufLength ? bufLength : -1;
+            }
+            int consumed = bufPos;
+            if (consumed > 0) {
+                System.arraycopy(buf, consumed, buf, 0, bufLength - consumed);
+                bufLength -= consumed;
+                scan -= consumed;
+                bufPos = 0;
+            } else if (bufLength == buf.length) {
+                buf = Arrays.copyOf(buf, buf.length * 2);
+            }
+            int read = in.read(buf, bufLength, buf.length - bufLength);
+            if (read < 0) {
+                eof = true;
+            } else {
+                bufLength += read;
+            }
+        }
+    }
+
+    int length() {
+        return lineEnd - lineStart;
+    }
+
+    char charAt(int index) {
+        return (char) (buf[lineStart + index] & 0xff);
+    }
+
+    boolean startsWith(String keyword) {
+        int length = keyword.length();
+        if (length > lineEnd - lineStart) {
+            return false;
+        }
+        for (int loopi = 0; loopi < length; loopi++) {
+            if (buf[lineStart + loopi] != keyword.charAt(loopi)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the current line as a String, for the rarely occurring statements that are not worth
+     *         parsing in place.
+     */
+    String lineString() {
+        return new String(buf, lineStart, lineEnd - lineStart);
+    }
+
+    /**
+     * Same as StringUtils.parseFloatList(numFloats, line, startIndex), but fills the first
+     * numFloats entries of the given array instead of allocating one. Values that are not present
+     * on the line are set to 0, tokens after the first numFloats are not parsed.
+     */
+    void parseFloats(int startIndex, int numFloats, float[] values) {
+        int count = 0;
+        int pos = lineStart + startIndex;
+        while (count < numFloats) {
+            while (pos < lineEnd && isSeparator(buf[pos])) {
+                pos++;
+            }
+            if (pos >= lineEnd) {
+                break;
+            }
+            int itemStart = pos;
+            while (pos < lineEnd && !isSeparator(buf[pos])) {
+                pos++;
+            }
+            values[count++] = StringUtils.parseFloat(bufChars, itemStart, pos);
+        }
+        while (count < numFloats) {
+            values[count++] = 0;
+        }
+    }
+
+    /**
+     * Same as StringUtils.parseListVerticeNTuples(line.substring(startIndex).trim(),
+     * expectedValuesPerTuple), but without building intermediate Strings and boxed Integers.
+     */
+    int[] parseVerticeNTuples(int startIndex, int expectedValuesPerTuple) {
+        int pos = lineStart + startIndex;
+        while (pos < lineEnd && (buf[pos] & 0xff) <= ' ') {
+            pos++;
+        }
+        if (pos >= lineEnd) {
+            return null;
+        }
+
+        int count = 0;
+        while (pos < lineEnd) {
+            while (pos < lineEnd && isSeparator(buf[pos])) {
+                pos++;
+            }
+            if (pos >= lineEnd) {
+                break;
+            }
+            int tupleEnd = pos;
+            while (tupleEnd < lineEnd && !isSeparator(buf[tupleEnd])) {
+                tupleEnd++;
+            }
+
+            // Mirrors StringUtils.parseList('/', ...): a trailing '/' does not start a new value.
+            int found = 0;
+            while (pos < tupleEnd) {
+                int valueEnd = pos;
+                while (valueEnd < tupleEnd && buf[valueEnd] != '/') {
+                    valueEnd++;
+                }
+                if (count == indexScratch.length) {
+                    indexScratch = Arrays.copyOf(indexScratch, count * 2);
+                }
+                indexScratch[count++] = isBlank(pos, valueEnd)
+                        ? BuilderInterface.EMPTY_VERTEX_VALUE : StringUtils.parseInt(bufChars, pos, valueEnd);
+                found++;
+                pos = valueEnd + 1;
+            }
+            for (; found < expectedValuesPerTuple; found++) {
+                if (count == indexScratch.length) {
+                    indexScratch = Arrays.copyOf(indexScratch, count * 2);
+                }
+                indexScratch[count++] = BuilderInterface.EMPTY_VERTEX_VALUE;
+            }
+            pos = tupleEnd;
+        }
+        // The builder takes ownership of the array, so this copy is the one allocation per
+        // record we can't avoid without changing BuilderInterface.
+        return Arrays.copyOf(indexScratch, count);
+    }
+
+    private static boolean isSeparator(byte b) {
+        return b == ' ' || b == '\t' || b == '\n';
+    }
+
+    private boolean isBlank(int start, int end) {
+        for (int loopi = start; loopi < end; loopi++) {
+            if ((buf[loopi] & 0xff) > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -17,10 +17,22 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 
-import android.app.Activity;
+import com.owens.oobjloader.builder.Build;
+import com.owens.oobjloader.builder.Material;
+import com.owens.oobjloader.builder.MaterialRegistry;
 
 public class Parse {
     private Logger log = Logger.getLogger(Parse.class.getName());
@@ -66,26 +78,70 @@ public class Parse {
     public final static String MTL_REFL_TYPE_CUBE_BACK = "cube_back";
     public final static String MTL_REFL_TYPE_CUBE_LEFT = "cube_left";
     public final static String MTL_REFL_TYPE_CUBE_RIGHT = "cube_right";
+    // Parsing modes. MODE_READLINE is the original line by line parser, MODE_STREAMING reads the
+    // file through a reusable byte buffer and parses vertices and faces without creating Strings.
+    // MODE_PARALLEL splits the file into line aligned chunks that are tokenized on a thread pool
+    // and replayed to the builder in file order. All modes produce exactly the same builder calls.
+    public final static int MODE_READLINE = 0;
+    public final static int MODE_STREAMING = 1;
+    public final static int MODE_PARALLEL = 2;
+    // Size of the chunks read for MODE_PARALLEL. Every chunk is a separate task, and at most two
+    // chunks per thread are held in memory at the same time.
+    private final static int CHUNK_SIZE = 4 * 1024 * 1024;
+    // Line kinds returned by parseGeometry
+    private final static int LINE_COMMENT = 0;
+    private final static int LINE_GEOMETRY = 1;
+    private final static int LINE_OTHER = 2;
     BuilderInterface builder = null;
     File objFile = null;
-    Activity m_activity = null;
+    // Opens the material libraries, may be null
+    ResourceOpener opener = null;
 
-    public Parse(BuilderInterface builder, Activity activity, String filename)
+    public Parse(BuilderInterface builder, ResourceOpener opener, String filename)
             throws FileNotFoundException, IOException {
+        this(builder, opener, filename, MODE_READLINE);
+    }
+
+    public Parse(BuilderInterface builder, ResourceOpener opener, String filename, int mode)
+            throws FileNotFoundException, IOException {
+        this(builder, opener, filename, mode, Runtime.getRuntime().availableProcessors());
+    }
+
+    // threads is only used by MODE_PARALLEL
+    public Parse(BuilderInterface builder, ResourceOpener opener, String filename, int mode,
+            int threads) throws FileNotFoundException, IOException {
+        this(builder, opener.open(filename), filename, mode, threads, opener);
+    }
+
+    // Parses an OBJ file from a stream, which is closed when done. Material libraries are opened
+    // with opener, if opener is null they are skipped.
+    public Parse(BuilderInterface builder, InputStream in, String filename, int mode,
+            int threads, ResourceOpener opener) throws FileNotFoundException, IOException {
         this.builder = builder;
-        m_activity = activity;
+        this.opener = opener;
         builder.setObjFilename(filename);
-        parseObjFile(m_activity, filename);
+        if (mode == MODE_STREAMING) {
+            parseObjStream(in);
+        } else if (mode == MODE_PARALLEL) {
+            parseObjParallel(in, threads);
+        } else {
+            parseObjFile(in);
+        }
 
         builder.doneParsingObj(filename);
     }
 
-    private void parseObjFile(Activity activity, String objFilename)
+    // For parsing material libraries only
+    private Parse(BuilderInterface builder, ResourceOpener opener) {
+        this.builder = builder;
+        this.opener = opener;
+    }
+
+    private void parseObjFile(InputStream inputStream)
             throws FileNotFoundException, IOException {
         int lineCount = 0;
 
-        BufferedReader bufferedReader = new BufferedReader(
-                new InputStreamReader(activity.getAssets().open(objFilename)));
+        BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(inputStream));
 
         String line = null;
 
@@ -109,35 +165,8 @@ public class Parse {
             if (line.startsWith("#")) // comment
             {
                 continue;
-            } else if (line.startsWith(OBJ_VERTEX_TEXTURE)) {
-                processVertexTexture(line);
-            } else if (line.startsWith(OBJ_VERTEX_NORMAL)) {
-                processVertexNormal(line);
-            } else if (line.startsWith(OBJ_VERTEX)) {
-                processVertex(line);
-            } else if (line.startsWith(OBJ_FACE)) {
-                processFace(line);
-            } else if (line.startsWith(OBJ_GROUP_NAME)) {
-                processGroupName(line);
-            } else if (line.startsWith(OBJ_OBJECT_NAME)) {
-                processObjectName(line);
-            } else if (line.startsWith(OBJ_SMOOTHING_GROUP)) {
-                processSmoothingGroup(line);
-            } else if (line.startsWith(OBJ_POINT)) {
-                processPoint(line);
-            } else if (line.startsWith(OBJ_LINE)) {
-                processLine(line);
-            } else if (line.startsWith(OBJ_MAPLIB)) {
-                processMapLib(line);
-            } else if (line.startsWith(OBJ_USEMAP)) {
-                processUseMap(line);
-            } else if (line.startsWith(OBJ_USEMTL)) {
-                processUseMaterial(line);
-            } else if (line.startsWith(OBJ_MTLLIB)) {
-                processMaterialLib(line);
-            } else {
-                log.log(WARNING, "line " + lineCount + " unknown line |" + line + "|");
             }
+            processObjLine(line, lineCount);
             lineCount++;
         }
         bufferedReader.close();
@@ -145,6 +174,236 @@ public class Parse {
         log.log(INFO, "Loaded " + lineCount + " lines");
     }
 
+    // Dispatches a trimmed, non-empty line that is not a comment.
+    private void processObjLine(String line, int lineCount)
+            throws FileNotFoundException, IOException {
+        if (line.startsWith(OBJ_VERTEX_TEXTURE)) {
+            processVertexTexture(line);
+        } else if (line.startsWith(OBJ_VERTEX_NORMAL)) {
+            processVertexNormal(line);
+        } else if (line.startsWith(OBJ_VERTEX)) {
+            processVertex(line);
+        } else if (line.startsWith(OBJ_FACE)) {
+            processFace(line);
+        } else if (line.startsWith(OBJ_GROUP_NAME)) {
+            processGroupName(line);
+        } else if (line.startsWith(OBJ_OBJECT_NAME)) {
+            processObjectName(line);
+        } else if (line.startsWith(OBJ_SMOOTHING_GROUP)) {
+            processSmoothingGroup(line);
+        } else if (line.startsWith(OBJ_POINT)) {
+            processPoint(line);
+        } else if (line.startsWith(OBJ_LINE)) {
+            processLine(line);
+        } else if (line.startsWith(OBJ_MAPLIB)) {
+            processMapLib(line);
+        } else if (line.startsWith(OBJ_USEMAP)) {
+            processUseMap(line);
+        } else if (line.startsWith(OBJ_USEMTL)) {
+            processUseMaterial(line);
+        } else if (line.startsWith(OBJ_MTLLIB)) {
+            processMaterialLib(line);
+        } else {
+            log.log(WARNING, "line " + lineCount + " unknown line |" + line + "|");
+        }
+    }
+
+    // Streaming version of parseObjFile. Dispatches on the first characters of each line instead
+    // of a chain of startsWith calls, and parses the high volume statements (v, vt, vn, f, p, l)
+    // in place. The remaining statements are rare, so they are turned into a String and handed to
+    // the same process methods parseObjFile uses.
+    private void parseObjStream(InputStream inputStream) throws IOException {
+        int lineCount = 0;
+        ObjTokenizer tokenizer = new ObjTokenizer(inputStream);
+        float[] values = new float[3];
+
+        try {
+            while (tokenizer.nextLine()) {
+                int kind = parseGeometry(tokenizer, builder, values);
+                if (kind == LINE_COMMENT) {
+                    continue;
+                } else if (kind == LINE_OTHER) {
+                    processObjLine(tokenizer.lineString(), lineCount);
+                }
+                lineCount++;
+            }
+        } finally {
+            inputStream.close();
+        }
+
+        log.log(INFO, "Loaded " + lineCount + " lines");
+    }
+
+    // Parses the current line of the tokenizer into the target if it is a geometry statement.
+    private static int parseGeometry(ObjTokenizer tokenizer, BuilderInterface target,
+            float[] values) {
+        switch (tokenizer.charAt(0)) {
+            case '#': // comment
+                return LINE_COMMENT;
+            case 'v':
+                char second = tokenizer.length() > 1 ? tokenizer.charAt(1) : ' ';
+                if (second == 't') {
+                    tokenizer.parseFloats(OBJ_VERTEX_TEXTURE.length(), 2, values);
+                    target.addVertexTexture(values[0], values[1]);
+                } else if (second == 'n') {
+                    tokenizer.parseFloats(OBJ_VERTEX_NORMAL.length(), 3, values);
+                    target.addVertexNormal(values[0], values[1], values[2]);
+                } else {
+                    tokenizer.parseFloats(OBJ_VERTEX.length(), 3, values);
+                    target.addVertexGeometric(values[0], values[1], values[2]);
+                }
+                return LINE_GEOMETRY;
+            case 'f':
+                target.addFace(tokenizer.parseVerticeNTuples(OBJ_FACE.length(), 3));
+                return LINE_GEOMETRY;
+            case 'p':
+                target.addPoints(tokenizer.parseVerticeNTuples(OBJ_POINT.length(), 1));
+                return LINE_GEOMETRY;
+            case 'l':
+                target.addLine(tokenizer.parseVerticeNTuples(OBJ_LINE.length(), 2));
+                return LINE_GEOMETRY;
+            default:
+                return LINE_OTHER;
+        }
+    }
+
+    // Parallel version of parseObjStream. The stream is read in line aligned chunks which are
+    // tokenized on a thread pool, while this thread replays the finished chunks to the builder
+    // in file order. Building therefore stays sequential, only the text parsing is spread over
+    // the threads.
+    private void parseObjParallel(InputStream inputStream, int threads) throws IOException {
+        int lineCount = 0;
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(threads, 1));
+        ArrayDeque<Future<ObjChunk>> pending = new ArrayDeque<Future<ObjChunk>>();
+        byte[] carry = new byte[0];
+
+        try {
+            boolean eof = false;
+            while (!eof) {
+                byte[] data = Arrays.copyOf(carry, carry.length + CHUNK_SIZE);
+                int length = carry.length;
+                int read = 0;
+                while (length < data.length && (read = inputStream.read(data, length,
+                        data.length - length)) >= 0) {
+                    length += read;
+                }
+                eof = read < 0;
+
+                // Cut after the last line terminator, the rest goes to the next chunk
+                int end = length;
+                if (!eof) {
+                    while (end > 0 && data[end - 1] != '\n' && data[end - 1] != '\r') {
+                        end--;
+                    }
+                    if (end == 0) {
+                        // A single line longer than the chunk, keep reading
+                        carry = Arrays.copyOf(data, length);
+                        continue;
+                    }
+                }
+                carry = Arrays.copyOfRange(data, end, length);
+                pending.add(executor.submit(tokenizeChunk(new ObjChunk(data, 0, end))));
+
+                while (pending.size() >= threads * 2 || (eof && !pending.isEmpty())) {
+                    lineCount = replayChunk(waitFor(pending.poll()), lineCount);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+            inputStream.close();
+        }
+
+        log.log(INFO, "Loaded " + lineCount + " lines");
+    }
+
+    private static Callable<ObjChunk> tokenizeChunk(final ObjChunk chunk) {
+        return new Callable<ObjChunk>() {
+            @Override
+            public ObjChunk call() throws IOException {
+                ObjTokenizer tokenizer = new ObjTokenizer(chunk.data, chunk.offset, chunk.length);
+                float[] values = new float[3];
+                try {
+                    while (tokenizer.nextLine()) {
+                        if (parseGeometry(tokenizer, chunk, values) == LINE_OTHER) {
+                            chunk.addOtherLine(tokenizer.lineString());
+                        }
+                    }
+                } catch (RuntimeException e) {
+                    // Malformed numbers, rethrown when the chunk is replayed so the builder sees
+                    // the same calls as with the sequential modes
+                    chunk.error = e;
+                }
+                return chunk;
+            }
+        };
+    }
+
+    private static ObjChunk waitFor(Future<ObjChunk> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while parsing");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private int replayChunk(ObjChunk chunk, int lineCount) throws IOException {
+        int floatIndex = 0;
+        int indexIndex = 0;
+        int otherIndex = 0;
+        float[] floats = chunk.floats;
+        int[] indices = chunk.indices;
+        for (int loopi = 0; loopi < chunk.eventCount; loopi++) {
+            switch (chunk.events[loopi]) {
+                case ObjChunk.EVENT_VERTEX:
+                    builder.addVertexGeometric(floats[floatIndex], floats[floatIndex + 1],
+                            floats[floatIndex + 2]);
+                    floatIndex += 3;
+                    break;
+                case ObjChunk.EVENT_TEXTURE:
+                    builder.addVertexTexture(floats[floatIndex], floats[floatIndex + 1]);
+                    floatIndex += 2;
+                    break;
+                case ObjChunk.EVENT_NORMAL:
+                    builder.addVertexNormal(floats[floatIndex], floats[floatIndex + 1],
+                            floats[floatIndex + 2]);
+                    floatIndex += 3;
+                    break;
+                case ObjChunk.EVENT_FACE:
+                case ObjChunk.EVENT_POINTS:
+                case ObjChunk.EVENT_LINE:
+                    int count = indices[indexIndex++];
+                    int[] values = null;
+                    if (count >= 0) {
+                        values = Arrays.copyOfRange(indices, indexIndex, indexIndex + count);
+                        indexIndex += count;
+                    }
+                    if (chunk.events[loopi] == ObjChunk.EVENT_FACE) {
+                        builder.addFace(values);
+                    } else if (chunk.events[loopi] == ObjChunk.EVENT_POINTS) {
+                        builder.addPoints(values);
+                    } else {
+                        builder.addLine(values);
+                    }
+                    break;
+                default:
+                    processObjLine(chunk.otherLines.get(otherIndex++), lineCount);
+                    break;
+            }
+            lineCount++;
+        }
+        if (chunk.error != null) {
+            throw chunk.error;
+        }
+        return lineCount;
+    }
+
     // @TODO: processVertex calls parseFloatList with params expecting
     // only three floats on the line. If there are more than three
     // floats in line then any extra values will be ignored by
@@ -609,12 +868,27 @@ public class Parse {
 
         if (null != matlibnames) {
             for (int loopi = 0; loopi < matlibnames.length; loopi++) {
-                try {
-                    parseMtlFile(m_activity, matlibnames[loopi]);
-                } catch (FileNotFoundException e) {
-                    log.log(SEVERE,
-                            "Can't find material file name='" + matlibnames[loopi] + "', e=" + e);
+                if (null == opener) {
+                    log.log(WARNING, "No ResourceOpener to read material file name='"
+                            + matlibnames[loopi] + "', ignoring");
+                    continue;
+                }
+                String path = opener.resolve(matlibnames[loopi]);
+                Map<String, Material> materials = MaterialRegistry.get(opener, path);
+                if (null == materials) {
+                    // First use of this library by this opener, parse it into a builder of its
+                    // own so that the materials can be shared.
+                    Build library = new Build();
+                    try {
+                        new Parse(library, opener).parseMtlFile(matlibnames[loopi]);
+                    } catch (FileNotFoundException e) {
+                        log.log(SEVERE, "Can't find material file name='" + matlibnames[loopi]
+                                + "', e=" + e);
+                        continue;
+                    }
+                    materials = MaterialRegistry.register(opener, path, library.materialLib);
                 }
+                builder.addMaterialLib(matlibnames[loopi], materials);
             }
         }
     }
@@ -636,12 +910,12 @@ public class Parse {
     // ----------------------------------------------------------------------
     // material file processing
     // ----------------------------------------------------------------------
-    private void parseMtlFile(Activity activity, String mtlFilename)
+    private void parseMtlFile(String mtlFilename)
             throws FileNotFoundException, IOException {
         int lineCount = 0;
 
         BufferedReader bufferedReader = new BufferedReader(
-                new InputStreamReader(activity.getAssets().open(mtlFilename)));
+                new InputStreamReader(opener.open(mtlFilename)));
 
         String line = null;
 
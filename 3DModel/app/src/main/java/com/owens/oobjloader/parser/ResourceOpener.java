@@ -0,0 +1,19 @@
+package com.owens.oobjloader.parser;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Opens the files Parse reads by name: the OBJ file itself and the material libraries it
+ * references with mtllib. On Android this is usually backed by the app's AssetManager.
+ */
+public interface ResourceOpener {
+    public InputStream open(String filename) throws IOException;
+
+    /**
+     * @return the path of the file open() opens for the given name. Parse shares the materials of
+     *         a library between models with the same opener and resolved path, so names that
+     *         refer to different files must resolve to different paths.
+     */
+    public String resolve(String filename) throws IOException;
+}
@@ -54,6 +54,137 @@ public class StringUtils {
         return mCount;
     }
 
+    // ----------------------------------------------------------------------
+    // Number parsing stuff
+    // ----------------------------------------------------------------------
+
+    // Largest mantissa that is exactly representable as a float.
+    private static final long MAX_EXACT_MANTISSA = 1L << 24;
+    // Powers of ten that are exactly representable as a float.
+    private static final float[] POWERS_OF_TEN = {
+            1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f
+    };
+
+    private static boolean isWhiteSpace(char c) {
+        return c == ' ' || c == '\n' || c == '\t';
+    }
+
+    // Same as s.substring(start, end).trim().equals("")
+    private static boolean isBlank(CharSequence s, int start, int end) {
+        for (int loopi = start; loopi < end; loopi++) {
+            if (s.charAt(loopi) > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Same as Integer.parseInt(s.subSequence(start, end).toString()), including the exceptions
+    // thrown for malformed input, but without creating a String for plain decimal values.
+    public static int parseInt(CharSequence s, int start, int end) {
+        int pos = start;
+        boolean negative = false;
+        if (pos < end && (s.charAt(pos) == '-' || s.charAt(pos) == '+')) {
+            negative = s.charAt(pos) == '-';
+            pos++;
+        }
+        // Up to 9 digits can't overflow an int, longer values go through the slow path.
+        if (pos == end || end - pos > 9) {
+            return Integer.parseInt(s.subSequence(start, end).toString());
+        }
+        int value = 0;
+        for (; pos < end; pos++) {
+            int digit = s.charAt(pos) - '0';
+            if (digit < 0 || digit > 9) {
+                return Integer.parseInt(s.subSequence(start, end).toString());
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    // Same as Float.parseFloat(s.subSequence(start, end).toString()), bit for bit and including
+    // the exceptions thrown for malformed input. Plain decimal numbers with a small mantissa and
+    // exponent are computed with a single, correctly rounded float multiplication or division of
+    // two exactly representable values, which gives the same result as Float.parseFloat.
+    // Everything else (more digits, large exponents, hex, NaN, surrounding whitespace, ...) is
+    // handed to Float.parseFloat.
+    public static float parseFloat(CharSequence s, int start, int end) {
+        int pos = start;
+        boolean negative = false;
+        if (pos < end && (s.charAt(pos) == '-' || s.charAt(pos) == '+')) {
+            negative = s.charAt(pos) == '-';
+            pos++;
+        }
+
+        long mantissa = 0;
+        int significantDigits = 0;
+        int exponent = 0;
+        boolean sawDigit = false;
+        char c;
+        while (pos < end && (c = s.charAt(pos)) >= '0' && c <= '9') {
+            mantissa = mantissa * 10 + (c - '0');
+            if (mantissa != 0 && ++significantDigits > 18) {
+                return Float.parseFloat(s.subSequence(start, end).toString());
+            }
+            sawDigit = true;
+            pos++;
+        }
+        if (pos < end && s.charAt(pos) == '.') {
+            pos++;
+            while (pos < end && (c = s.charAt(pos)) >= '0' && c <= '9') {
+                mantissa = mantissa * 10 + (c - '0');
+                if (mantissa != 0 && ++significantDigits > 18) {
+                    return Float.parseFloat(s.subSequence(start, end).toString());
+                }
+                exponent--;
+                sawDigit = true;
+                pos++;
+            }
+        }
+        if (!sawDigit) {
+            return Float.parseFloat(s.subSequence(start, end).toString());
+        }
+        if (pos < end && (s.charAt(pos) == 'e' || s.charAt(pos) == 'E')) {
+            pos++;
+            boolean negativeExponent = false;
+            if (pos < end && (s.charAt(pos) == '-' || s.charAt(pos) == '+')) {
+                negativeExponent = s.charAt(pos) == '-';
+                pos++;
+            }
+            if (pos == end || end - pos > 4) {
+                return Float.parseFloat(s.subSequence(start, end).toString());
+            }
+            int explicitExponent = 0;
+            while (pos < end && (c = s.charAt(pos)) >= '0' && c <= '9') {
+                explicitExponent = explicitExponent * 10 + (c - '0');
+                pos++;
+            }
+            exponent += negativeExponent ? -explicitExponent : explicitExponent;
+        }
+        if (pos != end) {
+            return Float.parseFloat(s.subSequence(start, end).toString());
+        }
+
+        if (mantissa == 0) {
+            return negative ? -0.0f : 0.0f;
+        }
+        while (mantissa % 10 == 0) {
+            mantissa /= 10;
+            exponent++;
+        }
+        if (mantissa > MAX_EXACT_MANTISSA || exponent < -10 || exponent > 10) {
+            return Float.parseFloat(s.subSequence(start, end).toString());
+        }
+        float value = (float) mantissa;
+        if (exponent < 0) {
+            value /= POWERS_OF_TEN[-exponent];
+        } else {
+            value *= POWERS_OF_TEN[exponent];
+        }
+        return negative ? -value : value;
+    }
+
     public static float[] parseFloatList(int numFloats, String list, int startIndex) {
         if (list == null) {
             return null;
@@ -65,35 +196,25 @@ public class StringUtils {
         float[] returnArray = new float[numFloats];
         int returnArrayCount = 0;
 
-        // Copy list into a char array.
-        char listChars[];
-        listChars = new char[list.length()];
-        list.getChars(0, list.length(), listChars, 0);
-        int listLength = listChars.length;
-
+        int listLength = list.length();
         int count = startIndex;
         int itemStart = startIndex;
         int itemEnd = 0;
-        int itemLength = 0;
 
         while (count < listLength) {
             // Skip any leading whitespace
-            itemEnd = skipWhiteSpace(count, listChars, null);
-            count = itemEnd;
+            while (count < listLength && isWhiteSpace(list.charAt(count))) {
+                count++;
+            }
             if (count >= listLength) {
                 break;
             }
             itemStart = count;
             itemEnd = itemStart;
-            while (itemEnd < listLength) {
-                if ((listChars[itemEnd] != ' ') && (listChars[itemEnd] != '\n') && (listChars[itemEnd] != '\t')) {
-                    itemEnd++;
-                } else {
-                    break;
-                }
+            while (itemEnd < listLength && !isWhiteSpace(list.charAt(itemEnd))) {
+                itemEnd++;
             }
-            itemLength = itemEnd - itemStart;
-            returnArray[returnArrayCount++] = Float.parseFloat(new String(listChars, itemStart, itemLength));
+            returnArray[returnArrayCount++] = parseFloat(list, itemStart, itemEnd);
             if (returnArrayCount >= numFloats) {
                 break;
             }
@@ -204,6 +325,10 @@ public class StringUtils {
     // couldn't parse face lines if that were the case.  Anyway, at
     // least my first version of this will assume that there are no
     // spaces between slashes and numbers.
+    //
+    // The values are parsed in place, the only allocation is the
+    // returned array.  The list is scanned twice, once to count the
+    // values and once to store them.
     public static int[] parseListVerticeNTuples(String list, int expectedValuesPerTuple) {
         if (list == null) {
             return null;
@@ -212,52 +337,62 @@ public class StringUtils {
             return null;
         }
 
-        //	log.log(INFO, "list=|"+list+"|");
-
-        String[] vertexStrings = parseWhitespaceList(list);
-
-        //	log.log(INFO, "found "+vertexStrings.length+" strings in parseWhitespaceList");
-
-        ArrayList<Integer> returnList = new ArrayList<Integer>();
-        Integer emptyMarker = new Integer(BuilderInterface.EMPTY_VERTEX_VALUE);
-
-        for (int loopi = 0; loopi < vertexStrings.length; loopi++) {
-            //	    log.log(INFO, "parsing vertexStrings["+loopi+"]=|"+vertexStrings[loopi]+"|");
-            parseVerticeNTuple(vertexStrings[loopi], returnList, emptyMarker, expectedValuesPerTuple);
-        }
-
-        int returnArray[] = new int[returnList.size()];
-        for (int loopi = 0; loopi < returnList.size(); loopi++) {
-            returnArray[loopi] = returnList.get(loopi);
+        int valueCount = parseVerticeNTuples(list, expectedValuesPerTuple, null);
+        if (valueCount < 0) {
+            return null;
         }
+        int returnArray[] = new int[valueCount];
+        parseVerticeNTuples(list, expectedValuesPerTuple, returnArray);
         return returnArray;
     }
 
-    private static void parseVerticeNTuple(String list, ArrayList<Integer> returnList, Integer emptyMarker, int expectedValueCount) {
-
-//        	log.log(INFO, "list=|"+list+"|");
+    // Counts the values of the list, and stores them if values is not null.  Tuples are split
+    // on '/' like parseList('/', ...) does, so a trailing '/' does not start another value.
+    // Returns -1 if the list only contains whitespace.
+    private static int parseVerticeNTuples(String list, int expectedValueCount, int[] values) {
+        int listLength = list.length();
+        int valueCount = 0;
+        int tupleCount = 0;
+        int count = 0;
 
-        String[] numbers = parseList('/', list);
-//        	log.log(INFO, "found "+numbers.length+" strings in parselist with delim /");
-        int foundCount = 0;
+        while (count < listLength) {
+            while (count < listLength && isWhiteSpace(list.charAt(count))) {
+                count++;
+            }
+            if (count >= listLength) {
+                break;
+            }
+            int tupleEnd = count;
+            while (tupleEnd < listLength && !isWhiteSpace(list.charAt(tupleEnd))) {
+                tupleEnd++;
+            }
+            tupleCount++;
 
-        int index = 0;
-        while (index < numbers.length) {
-//            	    log.log(INFO, "examining numbers["+index+"]=|"+numbers[index]+"|");
-            if (numbers[index].trim().equals("")) {
-//                log.log(INFO, "numbers["+index+"] is empty, adding emptymarker to list");
-                returnList.add(emptyMarker);
-            } else {
-//                                log.log(INFO, "numbers["+index+"] is NOT empty, adding parsed int "+Integer.parseInt(numbers[index])+" to list.");
-                returnList.add(Integer.parseInt(numbers[index]));
+            int foundCount = 0;
+            while (count < tupleEnd) {
+                int itemEnd = count;
+                while (itemEnd < tupleEnd && list.charAt(itemEnd) != '/') {
+                    itemEnd++;
+                }
+                if (values != null) {
+                    values[valueCount] = isBlank(list, count, itemEnd)
+                            ? BuilderInterface.EMPTY_VERTEX_VALUE
+                            : parseInt(list, count, itemEnd);
+                }
+                valueCount++;
+                foundCount++;
+                count = itemEnd + 1;
             }
-            foundCount++;
-            index++;
-        }
-        while (foundCount < expectedValueCount) {
-            returnList.add(emptyMarker);
-            foundCount++;
+            while (foundCount < expectedValueCount) {
+                if (values != null) {
+                    values[valueCount] = BuilderInterface.EMPTY_VERTEX_VALUE;
+                }
+                valueCount++;
+                foundCount++;
+            }
+            count = tupleEnd;
         }
+        return tupleCount == 0 ? -1 : valueCount;
     }
 
     public static String[] parseList(char delim, String list) {
@@ -0,0 +1,89 @@
+package com.owens.oobjloader.benchmark;
+
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.owens.oobjloader.parser.StringUtils;
+
+/**
+ * Parsing the numbers of "v" and "f" lines, with the original StringUtils against the current
+ * one, which parses in place instead of splitting the line into substrings first.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NumberParsingBenchmark {
+    private static final int LINES = 1024;
+
+    // The part of the lines after the keyword, as Parse passes them to StringUtils
+    private String[] vertexLines;
+    private String[] faceLines;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        vertexLines = new String[LINES];
+        faceLines = new String[LINES];
+        for (int loopi = 0; loopi < LINES; loopi++) {
+            vertexLines[loopi] = String.format(Locale.US, "%.6f %.6f %.6f",
+                    (random.nextFloat() - 0.5f) * 100, (random.nextFloat() - 0.5f) * 100,
+                    random.nextFloat() * 1e-3f);
+            StringBuilder face = new StringBuilder();
+            for (int corner = 0; corner < 4; corner++) {
+                int index = 1 + random.nextInt(1000000);
+                face.append(corner > 0 ? " " : "").append(index).append('/').append(index)
+                        .append('/').append(index);
+            }
+            faceLines[loopi] = face.toString();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void legacyVertices(Blackhole blackhole) {
+        for (int loopi = 0; loopi < LINES; loopi++) {
+            blackhole.consume(LegacyStringUtils.parseFloatList(3, vertexLines[loopi], 0));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void vertices(Blackhole blackhole) {
+        for (int loopi = 0; loopi < LINES; loopi++) {
+            blackhole.consume(StringUtils.parseFloatList(3, vertexLines[loopi], 0));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void legacyFaces(Blackhole blackhole) {
+        for (int loopi = 0; loopi < LINES; loopi++) {
+            blackhole.consume(LegacyStringUtils.parseListVerticeNTuples(faceLines[loopi], 3));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void faces(Blackhole blackhole) {
+        for (int loopi = 0; loopi < LINES; loopi++) {
+            blackhole.consume(StringUtils.parseListVerticeNTuples(faceLines[loopi], 3));
+        }
+    }
+}
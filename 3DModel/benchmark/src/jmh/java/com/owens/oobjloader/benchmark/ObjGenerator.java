@@ -0,0 +1,88 @@
+package com.owens.oobjloader.benchmark;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Writes synthetic OBJ files for the benchmarks: a height field with positions, texture
+ * coordinates and normals, made of quads that are split into groups of rows. The output only
+ * depends on the number of faces, so every run parses the same file.
+ */
+public class ObjGenerator {
+    // Faces per group
+    private static final int GROUP_FACES = 10000;
+
+    private ObjGenerator() {
+    }
+
+    /**
+     * @return the directory the generated files are kept in, see the jmh block of build.gradle
+     */
+    public static File getDirectory() {
+        return new File(System.getProperty("objfiles.dir", System.getProperty("java.io.tmpdir")));
+    }
+
+    /**
+     * Returns a file with about the given number of faces, generating it if it doesn't exist yet.
+     */
+    public static synchronized File getFile(int faces) throws IOException {
+        File directory = getDirectory();
+        File file = new File(directory, "grid" + faces + ".obj");
+        if (!file.isFile()) {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Unable to create " + directory);
+            }
+            File temporary = new File(directory, file.getName() + ".tmp");
+            write(temporary, faces);
+            if (!temporary.renameTo(file)) {
+                throw new IOException("Unable to create " + file);
+            }
+        }
+        return file;
+    }
+
+    private static void write(File file, int faces) throws IOException {
+        int columns = (int) Math.ceil(Math.sqrt(faces));
+        int rows = (faces + columns - 1) / columns;
+        Random random = new Random(faces);
+        Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file),
+                "US-ASCII"), 1 << 16);
+        try {
+            out.write("# " + faces + " faces, generated by " + ObjGenerator.class.getName() + "\n");
+            for (int row = 0; row <= rows; row++) {
+                for (int column = 0; column <= columns; column++) {
+                    float height = random.nextFloat() * 0.25f;
+                    out.write(String.format(Locale.US, "v %.6f %.6f %.6f\n",
+                            column * 0.1f, height, row * 0.1f));
+                    out.write(String.format(Locale.US, "vt %.6f %.6f\n",
+                            (float) column / columns, (float) row / rows));
+                    out.write(String.format(Locale.US, "vn %.6f %.6f %.6f\n",
+                            -height, 1.0f, height));
+                }
+            }
+            int written = 0;
+            for (int row = 0; row < rows && written < faces; row++) {
+                for (int column = 0; column < columns && written < faces; column++) {
+                    if (written % GROUP_FACES == 0) {
+                        out.write("g group" + written / GROUP_FACES + "\n");
+                    }
+                    // 1-based, counter clockwise seen from above
+                    int a = row * (columns + 1) + column + 1;
+                    int b = a + columns + 1;
+                    out.write("f " + a + "/" + a + "/" + a + " " + b + "/" + b + "/" + b + " "
+                            + (b + 1) + "/" + (b + 1) + "/" + (b + 1) + " " + (a + 1) + "/"
+                            + (a + 1) + "/" + (a + 1) + "\n");
+                    written++;
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+}
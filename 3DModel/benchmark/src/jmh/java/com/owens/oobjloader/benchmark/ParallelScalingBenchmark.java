@@ -0,0 +1,57 @@
+package com.owens.oobjloader.benchmark;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.LogManager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.owens.oobjloader.builder.PackedBuild;
+import com.owens.oobjloader.parser.Parse;
+
+/**
+ * How MODE_PARALLEL scales with the number of parser threads. Thread counts above the number of
+ * available processors show the cost of oversubscription.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g" })
+public class ParallelScalingBenchmark {
+
+    @Param({ "1000000" })
+    public int faces;
+
+    @Param({ "1", "2", "4", "8" })
+    public int threads;
+
+    private File file;
+
+    @Setup
+    public void setUp() throws IOException {
+        LogManager.getLogManager().reset();
+        file = ObjGenerator.getFile(faces);
+    }
+
+    @Benchmark
+    public PackedBuild parse() throws IOException {
+        PackedBuild builder = new PackedBuild();
+        new Parse(builder, new FileInputStream(file), file.getName(), Parse.MODE_PARALLEL,
+                threads, null);
+        return builder;
+    }
+}
@@ -0,0 +1,87 @@
+package com.owens.oobjloader.benchmark;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.LogManager;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.owens.oobjloader.builder.Build;
+import com.owens.oobjloader.builder.PackedBuild;
+import com.owens.oobjloader.parser.BuilderInterface;
+import com.owens.oobjloader.parser.Parse;
+
+/**
+ * Throughput of parsing a generated OBJ file, for each parse mode and builder. Besides the files
+ * per second, the faces counter gives the throughput in faces per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g" })
+public class ParseBenchmark {
+
+    @Param({ "10000", "100000", "1000000" })
+    public int faces;
+
+    @Param({ "READLINE", "STREAMING", "PARALLEL" })
+    public String mode;
+
+    // Build keeps an object per vertex and face, PackedBuild packs them into arrays
+    @Param({ "Build", "PackedBuild" })
+    public String builder;
+
+    private File file;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Counters {
+        public long faces;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            faces = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        // The builders log every group
+        LogManager.getLogManager().reset();
+        file = ObjGenerator.getFile(faces);
+    }
+
+    @Benchmark
+    public BuilderInterface parse(Counters counters) throws IOException {
+        BuilderInterface result = "Build".equals(builder) ? new Build() : new PackedBuild();
+        new Parse(result, new FileInputStream(file), file.getName(), parseMode(mode),
+                Runtime.getRuntime().availableProcessors(), null);
+        counters.faces += faces;
+        return result;
+    }
+
+    static int parseMode(String mode) {
+        if ("STREAMING".equals(mode)) {
+            return Parse.MODE_STREAMING;
+        } else if ("PARALLEL".equals(mode)) {
+            return Parse.MODE_PARALLEL;
+        }
+        return Parse.MODE_READLINE;
+    }
+}
@@ -0,0 +1,106 @@
+package com.owens.oobjloader.builder;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Vertex de-duplication in Build: Build itself, which keys face vertices on the canonical indices
+ * of their coordinates, against LegacyBuild, which keys them by FaceVertex.toString(). Both are
+ * driven through addVertexGeometric/Texture/Normal and addFace with the same generated quad grid,
+ * where each vertex is shared by up to four faces. One operation adds the vertices and
+ * CORNERS face vertices, so the time and the gc profiler's alloc.rate.norm are per million face
+ * vertices.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx2g" })
+public class DedupBenchmark {
+    private static final int CORNERS = 1000000;
+    private static final String[] GROUP_NAMES = { "default" };
+
+    // Number of distinct vertices, each referenced CORNERS / vertices times on average
+    @Param({ "10000", "100000" })
+    public int vertices;
+
+    // x,y,z of each vertex, also used for its normal, and u,v
+    private float[] coordinates;
+    private float[] textureCoords;
+    // The v/vt/vn indices of each quad as addFace takes them, 1-based
+    private int[][] faces;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(vertices);
+        coordinates = new float[vertices * 3];
+        textureCoords = new float[vertices * 2];
+        for (int loopi = 0; loopi < coordinates.length; loopi++) {
+            coordinates[loopi] = random.nextFloat();
+        }
+        for (int loopi = 0; loopi < textureCoords.length; loopi++) {
+            textureCoords[loopi] = random.nextFloat();
+        }
+        int columns = (int) Math.sqrt(vertices);
+        faces = new int[CORNERS / 4][];
+        for (int quad = 0; quad < faces.length; quad++) {
+            int a = (quad % ((columns - 1) * (columns - 1))) / (columns - 1) * columns
+                    + quad % (columns - 1) + 1;
+            int[] corners = { a, a + columns, a + columns + 1, a + 1 };
+            int[] face = new int[12];
+            for (int loopi = 0; loopi < 4; loopi++) {
+                face[loopi * 3] = corners[loopi];
+                face[loopi * 3 + 1] = corners[loopi];
+                face[loopi * 3 + 2] = corners[loopi];
+            }
+            faces[quad] = face;
+        }
+    }
+
+    @Benchmark
+    public int legacyBuild() {
+        LegacyBuild build = new LegacyBuild();
+        build.setCurrentGroupNames(GROUP_NAMES);
+        for (int loopi = 0; loopi < vertices; loopi++) {
+            build.addVertexGeometric(coordinates[loopi * 3], coordinates[loopi * 3 + 1],
+                    coordinates[loopi * 3 + 2]);
+            build.addVertexTexture(textureCoords[loopi * 2], textureCoords[loopi * 2 + 1]);
+            build.addVertexNormal(coordinates[loopi * 3], coordinates[loopi * 3 + 1],
+                    coordinates[loopi * 3 + 2]);
+        }
+        for (int[] face : faces) {
+            build.addFace(face);
+        }
+        return build.faceVerticeList.size();
+    }
+
+    @Benchmark
+    public int build() {
+        Build build = new Build();
+        build.setCurrentGroupNames(GROUP_NAMES);
+        for (int loopi = 0; loopi < vertices; loopi++) {
+            build.addVertexGeometric(coordinates[loopi * 3], coordinates[loopi * 3 + 1],
+                    coordinates[loopi * 3 + 2]);
+            build.addVertexTexture(textureCoords[loopi * 2], textureCoords[loopi * 2 + 1]);
+            build.addVertexNormal(coordinates[loopi * 3], coordinates[loopi * 3 + 1],
+                    coordinates[loopi * 3 + 2]);
+        }
+        for (int[] face : faces) {
+            build.addFace(face);
+        }
+        return build.faceVerticeList.size();
+    }
+}
@@ -0,0 +1,201 @@
+package com.owens.oobjloader.builder;
+
+// This code was written by myself, Sean R. Owens, sean at guild dot net,
+// and is released to the public domain. Share and enjoy. Since some
+// people argue that it is impossible to release software to the public
+// domain, you are also free to use this code under any version of the
+// GPL, LPGL, Apache, or BSD licenses, or contact me for use of another
+// license.  (I generally don't care so I'll almost certainly say yes.)
+// In addition this code may also be used under the "unlicense" described
+// at http://unlicense.org/ .  See the file UNLICENSE in the repo.
+
+import static java.util.logging.Level.SEVERE;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.logging.Logger;
+
+import com.owens.oobjloader.parser.BuilderInterface;
+
+/**
+ * Copy of the vertex and face part of Build before its face vertices were keyed on index triples,
+ * i.e. with faceVerticeMap keyed by FaceVertex.toString(), kept as the baseline of
+ * DedupBenchmark.
+ */
+class LegacyBuild {
+
+    private Logger log = Logger.getLogger(LegacyBuild.class.getName());
+
+    public ArrayList<VertexGeometric> verticesG = new ArrayList<VertexGeometric>();
+    public ArrayList<VertexTexture> verticesT = new ArrayList<VertexTexture>();
+    public ArrayList<VertexNormal> verticesN = new ArrayList<VertexNormal>();
+    HashMap<String, FaceVertex> faceVerticeMap = new HashMap<String, FaceVertex>();
+    public ArrayList<FaceVertex> faceVerticeList = new ArrayList<FaceVertex>();
+    public ArrayList<Face> faces = new ArrayList<Face>();
+    private ArrayList<Face> currentSmoothingGroup = null;
+    public HashMap<String, Group> groups = new HashMap<String, Group>();
+    private Group currentGroup = null;
+    private ArrayList<ArrayList<Face>> currentGroupFaceLists = new ArrayList<ArrayList<Face>>();
+    private Material currentMaterial = null;
+    private Material currentMap = null;
+    public int faceTriCount = 0;
+    public int faceQuadCount = 0;
+    public int facePolyCount = 0;
+    public int faceErrorCount = 0;
+
+    public void addVertexGeometric(float x, float y, float z) {
+        verticesG.add(new VertexGeometric(x, y, z));
+    }
+
+    public void addVertexTexture(float u, float v) {
+        verticesT.add(new VertexTexture(u, v));
+    }
+
+    public void addVertexNormal(float x, float y, float z) {
+        verticesN.add(new VertexNormal(x, y, z));
+    }
+
+    public void addFace(int[] vertexIndices) {
+        Face face = new Face();
+        currentGroup.getFaceList().add(face);
+        face.material = currentMaterial;
+        face.map = currentMap;
+
+        int loopi = 0;
+        // @TODO: add better error checking - make sure values is not empty and that it is a
+        // multiple of 3
+        while (loopi < vertexIndices.length) {
+            // > v is the vertex reference number for a point element. Each point
+            // > element requires one vertex. Positive values indicate absolute
+            // > vertex numbers. Negative values indicate relative vertex numbers.
+
+            FaceVertex fv = new FaceVertex();
+            // log.log(INFO,"Adding vertex g=" + vertexIndices[loopi] + " t=" + vertexIndices[loopi
+            // + 1] + " n=" + vertexIndices[loopi + 2]);
+            int vertexIndex;
+            vertexIndex = vertexIndices[loopi++];
+            currentGroup.getVertIndicesList().add(vertexIndex);
+            // Note that we can use negative references to denote vertices in manner relative to the
+            // current point in the file, i.e.
+            // rather than "the 5th vertice in the file" we can say "the 5th vertice before now"
+            if (vertexIndex < 0) {
+                vertexIndex = vertexIndex + verticesG.size();
+            }
+            if (((vertexIndex - 1) >= 0) && ((vertexIndex - 1) < verticesG.size())) {
+                // Note: vertex indices are 1-indexed, i.e. they start at
+                // one, so we offset by -1 for the 0-indexed array lists.
+                fv.v = verticesG.get(vertexIndex - 1);
+            } else {
+                log.log(SEVERE,
+                        "Index for geometric vertex=" + vertexIndex
+                                + " is out of the current range of geometric vertex values 1 to "
+                                + verticesG.size() + ", ignoring");
+            }
+
+            vertexIndex = vertexIndices[loopi++];
+            currentGroup.getVertIndicesList().add(vertexIndex);
+            if (vertexIndex != BuilderInterface.EMPTY_VERTEX_VALUE) {
+                if (vertexIndex < 0) {
+                    // Note that we can use negative references to denote vertices in manner
+                    // relative to the current point in the file, i.e.
+                    // rather than "the 5th vertice in the file" we can say "the 5th vertice before
+                    // now"
+                    vertexIndex = vertexIndex + verticesT.size();
+                }
+                if (((vertexIndex - 1) >= 0) && ((vertexIndex - 1) < verticesT.size())) {
+                    // Note: vertex indices are 1-indexed, i.e. they start at
+                    // one, so we offset by -1 for the 0-indexed array lists.
+                    fv.t = verticesT.get(vertexIndex - 1);
+                } else {
+                    log.log(SEVERE,
+                            "Index for texture vertex=" + vertexIndex
+                                    + " is out of the current range of texture vertex values 1 to "
+                                    + verticesT.size() + ", ignoring");
+                }
+            }
+
+            vertexIndex = vertexIndices[loopi++];
+            currentGroup.getVertIndicesList().add(vertexIndex);
+            if (vertexIndex != BuilderInterface.EMPTY_VERTEX_VALUE) {
+                if (vertexIndex < 0) {
+                    // Note that we can use negative references to denote vertices in manner
+                    // relative to the current point in the file, i.e.
+                    // rather than "the 5th vertice in the file" we can say "the 5th vertice before
+                    // now"
+                    vertexIndex = vertexIndex + verticesN.size();
+                }
+                if (((vertexIndex - 1) >= 0) && ((vertexIndex - 1) < verticesN.size())) {
+                    // Note: vertex indices are 1-indexed, i.e. they start at
+                    // one, so we offset by -1 for the 0-indexed array lists.
+                    fv.n = verticesN.get(vertexIndex - 1);
+                } else {
+                    log.log(SEVERE,
+                            "Index for vertex normal=" + vertexIndex
+                                    + " is out of the current range of vertex normal values 1 to "
+                                    + verticesN.size() + ", ignoring");
+                }
+            }
+
+            if (fv.v == null) {
+                log.log(SEVERE,
+                        "Can't add vertex to face with missing vertex!  Throwing away face.");
+                faceErrorCount++;
+                return;
+            }
+
+            // Make sure we don't end up with redundant vertice
+            // combinations - i.e. any specific combination of g,v and
+            // t is only stored once and is reused instead.
+            String key = fv.toString();
+            FaceVertex fv2 = faceVerticeMap.get(key);
+            if (null == fv2) {
+                faceVerticeMap.put(key, fv);
+                fv.index = faceVerticeList.size();
+                faceVerticeList.add(fv);
+            } else {
+                fv = fv2;
+            }
+
+            face.add(fv);
+        }
+        // log.log(INFO,"Parsed face=" + face);
+        if (currentSmoothingGroup != null) {
+            currentSmoothingGroup.add(face);
+        }
+
+        if (currentGroupFaceLists.size() > 0) {
+            for (loopi = 0; loopi < currentGroupFaceLists.size(); loopi++) {
+                currentGroupFaceLists.get(loopi).add(face);
+            }
+        }
+
+        faces.add(face);
+
+        // collect some stats for laughs
+        if (face.vertices.size() == 3) {
+            faceTriCount++;
+        } else if (face.vertices.size() == 4) {
+            faceQuadCount++;
+        } else {
+            facePolyCount++;
+        }
+    }
+
+    public void setCurrentGroupNames(String[] names) {
+
+        currentGroupFaceLists.clear();
+        if (null == names) {
+            // Set current group to 'none' - so since we've already
+            // cleared the currentGroups lists, just return.
+            return;
+        }
+        for (int loopi = 0; loopi < names.length; loopi++) {
+            String group = names[loopi].trim();
+
+            if (null == groups.get(group)) {
+                currentGroup = new Group();
+                groups.put(group, currentGroup);
+            }
+        }
+    }
+}
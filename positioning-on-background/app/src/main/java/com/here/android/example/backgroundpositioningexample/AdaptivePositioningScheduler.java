@@ -0,0 +1,289 @@
+/*
+ * Copyright (c) 2021 HERE Europe B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.here.android.example.backgroundpositioningexample;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.core.content.ContextCompat;
+
+import com.here.android.example.backgroundpositioningexample.dutycycle.DutyCycle;
+import com.here.android.example.backgroundpositioningexample.dutycycle.DutyCyclePolicy;
+import com.here.android.mpa.common.GeoCoordinate;
+import com.here.android.mpa.common.GeoPosition;
+import com.here.android.mpa.common.PositioningManager;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * Runs the positioning manager with the duty cycles chosen by a DutyCyclePolicy.
+ *
+ * Every fix is passed to the policy. With a continuous duty cycle, positioning keeps running.
+ * Otherwise it is stopped after the fix and started again by an alarm when the interval has
+ * passed, so the device can sleep in between. The alarm is inexact and is deferred while the
+ * device dozes, which only happens when the device does not move anyway.
+ * Not thread safe, all methods must be called on the handler's thread.
+ */
+class AdaptivePositioningScheduler {
+
+    private static final String TAG = AdaptivePositioningScheduler.class.getSimpleName();
+
+    /** Broadcast action of the alarm. */
+    private static final String ACTION_DUTY_CYCLE_ALARM =
+            "com.here.android.example.backgroundpositioningexample.DUTY_CYCLE_ALARM";
+    /** Time to wait for a fix before giving up until the next interval. */
+    private static final long FIX_TIMEOUT_MS = 60000;
+
+    /** Android context. */
+    private final Context mContext;
+    /** Handler of the thread the scheduler runs on. */
+    private final Handler mHandler;
+    /** Policy choosing the duty cycle. */
+    private final DutyCyclePolicy mPolicy;
+    /** Alarm manager, for starting positioning after an interval. */
+    private final AlarmManager mAlarmManager;
+    /** Intent broadcast by the alarm. */
+    private final PendingIntent mAlarmIntent;
+    /** Current duty cycle. */
+    private DutyCycle mDutyCycle;
+    /** True between start() and stop(). */
+    private volatile boolean mStarted;
+    /** Location method positioning runs with, null while it is stopped. */
+    private PositioningManager.LocationMethod mRunningMethod;
+
+    // Statistics.
+    /** Elapsed realtime of start(). */
+    private long mStartTime;
+    /** Fixes received. */
+    private long mFixCount;
+    /** Times positioning was started. */
+    private long mStartCount;
+    /** Fix attempts that timed out. */
+    private long mTimeoutCount;
+
+    /** Starts positioning when an interval has passed. */
+    private final BroadcastReceiver mAlarmReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (mStarted && mRunningMethod == null) {
+                startPositioning();
+            }
+        }
+    };
+
+    /** Gives up on a fix that does not come. */
+    private final Runnable mFixTimeout = new Runnable() {
+        @Override
+        public void run() {
+            mTimeoutCount++;
+            Log.i(TAG, "No fix within " + FIX_TIMEOUT_MS + " ms, retrying in " + mDutyCycle.intervalMs + " ms");
+            stopPositioning();
+            scheduleAlarm();
+        }
+    };
+
+    /** Positioning listener, which passes fixes to the policy. */
+    private final PositioningManager.OnPositionChangedListener mPositionListener = new PositioningManager.OnPositionChangedListener() {
+        @Override
+        public void onPositionUpdated(PositioningManager.LocationMethod locationMethod, GeoPosition geoPosition, boolean mapMatched) {
+            if (!mStarted || mRunningMethod == null || !geoPosition.isValid()) {
+                return;
+            }
+            onFix(geoPosition);
+        }
+
+        @Override
+        public void onPositionFixChanged(PositioningManager.LocationMethod locationMethod, PositioningManager.LocationStatus locationStatus) {
+            // Fix timeout covers a fix that does not come
+        }
+    };
+
+    /**
+     * Constructor.
+     * @param context Android context.
+     * @param handler Handler of the thread the scheduler runs on.
+     * @param policy Policy choosing the duty cycle.
+     */
+    AdaptivePositioningScheduler(Context context, Handler handler, DutyCyclePolicy policy) {
+        mContext = context.getApplicationContext();
+        mHandler = handler;
+        mPolicy = policy;
+        mAlarmManager = (AlarmManager) mContext.getSystemService(Context.ALARM_SERVICE);
+        final Intent intent = new Intent(ACTION_DUTY_CYCLE_ALARM).setPackage(mContext.getPackageName());
+        mAlarmIntent = PendingIntent.getBroadcast(mContext, 0, intent,
+                PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+    }
+
+    /**
+     * Start positioning. The map engine must be initialized.
+     * @return True if positioning was started.
+     */
+    boolean start() {
+        if (mStarted) {
+            return true;
+        }
+        final PositioningManager posManager = PositioningManager.getInstance();
+        if (posManager == null) {
+            return false;
+        }
+        mStarted = true;
+        mStartTime = SystemClock.elapsedRealtime();
+        mFixCount = 0;
+        mStartCount = 0;
+        mTimeoutCount = 0;
+        mDutyCycle = mPolicy.reset();
+        // Not exported, so that other apps can not send the alarm and start positioning early
+        ContextCompat.registerReceiver(mContext, mAlarmReceiver, new IntentFilter(ACTION_DUTY_CYCLE_ALARM),
+                null, mHandler, ContextCompat.RECEIVER_NOT_EXPORTED);
+        // The positioning manager only keeps a weak reference, mPositionListener keeps the listener alive
+        posManager.addListener(new WeakReference<>(mPositionListener));
+        if (!startPositioning()) {
+            stop();
+            return false;
+        }
+        Log.i(TAG, "start: " + mDutyCycle);
+        return true;
+    }
+
+    /**
+     * Stop positioning and cancel the next start.
+     */
+    void stop() {
+        if (!mStarted) {
+            return;
+        }
+        mStarted = false;
+        mAlarmManager.cancel(mAlarmIntent);
+        mContext.unregisterReceiver(mAlarmReceiver);
+        stopPositioning();
+        final PositioningManager posManager = PositioningManager.getInstance();
+        if (posManager != null) {
+            posManager.removeListener(mPositionListener);
+        }
+        Log.i(TAG, "stop: " + this);
+    }
+
+    /**
+     * @return True between start() and stop(), also while positioning waits for the next interval.
+     * May be called on any thread.
+     */
+    boolean isStarted() {
+        return mStarted;
+    }
+
+    /**
+     * Pass a fix to the policy and apply the duty cycle it returns.
+     */
+    private void onFix(GeoPosition geoPosition) {
+        mFixCount++;
+        final GeoCoordinate coordinate = geoPosition.getCoordinate();
+        final double accuracy = geoPosition.getLatitudeAccuracy();
+        final double speed = geoPosition.getSpeed();
+        final DutyCycle dutyCycle = mPolicy.onFix(
+                SystemClock.elapsedRealtime(),
+                coordinate.getLatitude(),
+                coordinate.getLongitude(),
+                accuracy == GeoPosition.UNKNOWN ? Double.NaN : accuracy,
+                speed == GeoPosition.UNKNOWN ? Double.NaN : speed);
+        if (dutyCycle.state != mDutyCycle.state) {
+            Log.i(TAG, "onFix: " + mDutyCycle.state + " -> " + dutyCycle);
+        }
+        mDutyCycle = dutyCycle;
+        if (!dutyCycle.isContinuous()) {
+            stopPositioning();
+            scheduleAlarm();
+        } else if (mRunningMethod != toLocationMethod(dutyCycle.method)) {
+            stopPositioning();
+            startPositioning();
+        } else {
+            mHandler.removeCallbacks(mFixTimeout);
+        }
+    }
+
+    /**
+     * Start the positioning manager with the current duty cycle's location method.
+     * @return True if started.
+     */
+    private boolean startPositioning() {
+        final PositioningManager posManager = PositioningManager.getInstance();
+        final PositioningManager.LocationMethod method = toLocationMethod(mDutyCycle.method);
+        if (posManager == null || !posManager.start(method)) {
+            Log.e(TAG, "startPositioning: failed to start " + method);
+            return false;
+        }
+        mRunningMethod = method;
+        mStartCount++;
+        if (!mDutyCycle.isContinuous()) {
+            mHandler.postDelayed(mFixTimeout, FIX_TIMEOUT_MS);
+        }
+        return true;
+    }
+
+    /**
+     * Stop the positioning manager if it runs.
+     */
+    private void stopPositioning() {
+        mHandler.removeCallbacks(mFixTimeout);
+        if (mRunningMethod == null) {
+            return;
+        }
+        final PositioningManager posManager = PositioningManager.getInstance();
+        if (posManager != null) {
+            posManager.stop();
+        }
+        mRunningMethod = null;
+    }
+
+    /**
+     * Set the alarm for the next fix. It may go off up to a quarter of the interval late, so
+     * that the system can batch it with other alarms.
+     */
+    private void scheduleAlarm() {
+        final long interval = mDutyCycle.intervalMs;
+        mAlarmManager.setWindow(AlarmManager.ELAPSED_REALTIME_WAKEUP,
+                SystemClock.elapsedRealtime() + interval, interval / 4, mAlarmIntent);
+    }
+
+    private static PositioningManager.LocationMethod toLocationMethod(DutyCycle.Method method) {
+        switch (method) {
+            case GPS:
+                return PositioningManager.LocationMethod.GPS;
+            case NETWORK:
+                return PositioningManager.LocationMethod.NETWORK;
+            default:
+                return PositioningManager.LocationMethod.GPS_NETWORK;
+        }
+    }
+
+    /**
+     * @return Statistics, with the fixes saved compared to one fix per second.
+     */
+    @Override
+    public String toString() {
+        final long seconds = Math.max((SystemClock.elapsedRealtime() - mStartTime) / 1000, 1);
+        return mFixCount + " fixes in " + seconds + " s (continuous: about " + seconds + "), "
+                + mStartCount + " starts, " + mTimeoutCount + " timeouts, "
+                + (mDutyCycle != null ? mDutyCycle.state : "no state");
+    }
+}
@@ -107,6 +107,11 @@ public class BackgroundPositioningActivity extends AppCompatActivity implements
                     public void onEngineIntialized() throws RemoteException {
                         updateButtons();
                     }
+
+                    @Override
+                    public void onGeofenceEvent(String geofenceId, int transition, long time) throws RemoteException {
+                        Log.i(TAG, "onGeofenceEvent: " + geofenceId + ", transition " + transition + ", time " + time);
+                    }
                 });
             } catch (RemoteException ex) {
                 Log.e(TAG, ex.getMessage());
@@ -350,11 +355,12 @@ public class BackgroundPositioningActivity extends AppCompatActivity implements
             return;
         }
         mTogglePositioning.setEnabled(true);
-        final PositioningManager posManager = PositioningManager.getInstance();
-        if (posManager == null) {
-            return;
+        try {
+            // Positioning manager is inactive while background positioning pauses between fixes
+            mTogglePositioning.setChecked(mController.isBackgroundStarted());
+        } catch (RemoteException ex) {
+            Log.e(TAG, ex.getMessage());
         }
-        mTogglePositioning.setChecked(posManager.isActive());
     }
 
     /**
@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2021 HERE Europe B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.here.android.example.backgroundpositioningexample;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import com.here.android.mpa.common.GeoCoordinate;
+import com.here.android.mpa.common.GeoPosition;
+import com.here.android.mpa.common.PositioningManager;
+
+import java.util.Arrays;
+
+/**
+ * Batch of position fixes delivered to position subscribers.
+ *
+ * Fixes are stored column by column, one array per value, so that a batch is written to a
+ * parcel with a few array copies instead of one call per value. Unknown values are
+ * GeoCoordinate.UNKNOWN_ALTITUDE for the altitude and GeoPosition.UNKNOWN for the others.
+ */
+public class PositionBatch implements Parcelable {
+
+    /** Number of fixes. */
+    private int mCount;
+    /** Fix time, milliseconds since epoch. */
+    private long[] mTime;
+    /** Latitude in degrees. */
+    private double[] mLatitude;
+    /** Longitude in degrees. */
+    private double[] mLongitude;
+    /** Altitude in meters. */
+    private double[] mAltitude;
+    /** Horizontal accuracy in meters. */
+    private double[] mAccuracy;
+    /** Heading in degrees. */
+    private double[] mHeading;
+    /** Speed in meters per second. */
+    private double[] mSpeed;
+    /** PositioningManager.LocationMethod ordinal, -1 if unknown. */
+    private int[] mLocationMethod;
+
+    /**
+     * Constructor.
+     * @param capacity Initial number of fixes the batch can hold without growing.
+     */
+    public PositionBatch(int capacity) {
+        capacity = Math.max(capacity, 1);
+        mTime = new long[capacity];
+        mLatitude = new double[capacity];
+        mLongitude = new double[capacity];
+        mAltitude = new double[capacity];
+        mAccuracy = new double[capacity];
+        mHeading = new double[capacity];
+        mSpeed = new double[capacity];
+        mLocationMethod = new int[capacity];
+    }
+
+    private PositionBatch(Parcel in) {
+        mCount = in.readInt();
+        mTime = in.createLongArray();
+        mLatitude = in.createDoubleArray();
+        mLongitude = in.createDoubleArray();
+        mAltitude = in.createDoubleArray();
+        mAccuracy = in.createDoubleArray();
+        mHeading = in.createDoubleArray();
+        mSpeed = in.createDoubleArray();
+        mLocationMethod = in.createIntArray();
+    }
+
+    /**
+     * Append a fix.
+     * @param locationMethod Location method of the fix, may be null.
+     * @param geoPosition Fix.
+     */
+    void add(PositioningManager.LocationMethod locationMethod, GeoPosition geoPosition) {
+        if (mCount == mTime.length) {
+            grow(mCount * 2);
+        }
+        final GeoCoordinate coordinate = geoPosition.getCoordinate();
+        mTime[mCount] = geoPosition.getTimestamp() != null
+                ? geoPosition.getTimestamp().getTime() : System.currentTimeMillis();
+        mLatitude[mCount] = coordinate.getLatitude();
+        mLongitude[mCount] = coordinate.getLongitude();
+        mAltitude[mCount] = coordinate.getAltitude();
+        mAccuracy[mCount] = geoPosition.getLatitudeAccuracy();
+        mHeading[mCount] = geoPosition.getHeading();
+        mSpeed[mCount] = geoPosition.getSpeed();
+        mLocationMethod[mCount] = locationMethod != null ? locationMethod.ordinal() : -1;
+        mCount++;
+    }
+
+    /**
+     * Remove all fixes.
+     */
+    void clear() {
+        mCount = 0;
+    }
+
+    /**
+     * Copy the fixes into a new batch that is exactly as large as needed.
+     * @return New batch instance.
+     */
+    PositionBatch copy() {
+        final PositionBatch copy = new PositionBatch(mCount);
+        copy.mCount = mCount;
+        System.arraycopy(mTime, 0, copy.mTime, 0, mCount);
+        System.arraycopy(mLatitude, 0, copy.mLatitude, 0, mCount);
+        System.arraycopy(mLongitude, 0, copy.mLongitude, 0, mCount);
+        System.arraycopy(mAltitude, 0, copy.mAltitude, 0, mCount);
+        System.arraycopy(mAccuracy, 0, copy.mAccuracy, 0, mCount);
+        System.arraycopy(mHeading, 0, copy.mHeading, 0, mCount);
+        System.arraycopy(mSpeed, 0, copy.mSpeed, 0, mCount);
+        System.arraycopy(mLocationMethod, 0, copy.mLocationMethod, 0, mCount);
+        return copy;
+    }
+
+    private void grow(int capacity) {
+        mTime = Arrays.copyOf(mTime, capacity);
+        mLatitude = Arrays.copyOf(mLatitude, capacity);
+        mLongitude = Arrays.copyOf(mLongitude, capacity);
+        mAltitude = Arrays.copyOf(mAltitude, capacity);
+        mAccuracy = Arrays.copyOf(mAccuracy, capacity);
+        mHeading = Arrays.copyOf(mHeading, capacity);
+        mSpeed = Arrays.copyOf(mSpeed, capacity);
+        mLocationMethod = Arrays.copyOf(mLocationMethod, capacity);
+    }
+
+    /** @return Number of fixes. */
+    public int getCount() {
+        return mCount;
+    }
+
+    /** @return Time of fix at index, milliseconds since epoch. */
+    public long getTime(int index) {
+        return mTime[index];
+    }
+
+    /** @return Latitude of fix at index in degrees. */
+    public double getLatitude(int index) {
+        return mLatitude[index];
+    }
+
+    /** @return Longitude of fix at index in degrees. */
+    public double getLongitude(int index) {
+        return mLongitude[index];
+    }
+
+    /** @return Altitude of fix at index in meters, or GeoCoordinate.UNKNOWN_ALTITUDE. */
+    public double getAltitude(int index) {
+        return mAltitude[index];
+    }
+
+    /** @return Horizontal accuracy of fix at index in meters, or GeoPosition.UNKNOWN. */
+    public double getAccuracy(int index) {
+        return mAccuracy[index];
+    }
+
+    /** @return Heading of fix at index in degrees, or GeoPosition.UNKNOWN. */
+    public double getHeading(int index) {
+        return mHeading[index];
+    }
+
+    /** @return Speed of fix at index in meters per second, or GeoPosition.UNKNOWN. */
+    public double getSpeed(int index) {
+        return mSpeed[index];
+    }
+
+    /** @return PositioningManager.LocationMethod ordinal of fix at index, or -1. */
+    public int getLocationMethod(int index) {
+        return mLocationMethod[index];
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        // Only the used part of the arrays is written
+        final PositionBatch batch = mCount == mTime.length ? this : copy();
+        dest.writeInt(mCount);
+        dest.writeLongArray(batch.mTime);
+        dest.writeDoubleArray(batch.mLatitude);
+        dest.writeDoubleArray(batch.mLongitude);
+        dest.writeDoubleArray(batch.mAltitude);
+        dest.writeDoubleArray(batch.mAccuracy);
+        dest.writeDoubleArray(batch.mHeading);
+        dest.writeDoubleArray(batch.mSpeed);
+        dest.writeIntArray(batch.mLocationMethod);
+    }
+
+    public static final Creator<PositionBatch> CREATOR = new Creator<PositionBatch>() {
+        @Override
+        public PositionBatch createFromParcel(Parcel in) {
+            return new PositionBatch(in);
+        }
+
+        @Override
+        public PositionBatch[] newArray(int size) {
+            return new PositionBatch[size];
+        }
+    };
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2021 HERE Europe B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.here.android.example.backgroundpositioningexample;
+
+import android.os.Handler;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.here.android.mpa.common.GeoPosition;
+import com.here.android.mpa.common.PositioningManager;
+
+import java.util.Locale;
+
+/**
+ * Collects position fixes for one subscriber and delivers them in batches.
+ *
+ * A batch is sent when it holds maxBatchSize fixes, or maxLatencyMs after its first fix,
+ * whichever comes first. The latency timer runs on uptime, so it does not wake a sleeping
+ * device; a batch due during sleep goes out with the next fix, which wakes the device anyway.
+ * Not thread safe, all methods must be called on the handler's thread.
+ */
+class PositionBatcher {
+
+    private static final String TAG = PositionBatcher.class.getSimpleName();
+
+    /** Largest batch size accepted from subscribers. */
+    static final int MAX_BATCH_SIZE = 1000;
+
+    /** Subscriber. */
+    private final IPositionBatchListener mListener;
+    /** Handler for the latency timer. */
+    private final Handler mHandler;
+    /** Fixes not sent yet. */
+    private final PositionBatch mBatch;
+    /** Batch size that triggers sending. */
+    private int mMaxBatchSize;
+    /** Longest time a fix is held back. */
+    private long mMaxLatencyMs;
+    /** Uptime of the first fix in the batch. */
+    private long mBatchStart;
+
+    // Statistics, for comparing batched with per-fix delivery.
+    /** Uptime of the subscription. */
+    private final long mSubscribeTime;
+    /** Fixes received. */
+    private long mFixCount;
+    /** Batches sent, each one binder transaction. */
+    private long mTransactionCount;
+    /** Batches sent by the latency timer rather than by a fix. */
+    private long mTimerFlushCount;
+
+    /** Sends the batch when its latency runs out. */
+    private final Runnable mLatencyTimeout = new Runnable() {
+        @Override
+        public void run() {
+            mTimerFlushCount++;
+            flush();
+        }
+    };
+
+    /**
+     * Constructor.
+     * @param listener Subscriber.
+     * @param handler Handler of the thread fixes are added on.
+     * @param maxBatchSize Batch size that triggers sending, 1 sends every fix.
+     * @param maxLatencyMs Longest time a fix is held back.
+     */
+    PositionBatcher(IPositionBatchListener listener, Handler handler, int maxBatchSize, long maxLatencyMs) {
+        mListener = listener;
+        mHandler = handler;
+        mSubscribeTime = SystemClock.uptimeMillis();
+        setBatching(maxBatchSize, maxLatencyMs);
+        mBatch = new PositionBatch(mMaxBatchSize);
+    }
+
+    /**
+     * Change batching. Fixes collected so far are sent if they already meet the new limits.
+     * @param maxBatchSize Batch size that triggers sending.
+     * @param maxLatencyMs Longest time a fix is held back.
+     */
+    void setBatching(int maxBatchSize, long maxLatencyMs) {
+        mMaxBatchSize = Math.min(Math.max(maxBatchSize, 1), MAX_BATCH_SIZE);
+        mMaxLatencyMs = Math.max(maxLatencyMs, 0);
+        if (mBatch != null && mBatch.getCount() > 0) {
+            mHandler.removeCallbacks(mLatencyTimeout);
+            if (mBatch.getCount() >= mMaxBatchSize) {
+                flush();
+            } else {
+                mHandler.postAtTime(mLatencyTimeout, mBatchStart + mMaxLatencyMs);
+            }
+        }
+    }
+
+    /**
+     * Add a fix, sending the batch if it is full.
+     * @param locationMethod Location method of the fix.
+     * @param geoPosition Fix.
+     */
+    void add(PositioningManager.LocationMethod locationMethod, GeoPosition geoPosition) {
+        mFixCount++;
+        final long now = SystemClock.uptimeMillis();
+        if (mBatch.getCount() == 0) {
+            mBatchStart = now;
+        }
+        mBatch.add(locationMethod, geoPosition);
+        if (mBatch.getCount() >= mMaxBatchSize || now - mBatchStart >= mMaxLatencyMs) {
+            flush();
+        } else if (mBatch.getCount() == 1) {
+            mHandler.postAtTime(mLatencyTimeout, mBatchStart + mMaxLatencyMs);
+        }
+    }
+
+    /**
+     * Send the fixes collected so far.
+     */
+    void flush() {
+        mHandler.removeCallbacks(mLatencyTimeout);
+        if (mBatch.getCount() == 0) {
+            return;
+        }
+        // A local subscriber gets the object itself, so it must not be reused
+        final PositionBatch batch = mBatch.copy();
+        mBatch.clear();
+        mTransactionCount++;
+        try {
+            mListener.onPositionBatch(batch);
+        } catch (RemoteException ex) {
+            // The subscriber is removed when its death is reported
+            Log.w(TAG, "flush: subscriber is gone: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Stop the latency timer, fixes not sent are dropped.
+     */
+    void cancel() {
+        mHandler.removeCallbacks(mLatencyTimeout);
+        mBatch.clear();
+    }
+
+    /**
+     * @return Delivery statistics, with the transactions per-fix delivery would have made.
+     */
+    @Override
+    public String toString() {
+        final double hours = Math.max(SystemClock.uptimeMillis() - mSubscribeTime, 1) / 3600000.0;
+        return String.format(Locale.US,
+                "%d fixes in %d transactions, %.0f transactions/h (per-fix delivery: %.0f/h), "
+                        + "%d timer flushes (%.0f/h), batch size %d, latency %d ms",
+                mFixCount, mTransactionCount, mTransactionCount / hours, mFixCount / hours,
+                mTimerFlushCount, mTimerFlushCount / hours, mMaxBatchSize, mMaxLatencyMs);
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2021 HERE Europe B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.here.android.example.backgroundpositioningexample;
+
+import android.os.Build;
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.os.SharedMemory;
+import android.system.ErrnoException;
+
+import androidx.annotation.RequiresApi;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Handle of the shared memory that PositioningService writes its position ring buffer to.
+ *
+ * A client gets the handle once from IPositioningServiceControl.getPositionBuffer(), maps it
+ * with {@link #map()} and then reads fixes from the returned {@link PositionRingBuffer} without
+ * any binder transaction. The memory is read only for clients.
+ */
+@RequiresApi(Build.VERSION_CODES.O_MR1)
+public class PositionBufferHandle implements Parcelable {
+
+    /** Shared memory region. */
+    private final SharedMemory mMemory;
+    /** Mapping of the region, null if not mapped. */
+    private ByteBuffer mMapping;
+
+    /**
+     * Constructor.
+     * @param memory Shared memory region holding a position ring buffer.
+     */
+    PositionBufferHandle(SharedMemory memory) {
+        mMemory = memory;
+    }
+
+    private PositionBufferHandle(Parcel in) {
+        mMemory = in.readParcelable(SharedMemory.class.getClassLoader());
+    }
+
+    /**
+     * Map the shared memory for reading. Calling it again returns a reader of the same mapping.
+     * @return Ring buffer reader.
+     * @throws ErrnoException If mapping fails.
+     */
+    public synchronized PositionRingBuffer map() throws ErrnoException {
+        if (mMapping == null) {
+            mMapping = mMemory.mapReadOnly();
+        }
+        return PositionRingBuffer.open(mMapping);
+    }
+
+    /**
+     * Unmap and close the shared memory. Readers returned by map() must not be used afterwards.
+     * Only for clients in another process, a client in the service process gets the service's
+     * own handle.
+     */
+    public synchronized void close() {
+        if (mMapping != null) {
+            SharedMemory.unmap(mMapping);
+            mMapping = null;
+        }
+        mMemory.close();
+    }
+
+    @Override
+    public int describeContents() {
+        return CONTENTS_FILE_DESCRIPTOR;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeParcelable(mMemory, flags);
+    }
+
+    public static final Creator<PositionBufferHandle> CREATOR = new Creator<PositionBufferHandle>() {
+        @Override
+        public PositionBufferHandle createFromParcel(Parcel in) {
+            return new PositionBufferHandle(in);
+        }
+
+        @Override
+        public PositionBufferHandle[] newArray(int size) {
+            return new PositionBufferHandle[size];
+        }
+    };
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright (c) 2021 HERE Europe B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.here.android.example.backgroundpositioningexample;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Ring buffer of position fixes in a byte buffer, which may be memory shared between processes.
+ *
+ * There is one writer and any number of readers, none of them take locks. Each slot starts with
+ * a sequence number: 2n + 1 while fix n is being written into it, 2n + 2 once it is complete.
+ * A reader reads the sequence, the fix and the sequence again, and only accepts the fix if both
+ * sequences are 2n + 2. The header holds the number of fixes written so far.
+ *
+ * The class only uses java.nio, so it runs on a plain JVM as well as on Android.
+ */
+public class PositionRingBuffer {
+
+    /** Header magic, "PRB1". */
+    private static final int MAGIC = 0x50524231;
+    /** Header: int magic, int capacity, long write count. */
+    private static final int HEADER_SIZE = 16;
+    private static final int CAPACITY_OFFSET = 4;
+    private static final int WRITE_COUNT_OFFSET = 8;
+    /** Slot: long sequence, long time, 6 double values, int location method, int padding. */
+    private static final int SLOT_SIZE = 72;
+    /** Times a reader tries before giving up on a slot the writer keeps overwriting. */
+    private static final int MAX_READ_ATTEMPTS = 16;
+
+    /**
+     * Position fix as read from the buffer.
+     */
+    public static class Fix {
+        /** Index of the fix, counting from 0 for the first fix written. */
+        public long index;
+        /** Fix time, milliseconds since epoch. */
+        public long time;
+        public double latitude;
+        public double longitude;
+        public double altitude;
+        public double accuracy;
+        public double heading;
+        public double speed;
+        /** PositioningManager.LocationMethod ordinal, -1 if unknown. */
+        public int locationMethod;
+    }
+
+    /** Buffer, shared with the other processes. */
+    private final ByteBuffer mBuffer;
+    /** Number of slots. */
+    private final int mCapacity;
+    /** Number of fixes written, kept by the writer only. */
+    private long mWriteCount;
+    /** Target of the volatile accesses in fence(), per instance so threads do not contend. */
+    private volatile int mFence;
+
+    private PositionRingBuffer(ByteBuffer buffer, int capacity) {
+        mBuffer = buffer.duplicate().order(ByteOrder.nativeOrder());
+        mCapacity = capacity;
+    }
+
+    /**
+     * Get buffer size needed for a capacity.
+     * @param capacity Number of fixes kept.
+     * @return Buffer size in bytes.
+     */
+    public static int getBufferSize(int capacity) {
+        return HEADER_SIZE + capacity * SLOT_SIZE;
+    }
+
+    /**
+     * Create an empty ring buffer for writing.
+     * @param buffer Buffer of at least getBufferSize(capacity) bytes.
+     * @param capacity Number of fixes kept.
+     * @return Ring buffer instance.
+     */
+    public static PositionRingBuffer create(ByteBuffer buffer, int capacity) {
+        if (capacity <= 0 || buffer.capacity() < getBufferSize(capacity)) {
+            throw new IllegalArgumentException("buffer too small for " + capacity + " fixes");
+        }
+        final PositionRingBuffer ring = new PositionRingBuffer(buffer, capacity);
+        for (int i = 0; i < getBufferSize(capacity); i += 8) {
+            ring.mBuffer.putLong(i, 0);
+        }
+        ring.mBuffer.putInt(CAPACITY_OFFSET, capacity);
+        ring.fence();
+        ring.mBuffer.putInt(0, MAGIC);
+        return ring;
+    }
+
+    /**
+     * Open a ring buffer created by the writer for reading.
+     * @param buffer Buffer, may be read only.
+     * @return Ring buffer instance.
+     */
+    public static PositionRingBuffer open(ByteBuffer buffer) {
+        final ByteBuffer view = buffer.duplicate().order(ByteOrder.nativeOrder());
+        if (view.capacity() < HEADER_SIZE || view.getInt(0) != MAGIC) {
+            throw new IllegalArgumentException("not a position ring buffer");
+        }
+        final int capacity = view.getInt(CAPACITY_OFFSET);
+        if (capacity <= 0 || view.capacity() < getBufferSize(capacity)) {
+            throw new IllegalArgumentException("invalid capacity " + capacity);
+        }
+        return new PositionRingBuffer(buffer, capacity);
+    }
+
+    /**
+     * @return Number of fixes kept.
+     */
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    /**
+     * Write a fix, overwriting the oldest one when the buffer is full. Only one thread of one
+     * process may write.
+     */
+    public void write(long time, double latitude, double longitude, double altitude,
+            double accuracy, double heading, double speed, int locationMethod) {
+        final long index = mWriteCount;
+        final int slot = slotOffset(index);
+        mBuffer.putLong(slot, 2 * index + 1);
+        fence();
+        mBuffer.putLong(slot + 8, time);
+        mBuffer.putDouble(slot + 16, latitude);
+        mBuffer.putDouble(slot + 24, longitude);
+        mBuffer.putDouble(slot + 32, altitude);
+        mBuffer.putDouble(slot + 40, accuracy);
+        mBuffer.putDouble(slot + 48, heading);
+        mBuffer.putDouble(slot + 56, speed);
+        mBuffer.putInt(slot + 64, locationMethod);
+        fence();
+        mBuffer.putLong(slot, 2 * index + 2);
+        mWriteCount = index + 1;
+        mBuffer.putLong(WRITE_COUNT_OFFSET, mWriteCount);
+        fence();
+    }
+
+    /**
+     * @return Number of fixes written so far. The ones before getWriteCount() - getCapacity()
+     * have been overwritten.
+     */
+    public long getWriteCount() {
+        fence();
+        return mBuffer.getLong(WRITE_COUNT_OFFSET);
+    }
+
+    /**
+     * Read the latest fix.
+     * @param fix Fix to read into.
+     * @return False if there is no fix yet.
+     */
+    public boolean readLatest(Fix fix) {
+        for (int attempt = 0; attempt < MAX_READ_ATTEMPTS; attempt++) {
+            final long count = getWriteCount();
+            if (count <= 0) {
+                return false;
+            }
+            if (read(count - 1, fix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Read a fix by index.
+     * @param index Index of the fix.
+     * @param fix Fix to read into.
+     * @return False if the fix is not written yet or has been overwritten.
+     */
+    public boolean read(long index, Fix fix) {
+        if (index < 0) {
+            return false;
+        }
+        final int slot = slotOffset(index);
+        final long complete = 2 * index + 2;
+        fence();
+        if (mBuffer.getLong(slot) != complete) {
+            return false;
+        }
+        fence();
+        fix.time = mBuffer.getLong(slot + 8);
+        fix.latitude = mBuffer.getDouble(slot + 16);
+        fix.longitude = mBuffer.getDouble(slot + 24);
+        fix.altitude = mBuffer.getDouble(slot + 32);
+        fix.accuracy = mBuffer.getDouble(slot + 40);
+        fix.heading = mBuffer.getDouble(slot + 48);
+        fix.speed = mBuffer.getDouble(slot + 56);
+        fix.locationMethod = mBuffer.getInt(slot + 64);
+        fence();
+        if (mBuffer.getLong(slot) != complete) {
+            // Overwritten while reading
+            return false;
+        }
+        fix.index = index;
+        return true;
+    }
+
+    private int slotOffset(long index) {
+        return HEADER_SIZE + (int) (index % mCapacity) * SLOT_SIZE;
+    }
+
+    /**
+     * Full memory fence. A volatile write followed by a volatile read keeps the buffer accesses
+     * before it from moving after it and the other way round, on Android versions before
+     * VarHandle fences as well. The hardware barrier this compiles to also orders the accesses of
+     * other processes to the shared memory.
+     */
+    private void fence() {
+        mFence = 0;
+        if (mFence != 0) {
+            throw new AssertionError();
+        }
+    }
+}
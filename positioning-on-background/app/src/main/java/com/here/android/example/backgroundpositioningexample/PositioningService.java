@@ -24,19 +24,36 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.ServiceConnection;
 import android.os.Build;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
+import android.os.RemoteCallbackList;
 import android.os.RemoteException;
+import android.os.SharedMemory;
+import android.system.ErrnoException;
+import android.system.OsConstants;
 import android.util.Log;
 
 import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
 
+import com.here.android.example.backgroundpositioningexample.dutycycle.SpeedDutyCyclePolicy;
+import com.here.android.example.backgroundpositioningexample.geofence.CircleGeofence;
+import com.here.android.example.backgroundpositioningexample.geofence.Geofence;
+import com.here.android.example.backgroundpositioningexample.geofence.GeofenceEngine;
+import com.here.android.example.backgroundpositioningexample.geofence.PolygonGeofence;
 import com.here.android.mpa.common.ApplicationContext;
+import com.here.android.mpa.common.GeoCoordinate;
+import com.here.android.mpa.common.GeoPosition;
 import com.here.android.mpa.common.LocationDataSource;
 import com.here.android.mpa.common.LocationDataSourceHERE;
 import com.here.android.mpa.common.MapEngine;
 import com.here.android.mpa.common.OnEngineInitListener;
 import com.here.android.mpa.common.PositioningManager;
 
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+
 /**
  * Positioning service that is run as foreground service to ensure map engine existence after
  * the activity has been destroyed.
@@ -58,6 +75,89 @@ public class PositioningService extends Service {
     private IPositioningServiceListener mListener;
     /** */
     private NotificationUtils mNotificationUtils;
+    /** Main thread handler, position subscriptions are only changed on the main thread. */
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    /** Position subscribers, each with its PositionBatcher as cookie. */
+    private final RemoteCallbackList<IPositionBatchListener> mSubscribers = new RemoteCallbackList<IPositionBatchListener>() {
+        @Override
+        public void onCallbackDied(IPositionBatchListener listener, Object cookie) {
+            final PositionBatcher batcher = (PositionBatcher) cookie;
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    batcher.cancel();
+                    Log.i(TAG, "Position subscriber died: " + batcher);
+                    updatePositionListener();
+                }
+            });
+        }
+    };
+    /** Number of fixes kept in the shared position ring buffer. */
+    private static final int POSITION_BUFFER_CAPACITY = 64;
+    /** Handle of the shared position ring buffer, null until a client asks for it. */
+    private PositionBufferHandle mPositionBuffer;
+    /** Service's writable mapping of the shared position ring buffer. */
+    private ByteBuffer mPositionMapping;
+    /** Writer of the shared position ring buffer, null until a client asks for it. */
+    private volatile PositionRingBuffer mPositionRing;
+    /** Background positioning scheduler, created on first start. Only used on the main thread. */
+    private volatile AdaptivePositioningScheduler mScheduler;
+    /** Geofences, checked on every fix. Only used on the main thread. */
+    private final GeofenceEngine mGeofenceEngine = new GeofenceEngine(new GeofenceEngine.Listener() {
+        @Override
+        public void onGeofenceEvent(Geofence geofence, int transition, long time) {
+            if (mListener == null) {
+                return;
+            }
+            try {
+                mListener.onGeofenceEvent(geofence.getId(), transition, time);
+            } catch (RemoteException ex) {
+                Log.w(TAG, "onGeofenceEvent: listener is gone: " + ex.getMessage());
+            }
+        }
+    });
+    /** True when mPositionListener is registered to the positioning manager. */
+    private boolean mListeningPositions;
+    /** Positioning listener, which passes fixes to the subscribers. */
+    private final PositioningManager.OnPositionChangedListener mPositionListener = new PositioningManager.OnPositionChangedListener() {
+        @Override
+        public void onPositionUpdated(PositioningManager.LocationMethod locationMethod, GeoPosition geoPosition, boolean mapMatched) {
+            final GeoCoordinate coordinate = geoPosition.getCoordinate();
+            final long time = geoPosition.getTimestamp() != null
+                    ? geoPosition.getTimestamp().getTime() : System.currentTimeMillis();
+            if (mGeofenceEngine.size() > 0 && geoPosition.isValid()) {
+                mGeofenceEngine.update(time, coordinate.getLatitude(), coordinate.getLongitude());
+            }
+            final PositionRingBuffer ring = mPositionRing;
+            if (ring != null) {
+                ring.write(
+                        time,
+                        coordinate.getLatitude(),
+                        coordinate.getLongitude(),
+                        coordinate.getAltitude(),
+                        geoPosition.getLatitudeAccuracy(),
+                        geoPosition.getHeading(),
+                        geoPosition.getSpeed(),
+                        locationMethod != null ? locationMethod.ordinal() : -1);
+            }
+            final int count = mSubscribers.beginBroadcast();
+            try {
+                for (int i = 0; i < count; i++) {
+                    ((PositionBatcher) mSubscribers.getBroadcastCookie(i)).add(locationMethod, geoPosition);
+                }
+            } finally {
+                mSubscribers.finishBroadcast();
+            }
+        }
+
+        @Override
+        public void onPositionFixChanged(PositioningManager.LocationMethod locationMethod, PositioningManager.LocationStatus locationStatus) {
+            if (locationStatus != PositioningManager.LocationStatus.AVAILABLE) {
+                // No fixes for a while, deliver the last ones now
+                flushSubscribers();
+            }
+        }
+    };
 
     /**
      * Abstract base service connection implementation.
@@ -175,28 +275,110 @@ public class PositioningService extends Service {
 
                 @Override
                 public void startBackground() throws RemoteException {
-                    final PositioningManager posManager = PositioningManager.getInstance();
-                    if (posManager != null) {
-                        if (posManager.start(PositioningManager.LocationMethod.GPS_NETWORK)) {
+                    mHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (getScheduler().start()) {
+                                mNotificationUtils.updateNotification(
+                                        R.drawable.ic_playing,
+                                        R.string.notificationTitle,
+                                        R.string.notificationBgPositioningStarted);
+                            }
+                        }
+                    });
+                }
+
+                @Override
+                public void stopBackground() throws RemoteException {
+                    mHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (mScheduler != null) {
+                                mScheduler.stop();
+                            }
                             mNotificationUtils.updateNotification(
-                                    R.drawable.ic_playing,
+                                    R.drawable.ic_paused,
                                     R.string.notificationTitle,
-                                    R.string.notificationBgPositioningStarted);
+                                    R.string.notificationMapEngineReady);
+                        }
+                    });
+                    mListener = null;
+                }
+
+                @Override
+                public boolean isBackgroundStarted() throws RemoteException {
+                    final AdaptivePositioningScheduler scheduler = mScheduler;
+                    return scheduler != null && scheduler.isStarted();
+                }
+
+                @Override
+                public void subscribePositions(final IPositionBatchListener listener, final int maxBatchSize, final long maxLatencyMs) throws RemoteException {
+                    if (listener == null) {
+                        throw new IllegalArgumentException("listener cannot be null");
+                    }
+                    mHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            subscribe(listener, maxBatchSize, maxLatencyMs);
                         }
+                    });
+                }
+
+                @Override
+                public void unsubscribePositions(final IPositionBatchListener listener) throws RemoteException {
+                    if (listener == null) {
+                        return;
                     }
+                    mHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            unsubscribe(listener);
+                        }
+                    });
                 }
 
                 @Override
-                public void stopBackground() throws RemoteException {
-                    final PositioningManager posManager = PositioningManager.getInstance();
-                    if (posManager != null) {
-                        posManager.stop();
-                        mNotificationUtils.updateNotification(
-                                R.drawable.ic_paused,
-                                R.string.notificationTitle,
-                                R.string.notificationMapEngineReady);
+                public PositionBufferHandle getPositionBuffer() throws RemoteException {
+                    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O_MR1) {
+                        return null;
                     }
-                    mListener = null;
+                    return getOrCreatePositionBuffer();
+                }
+
+                @Override
+                public void addCircleGeofence(String id, double latitude, double longitude, double radius, long dwellMs) throws RemoteException {
+                    // Invalid fences throw here, to the caller
+                    addGeofence(new CircleGeofence(id, latitude, longitude, radius, dwellMs));
+                }
+
+                @Override
+                public void addPolygonGeofence(String id, double[] latitudes, double[] longitudes, long dwellMs) throws RemoteException {
+                    if (latitudes == null || longitudes == null) {
+                        throw new IllegalArgumentException("vertices cannot be null");
+                    }
+                    addGeofence(new PolygonGeofence(id, latitudes, longitudes, dwellMs));
+                }
+
+                @Override
+                public void removeGeofence(final String id) throws RemoteException {
+                    mHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            mGeofenceEngine.remove(id);
+                            updatePositionListener();
+                        }
+                    });
+                }
+
+                @Override
+                public void clearGeofences() throws RemoteException {
+                    mHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            mGeofenceEngine.clear();
+                            updatePositionListener();
+                        }
+                    });
                 }
             };
         }
@@ -206,9 +388,177 @@ public class PositioningService extends Service {
     @Override
     public void onDestroy() {
         super.onDestroy();
+        if (mScheduler != null) {
+            mScheduler.stop();
+        }
+        flushSubscribers();
+        mSubscribers.kill();
+        closePositionBuffer();
+        updatePositionListener();
         mRunning = false;
     }
 
+    /**
+     * Get the background positioning scheduler, creating it on first use.
+     * @return Scheduler instance.
+     */
+    private AdaptivePositioningScheduler getScheduler() {
+        if (mScheduler == null) {
+            mScheduler = new AdaptivePositioningScheduler(this, mHandler, new SpeedDutyCyclePolicy());
+        }
+        return mScheduler;
+    }
+
+    /**
+     * Add a geofence on the main thread.
+     * @param geofence Geofence.
+     */
+    private void addGeofence(final Geofence geofence) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mGeofenceEngine.add(geofence);
+                updatePositionListener();
+            }
+        });
+    }
+
+    /**
+     * Create the shared position ring buffer on first use. Clients get a read only handle.
+     * @return Handle of the ring buffer, or null if it cannot be created.
+     */
+    @RequiresApi(Build.VERSION_CODES.O_MR1)
+    private synchronized PositionBufferHandle getOrCreatePositionBuffer() {
+        if (mPositionBuffer != null) {
+            return mPositionBuffer;
+        }
+        try {
+            final SharedMemory memory = SharedMemory.create(TAG, PositionRingBuffer.getBufferSize(POSITION_BUFFER_CAPACITY));
+            mPositionMapping = memory.mapReadWrite();
+            final PositionRingBuffer ring = PositionRingBuffer.create(mPositionMapping, POSITION_BUFFER_CAPACITY);
+            // Existing mappings keep their protection, later ones are read only
+            memory.setProtect(OsConstants.PROT_READ);
+            mPositionBuffer = new PositionBufferHandle(memory);
+            mPositionRing = ring;
+        } catch (ErrnoException ex) {
+            Log.e(TAG, "getOrCreatePositionBuffer: " + ex.getMessage());
+            return null;
+        }
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                updatePositionListener();
+            }
+        });
+        return mPositionBuffer;
+    }
+
+    /**
+     * Stop writing the shared position ring buffer and release the service's copy of it.
+     */
+    private synchronized void closePositionBuffer() {
+        if (mPositionBuffer == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.O_MR1) {
+            return;
+        }
+        mPositionRing = null;
+        SharedMemory.unmap(mPositionMapping);
+        mPositionMapping = null;
+        // Clients keep their own copies of the region
+        mPositionBuffer.close();
+        mPositionBuffer = null;
+    }
+
+    /**
+     * Add a position subscriber, or change the batching of an existing one.
+     * @param listener Subscriber.
+     * @param maxBatchSize Batch size that triggers sending.
+     * @param maxLatencyMs Longest time a fix is held back.
+     */
+    private void subscribe(IPositionBatchListener listener, int maxBatchSize, long maxLatencyMs) {
+        final PositionBatcher existing = findBatcher(listener);
+        if (existing != null) {
+            existing.setBatching(maxBatchSize, maxLatencyMs);
+            return;
+        }
+        final PositionBatcher batcher = new PositionBatcher(listener, mHandler, maxBatchSize, maxLatencyMs);
+        if (mSubscribers.register(listener, batcher)) {
+            Log.i(TAG, "subscribe: batch size " + maxBatchSize + ", latency " + maxLatencyMs + " ms");
+            updatePositionListener();
+        }
+    }
+
+    /**
+     * Remove a position subscriber after sending its remaining fixes.
+     * @param listener Subscriber.
+     */
+    private void unsubscribe(IPositionBatchListener listener) {
+        final PositionBatcher batcher = findBatcher(listener);
+        if (batcher == null) {
+            return;
+        }
+        batcher.flush();
+        mSubscribers.unregister(listener);
+        Log.i(TAG, "unsubscribe: " + batcher);
+        updatePositionListener();
+    }
+
+    /**
+     * Find the batcher of a subscriber.
+     * @param listener Subscriber.
+     * @return Batcher instance, or null if not subscribed.
+     */
+    private PositionBatcher findBatcher(IPositionBatchListener listener) {
+        final IBinder binder = listener.asBinder();
+        final int count = mSubscribers.beginBroadcast();
+        try {
+            for (int i = 0; i < count; i++) {
+                if (mSubscribers.getBroadcastItem(i).asBinder() == binder) {
+                    return (PositionBatcher) mSubscribers.getBroadcastCookie(i);
+                }
+            }
+            return null;
+        } finally {
+            mSubscribers.finishBroadcast();
+        }
+    }
+
+    /**
+     * Send the fixes collected for all subscribers.
+     */
+    private void flushSubscribers() {
+        final int count = mSubscribers.beginBroadcast();
+        try {
+            for (int i = 0; i < count; i++) {
+                ((PositionBatcher) mSubscribers.getBroadcastCookie(i)).flush();
+            }
+        } finally {
+            mSubscribers.finishBroadcast();
+        }
+    }
+
+    /**
+     * Listen for positions while there are subscribers, a position buffer or geofences, and the
+     * map engine is initialized.
+     */
+    private void updatePositionListener() {
+        final boolean listen = (mSubscribers.getRegisteredCallbackCount() > 0 || mPositionRing != null
+                || mGeofenceEngine.size() > 0) && MapEngine.isInitialized();
+        if (listen == mListeningPositions) {
+            return;
+        }
+        final PositioningManager posManager = PositioningManager.getInstance();
+        if (posManager == null) {
+            return;
+        }
+        if (listen) {
+            // The positioning manager only keeps a weak reference, mPositionListener keeps the listener alive
+            posManager.addListener(new WeakReference<>(mPositionListener));
+        } else {
+            posManager.removeListener(mPositionListener);
+        }
+        mListeningPositions = listen;
+    }
+
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
         if (intent == null) {
@@ -271,6 +621,7 @@ public class PositioningService extends Service {
                         return;
                     }
                     posManager.setDataSource(hereLocation);
+                    updatePositionListener();
                 } else {
                     Log.e(TAG, "initMapEngine: MapEngine.init failed: " + error.getDetails());
                 }
@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2021 HERE Europe B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.here.android.example.backgroundpositioningexample.dutycycle;
+
+/**
+ * How positioning is run in a motion state: the location method, and the interval between fixes.
+ *
+ * With an interval of 0 positioning runs continuously. Otherwise it is started for one fix and
+ * stopped again until the interval has passed.
+ */
+public final class DutyCycle {
+
+    /**
+     * Location method, with the names of PositioningManager.LocationMethod. The policy classes
+     * do not depend on the HERE SDK, so that they also run on a plain JVM.
+     */
+    public enum Method {
+        GPS,
+        NETWORK,
+        GPS_NETWORK
+    }
+
+    /** Motion state this duty cycle is used in. */
+    public final MotionState state;
+    /** Location method. */
+    public final Method method;
+    /** Time between fixes in milliseconds, 0 for continuous positioning. */
+    public final long intervalMs;
+
+    /**
+     * Constructor.
+     * @param state Motion state this duty cycle is used in.
+     * @param method Location method.
+     * @param intervalMs Time between fixes in milliseconds, 0 for continuous positioning.
+     */
+    public DutyCycle(MotionState state, Method method, long intervalMs) {
+        if (state == null || method == null || intervalMs < 0) {
+            throw new IllegalArgumentException("invalid duty cycle");
+        }
+        this.state = state;
+        this.method = method;
+        this.intervalMs = intervalMs;
+    }
+
+    /**
+     * @return True if positioning runs continuously.
+     */
+    public boolean isContinuous() {
+        return intervalMs == 0;
+    }
+
+    @Override
+    public String toString() {
+        return state + " (" + method + ", " + (isContinuous() ? "continuous" : intervalMs / 1000 + " s") + ")";
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2021 HERE Europe B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.here.android.example.backgroundpositioningexample.dutycycle;
+
+/**
+ * Policy that decides how positioning is run from the fixes received so far.
+ *
+ * The scheduler passes every fix to {@link #onFix} and runs positioning with the returned duty
+ * cycle until the next fix. Implementations need not be thread safe, the scheduler calls them on
+ * one thread.
+ */
+public interface DutyCyclePolicy {
+
+    /**
+     * Forget all fixes, called when positioning is started.
+     * @return Duty cycle to start with.
+     */
+    DutyCycle reset();
+
+    /**
+     * Take a fix into account.
+     * @param time Monotonic time of the fix in milliseconds, e.g. SystemClock.elapsedRealtime().
+     * @param latitude Latitude in degrees.
+     * @param longitude Longitude in degrees.
+     * @param accuracy Horizontal accuracy in meters, NaN if unknown.
+     * @param speed Speed in meters per second, NaN if unknown.
+     * @return Duty cycle to use until the next fix.
+     */
+    DutyCycle onFix(long time, double latitude, double longitude, double accuracy, double speed);
+}
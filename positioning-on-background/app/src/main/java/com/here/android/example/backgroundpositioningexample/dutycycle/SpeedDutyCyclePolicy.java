@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 2021 HERE Europe B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.here.android.example.backgroundpositioningexample.dutycycle;
+
+/**
+ * Default duty cycle policy, which classifies the motion by speed.
+ *
+ * The speed is the larger of the speed reported with the fix and the displacement speed, which
+ * is the distance to an earlier fix minus both accuracies, divided by the time in between. The
+ * displacement speed catches movement between sparse fixes that carry no speed.
+ *
+ * Each state has a higher speed to enter it than to stay in it, so that speed noise around a
+ * threshold does not switch back and forth. Switching to a more active state happens at once,
+ * so the start of a drive is not missed. Switching to a less active state only happens after the
+ * lower speed has lasted for DOWNGRADE_DWELL_MS, so that a stop at a traffic light keeps the
+ * vehicle in DRIVING.
+ */
+public class SpeedDutyCyclePolicy implements DutyCyclePolicy {
+
+    /** Speed to enter WALKING, m/s. */
+    static final double WALKING_ENTER_SPEED = 0.8;
+    /** Speed below which WALKING is left, m/s. */
+    static final double WALKING_EXIT_SPEED = 0.3;
+    /** Speed to enter DRIVING, m/s (25 km/h). */
+    static final double DRIVING_ENTER_SPEED = 7.0;
+    /** Speed below which DRIVING is left, m/s (11 km/h). */
+    static final double DRIVING_EXIT_SPEED = 3.0;
+    /** Time a lower speed must last before switching to a less active state. */
+    static final long DOWNGRADE_DWELL_MS = 120000;
+    /** Shortest time between the fixes the displacement speed is measured over. */
+    static final long MIN_BASELINE_MS = 20000;
+    /** Accuracy assumed for fixes without one, in meters. */
+    static final double DEFAULT_ACCURACY = 20.0;
+    /** Number of fixes kept for the displacement speed. */
+    private static final int WINDOW_CAPACITY = 32;
+    /** Mean earth radius in meters. */
+    private static final double EARTH_RADIUS = 6371000.0;
+
+    /** Duty cycles by MotionState ordinal. */
+    private final DutyCycle[] mDutyCycles;
+
+    /** Recent fixes, a ring of WINDOW_CAPACITY entries. */
+    private final long[] mTime = new long[WINDOW_CAPACITY];
+    private final double[] mLatitude = new double[WINDOW_CAPACITY];
+    private final double[] mLongitude = new double[WINDOW_CAPACITY];
+    private final double[] mAccuracy = new double[WINDOW_CAPACITY];
+    /** Number of fixes received since reset, the newest is at (mFixCount - 1) % WINDOW_CAPACITY. */
+    private long mFixCount;
+
+    /** Current state. */
+    private MotionState mState;
+    /** Time the speed first dropped below the current state, -1 if it has not. */
+    private long mDowngradeSince;
+    /** Most active state seen since mDowngradeSince. */
+    private MotionState mDowngradeTarget;
+
+    /**
+     * Constructor with the default duty cycles: a network fix every 5 minutes when stationary,
+     * a GPS fix every 30 seconds when walking, and continuous GPS when driving.
+     */
+    public SpeedDutyCyclePolicy() {
+        this(new DutyCycle(MotionState.STATIONARY, DutyCycle.Method.NETWORK, 300000),
+                new DutyCycle(MotionState.WALKING, DutyCycle.Method.GPS_NETWORK, 30000),
+                new DutyCycle(MotionState.DRIVING, DutyCycle.Method.GPS_NETWORK, 0));
+    }
+
+    /**
+     * Constructor.
+     * @param stationary Duty cycle when stationary.
+     * @param walking Duty cycle when walking.
+     * @param driving Duty cycle when driving.
+     */
+    public SpeedDutyCyclePolicy(DutyCycle stationary, DutyCycle walking, DutyCycle driving) {
+        if (stationary.state != MotionState.STATIONARY || walking.state != MotionState.WALKING
+                || driving.state != MotionState.DRIVING) {
+            throw new IllegalArgumentException("duty cycles do not match their states");
+        }
+        mDutyCycles = new DutyCycle[] { stationary, walking, driving };
+        reset();
+    }
+
+    @Override
+    public DutyCycle reset() {
+        mFixCount = 0;
+        // Nothing is known yet, a moving device is detected with the first fixes
+        mState = MotionState.WALKING;
+        mDowngradeSince = -1;
+        mDowngradeTarget = null;
+        return mDutyCycles[mState.ordinal()];
+    }
+
+    @Override
+    public DutyCycle onFix(long time, double latitude, double longitude, double accuracy, double speed) {
+        if (mFixCount > 0 && time < mTime[index(mFixCount - 1)]) {
+            // Clock went back, the window is useless
+            mFixCount = 0;
+        }
+        final double estimate = estimateSpeed(time, latitude, longitude, accuracy, speed);
+        final int slot = index(mFixCount);
+        mTime[slot] = time;
+        mLatitude[slot] = latitude;
+        mLongitude[slot] = longitude;
+        mAccuracy[slot] = accuracy;
+        mFixCount++;
+        updateState(time, classify(estimate));
+        return mDutyCycles[mState.ordinal()];
+    }
+
+    /**
+     * @return Current motion state.
+     */
+    public MotionState getState() {
+        return mState;
+    }
+
+    /**
+     * Estimate the speed at a new fix.
+     * @return Speed in m/s, 0 if unknown.
+     */
+    private double estimateSpeed(long time, double latitude, double longitude, double accuracy, double speed) {
+        double estimate = Double.isNaN(speed) || speed < 0 ? 0 : speed;
+        if (mFixCount == 0) {
+            return estimate;
+        }
+        // Newest fix at least MIN_BASELINE_MS old, or the oldest one kept
+        final long oldest = Math.max(mFixCount - WINDOW_CAPACITY, 0);
+        long reference = mFixCount - 1;
+        while (reference > oldest && time - mTime[index(reference)] < MIN_BASELINE_MS) {
+            reference--;
+        }
+        final int slot = index(reference);
+        final long elapsed = time - mTime[slot];
+        if (elapsed <= 0) {
+            return estimate;
+        }
+        final double distance = distance(mLatitude[slot], mLongitude[slot], latitude, longitude)
+                - accuracyOrDefault(mAccuracy[slot]) - accuracyOrDefault(accuracy);
+        if (distance > 0) {
+            estimate = Math.max(estimate, distance * 1000.0 / elapsed);
+        }
+        return estimate;
+    }
+
+    /**
+     * Classify a speed, with the lower exit speed for the current state and the ones above it.
+     */
+    private MotionState classify(double speed) {
+        if (speed >= DRIVING_ENTER_SPEED
+                || (mState == MotionState.DRIVING && speed >= DRIVING_EXIT_SPEED)) {
+            return MotionState.DRIVING;
+        }
+        if (speed >= WALKING_ENTER_SPEED
+                || (mState != MotionState.STATIONARY && speed >= WALKING_EXIT_SPEED)) {
+            return MotionState.WALKING;
+        }
+        return MotionState.STATIONARY;
+    }
+
+    /**
+     * Switch state: up at once, down once the lower state has lasted for DOWNGRADE_DWELL_MS.
+     */
+    private void updateState(long time, MotionState target) {
+        if (target.compareTo(mState) >= 0) {
+            mState = target;
+            mDowngradeSince = -1;
+            mDowngradeTarget = null;
+            return;
+        }
+        if (mDowngradeSince < 0) {
+            mDowngradeSince = time;
+            mDowngradeTarget = target;
+            return;
+        }
+        if (target.compareTo(mDowngradeTarget) > 0) {
+            mDowngradeTarget = target;
+        }
+        if (time - mDowngradeSince >= DOWNGRADE_DWELL_MS) {
+            mState = mDowngradeTarget;
+            mDowngradeSince = -1;
+            mDowngradeTarget = null;
+        }
+    }
+
+    private static int index(long fix) {
+        return (int) (fix % WINDOW_CAPACITY);
+    }
+
+    private static double accuracyOrDefault(double accuracy) {
+        return Double.isNaN(accuracy) || accuracy < 0 ? DEFAULT_ACCURACY : accuracy;
+    }
+
+    /**
+     * Equirectangular distance, precise enough for the few kilometers between fixes.
+     * @return Distance in meters.
+     */
+    static double distance(double latitude1, double longitude1, double latitude2, double longitude2) {
+        final double x = Math.toRadians(longitude2 - longitude1)
+                * Math.cos(Math.toRadians((latitude1 + latitude2) / 2));
+        final double y = Math.toRadians(latitude2 - latitude1);
+        return Math.sqrt(x * x + y * y) * EARTH_RADIUS;
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2021 HERE Europe B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.here.android.example.backgroundpositioningexample.geofence;
+
+/**
+ * Circular geofence. Distances are computed on a plane tangent at the center, which is precise
+ * for radii up to some kilometers.
+ */
+public class CircleGeofence extends Geofence {
+
+    private final double mLatitude;
+    private final double mLongitude;
+    /** Radius in meters. */
+    private final double mRadius;
+    /** Meters per degree of longitude at the center. */
+    private final double mMetersPerLongitude;
+
+    /**
+     * Constructor.
+     * @param id Identifier.
+     * @param latitude Center latitude in degrees.
+     * @param longitude Center longitude in degrees.
+     * @param radius Radius in meters.
+     * @param dwellMs Time inside before a dwell event, 0 for no dwell event.
+     */
+    public CircleGeofence(String id, double latitude, double longitude, double radius, long dwellMs) {
+        super(id, dwellMs,
+                latitude - latitudeSpan(radius),
+                latitude + latitudeSpan(radius),
+                longitude - longitudeSpan(latitude, radius),
+                longitude + longitudeSpan(latitude, radius));
+        if (!(radius > 0)) {
+            throw new IllegalArgumentException("radius must be positive");
+        }
+        mLatitude = latitude;
+        mLongitude = longitude;
+        mRadius = radius;
+        mMetersPerLongitude = METERS_PER_DEGREE * Math.cos(Math.toRadians(latitude));
+    }
+
+    @Override
+    public boolean contains(double latitude, double longitude) {
+        if (!boundsContain(latitude, longitude)) {
+            return false;
+        }
+        final double y = (latitude - mLatitude) * METERS_PER_DEGREE;
+        final double x = (longitude - mLongitude) * mMetersPerLongitude;
+        return x * x + y * y <= mRadius * mRadius;
+    }
+
+    private static double latitudeSpan(double radius) {
+        return radius / METERS_PER_DEGREE;
+    }
+
+    private static double longitudeSpan(double latitude, double radius) {
+        return radius / (METERS_PER_DEGREE * Math.cos(Math.toRadians(latitude)));
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2021 HERE Europe B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.here.android.example.backgroundpositioningexample.geofence;
+
+/**
+ * Geofence, an area with an identifier and a bounding box.
+ *
+ * Fences must not cross the 180th meridian or contain a pole. Immutable.
+ */
+public abstract class Geofence {
+
+    /** Meters per degree of latitude. */
+    static final double METERS_PER_DEGREE = 111195.0;
+
+    /** Identifier, unique in a GeofenceEngine. */
+    private final String mId;
+    /** Time inside before a dwell event, 0 for no dwell event. */
+    private final long mDwellMs;
+    /** Bounding box in degrees. */
+    final double mMinLatitude;
+    final double mMaxLatitude;
+    final double mMinLongitude;
+    final double mMaxLongitude;
+
+    Geofence(String id, long dwellMs, double minLatitude, double maxLatitude,
+            double minLongitude, double maxLongitude) {
+        if (id == null) {
+            throw new IllegalArgumentException("id cannot be null");
+        }
+        if (dwellMs < 0) {
+            throw new IllegalArgumentException("dwell time cannot be negative");
+        }
+        if (!(minLatitude >= -90 && maxLatitude <= 90 && minLongitude >= -180 && maxLongitude <= 180)) {
+            throw new IllegalArgumentException("geofence " + id + " out of range");
+        }
+        mId = id;
+        mDwellMs = dwellMs;
+        mMinLatitude = minLatitude;
+        mMaxLatitude = maxLatitude;
+        mMinLongitude = minLongitude;
+        mMaxLongitude = maxLongitude;
+    }
+
+    /**
+     * @return Identifier.
+     */
+    public String getId() {
+        return mId;
+    }
+
+    /**
+     * @return Time inside before a dwell event in milliseconds, 0 for no dwell event.
+     */
+    public long getDwellMs() {
+        return mDwellMs;
+    }
+
+    /**
+     * Test if a point is inside the fence.
+     * @param latitude Latitude in degrees.
+     * @param longitude Longitude in degrees.
+     * @return True if inside.
+     */
+    public abstract boolean contains(double latitude, double longitude);
+
+    /**
+     * @return True if a point is inside the bounding box.
+     */
+    final boolean boundsContain(double latitude, double longitude) {
+        return latitude >= mMinLatitude && latitude <= mMaxLatitude
+                && longitude >= mMinLongitude && longitude <= mMaxLongitude;
+    }
+}
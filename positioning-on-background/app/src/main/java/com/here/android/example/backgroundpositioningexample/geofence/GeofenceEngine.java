@@ -0,0 +1,289 @@
+/*
+ * Copyright (c) 2021 HERE Europe B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.here.android.example.backgroundpositioningexample.geofence;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Checks position fixes against geofences and reports enter, exit and dwell events.
+ *
+ * Fences are indexed in a uniform grid of latitude and longitude cells. Each cell lists the
+ * fences whose bounding box overlaps it, so a fix is only tested against the fences of its cell.
+ * Fences spanning more than MAX_CELLS_PER_FENCE cells are tested on every fix instead. The grid
+ * is rebuilt on the first fix after fences change, so adding many fences costs one rebuild.
+ * A fix allocates nothing.
+ *
+ * Not thread safe, and the listener must not change the fences.
+ */
+public class GeofenceEngine {
+
+    /** Transition: the fix is inside a fence the previous fix was outside of. */
+    public static final int TRANSITION_ENTER = 1;
+    /** Transition: the fix is outside a fence the previous fix was inside of. */
+    public static final int TRANSITION_EXIT = 2;
+    /** Transition: the fixes have been inside a fence for its dwell time. */
+    public static final int TRANSITION_DWELL = 4;
+
+    /** Default grid cell size in degrees, about 1 km. */
+    public static final double DEFAULT_CELL_SIZE = 0.01;
+    /** Fences spanning more cells than this are not put into the grid. */
+    static final int MAX_CELLS_PER_FENCE = 1024;
+    /** Key of an empty grid slot. No cell has it, cell coordinates are far smaller. */
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    /**
+     * Geofence event listener.
+     */
+    public interface Listener {
+        /**
+         * Called for each geofence transition.
+         * @param geofence Geofence.
+         * @param transition TRANSITION_ENTER, TRANSITION_EXIT or TRANSITION_DWELL.
+         * @param time Time of the fix that caused the transition.
+         */
+        void onGeofenceEvent(Geofence geofence, int transition, long time);
+    }
+
+    /**
+     * Geofence and its state.
+     */
+    private static class Entry {
+        final Geofence fence;
+        /** True if the last fix was inside. */
+        boolean inside;
+        /** Time of the fix that entered. */
+        long enterTime;
+        /** True if the dwell event of this stay has been sent. */
+        boolean dwellSent;
+        /** Number of the last fix that was inside. */
+        long insideFix;
+
+        Entry(Geofence fence) {
+            this.fence = fence;
+        }
+    }
+
+    /** Event listener. */
+    private final Listener mListener;
+    /** Grid cell size in degrees. */
+    private final double mCellSize;
+    /** Fences by identifier. */
+    private final Map<String, Entry> mEntries = new LinkedHashMap<>();
+    /** Fences the last fix was inside of. */
+    private final List<Entry> mInside = new ArrayList<>();
+    /** Number of fixes so far. */
+    private long mFixCount;
+
+    // Grid, an open addressing hash table from cell key to the fences overlapping the cell.
+    /** True if fences changed since the grid was built. */
+    private boolean mGridDirty = true;
+    /** Cell keys, EMPTY for a free slot. Length is a power of two. */
+    private long[] mCellKeys = new long[] { EMPTY };
+    /** Fences of each cell. */
+    private Entry[][] mCellEntries = new Entry[1][];
+    /** Fences not in the grid, tested on every fix. */
+    private Entry[] mLargeEntries = new Entry[0];
+
+    /**
+     * Constructor with the default cell size.
+     * @param listener Event listener.
+     */
+    public GeofenceEngine(Listener listener) {
+        this(listener, DEFAULT_CELL_SIZE);
+    }
+
+    /**
+     * Constructor.
+     * @param listener Event listener.
+     * @param cellSize Grid cell size in degrees. Cells about the size of a typical fence work best.
+     */
+    public GeofenceEngine(Listener listener, double cellSize) {
+        if (!(cellSize >= 0.0001 && cellSize <= 10)) {
+            throw new IllegalArgumentException("invalid cell size " + cellSize);
+        }
+        mListener = listener;
+        mCellSize = cellSize;
+    }
+
+    /**
+     * Add a geofence, replacing the one with the same identifier. A replaced fence sends no exit
+     * event, the new one starts outside.
+     * @param geofence Geofence.
+     */
+    public void add(Geofence geofence) {
+        remove(geofence.getId());
+        mEntries.put(geofence.getId(), new Entry(geofence));
+        mGridDirty = true;
+    }
+
+    /**
+     * Remove a geofence. No exit event is sent.
+     * @param id Identifier.
+     * @return True if the geofence existed.
+     */
+    public boolean remove(String id) {
+        final Entry entry = mEntries.remove(id);
+        if (entry == null) {
+            return false;
+        }
+        if (entry.inside) {
+            mInside.remove(entry);
+        }
+        mGridDirty = true;
+        return true;
+    }
+
+    /**
+     * Remove all geofences. No exit events are sent.
+     */
+    public void clear() {
+        mEntries.clear();
+        mInside.clear();
+        mGridDirty = true;
+    }
+
+    /**
+     * @return Number of geofences.
+     */
+    public int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * Check a fix against the geofences and send the events it causes.
+     * @param time Fix time in milliseconds, dwell times are measured with it.
+     * @param latitude Latitude in degrees.
+     * @param longitude Longitude in degrees.
+     */
+    public void update(long time, double latitude, double longitude) {
+        if (mGridDirty) {
+            buildGrid();
+        }
+        final long fix = ++mFixCount;
+        final int slot = findSlot(cellKey(cell(latitude), cell(longitude)));
+        if (mCellKeys[slot] != EMPTY) {
+            test(mCellEntries[slot], time, latitude, longitude, fix);
+        }
+        test(mLargeEntries, time, latitude, longitude, fix);
+        // Backwards, an exit moves the last entry, which has been visited, into its place
+        for (int i = mInside.size() - 1; i >= 0; i--) {
+            final Entry entry = mInside.get(i);
+            if (entry.insideFix != fix) {
+                entry.inside = false;
+                final Entry last = mInside.remove(mInside.size() - 1);
+                if (i < mInside.size()) {
+                    mInside.set(i, last);
+                }
+                mListener.onGeofenceEvent(entry.fence, TRANSITION_EXIT, time);
+            } else if (!entry.dwellSent && entry.fence.getDwellMs() > 0
+                    && time - entry.enterTime >= entry.fence.getDwellMs()) {
+                entry.dwellSent = true;
+                mListener.onGeofenceEvent(entry.fence, TRANSITION_DWELL, time);
+            }
+        }
+    }
+
+    /**
+     * Test the fences of a cell, and send enter events.
+     */
+    private void test(Entry[] entries, long time, double latitude, double longitude, long fix) {
+        for (Entry entry : entries) {
+            if (!entry.fence.contains(latitude, longitude)) {
+                continue;
+            }
+            entry.insideFix = fix;
+            if (!entry.inside) {
+                entry.inside = true;
+                entry.enterTime = time;
+                entry.dwellSent = false;
+                mInside.add(entry);
+                mListener.onGeofenceEvent(entry.fence, TRANSITION_ENTER, time);
+            }
+        }
+    }
+
+    /**
+     * Put every fence into the cells its bounding box overlaps.
+     */
+    private void buildGrid() {
+        final Map<Long, List<Entry>> cells = new HashMap<>();
+        final List<Entry> large = new ArrayList<>();
+        for (Entry entry : mEntries.values()) {
+            final Geofence fence = entry.fence;
+            final int minRow = cell(fence.mMinLatitude);
+            final int maxRow = cell(fence.mMaxLatitude);
+            final int minColumn = cell(fence.mMinLongitude);
+            final int maxColumn = cell(fence.mMaxLongitude);
+            if ((long) (maxRow - minRow + 1) * (maxColumn - minColumn + 1) > MAX_CELLS_PER_FENCE) {
+                large.add(entry);
+                continue;
+            }
+            for (int row = minRow; row <= maxRow; row++) {
+                for (int column = minColumn; column <= maxColumn; column++) {
+                    final Long key = cellKey(row, column);
+                    List<Entry> list = cells.get(key);
+                    if (list == null) {
+                        list = new ArrayList<>(4);
+                        cells.put(key, list);
+                    }
+                    list.add(entry);
+                }
+            }
+        }
+        // Load factor at most one half keeps probe sequences short
+        int capacity = 1;
+        while (capacity < cells.size() * 2) {
+            capacity *= 2;
+        }
+        mCellKeys = new long[capacity];
+        Arrays.fill(mCellKeys, EMPTY);
+        mCellEntries = new Entry[capacity][];
+        for (Map.Entry<Long, List<Entry>> cell : cells.entrySet()) {
+            final int slot = findSlot(cell.getKey());
+            mCellKeys[slot] = cell.getKey();
+            mCellEntries[slot] = cell.getValue().toArray(new Entry[0]);
+        }
+        mLargeEntries = large.toArray(new Entry[0]);
+        mGridDirty = false;
+    }
+
+    /**
+     * Find the slot of a cell key, or the free slot where it would go.
+     */
+    private int findSlot(long key) {
+        final int mask = mCellKeys.length - 1;
+        long hash = key * 0x9E3779B97F4A7C15L;
+        int slot = (int) (hash ^ (hash >>> 32)) & mask;
+        while (mCellKeys[slot] != EMPTY && mCellKeys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private int cell(double degrees) {
+        return (int) Math.floor(degrees / mCellSize);
+    }
+
+    private static long cellKey(int row, int column) {
+        return ((long) row << 32) | (column & 0xffffffffL);
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2021 HERE Europe B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.here.android.example.backgroundpositioningexample.geofence;
+
+import java.util.Arrays;
+
+/**
+ * Polygon geofence. Edges are straight lines in latitude and longitude, which is precise for
+ * polygons up to some kilometers. The polygon is closed implicitly and may be concave.
+ */
+public class PolygonGeofence extends Geofence {
+
+    /** Vertices in degrees. */
+    private final double[] mLatitudes;
+    private final double[] mLongitudes;
+
+    /**
+     * Constructor.
+     * @param id Identifier.
+     * @param latitudes Vertex latitudes in degrees.
+     * @param longitudes Vertex longitudes in degrees.
+     * @param dwellMs Time inside before a dwell event, 0 for no dwell event.
+     */
+    public PolygonGeofence(String id, double[] latitudes, double[] longitudes, long dwellMs) {
+        super(id, dwellMs, min(latitudes), max(latitudes), min(longitudes), max(longitudes));
+        if (latitudes.length < 3 || latitudes.length != longitudes.length) {
+            throw new IllegalArgumentException("polygon needs at least 3 vertices");
+        }
+        mLatitudes = Arrays.copyOf(latitudes, latitudes.length);
+        mLongitudes = Arrays.copyOf(longitudes, longitudes.length);
+    }
+
+    /**
+     * Crossing number test: count the edges a ray from the point to the east crosses.
+     */
+    @Override
+    public boolean contains(double latitude, double longitude) {
+        if (!boundsContain(latitude, longitude)) {
+            return false;
+        }
+        final double[] latitudes = mLatitudes;
+        final double[] longitudes = mLongitudes;
+        boolean inside = false;
+        for (int i = 0, j = latitudes.length - 1; i < latitudes.length; j = i++) {
+            if ((latitudes[i] > latitude) != (latitudes[j] > latitude)
+                    && longitude < longitudes[j] + (latitude - latitudes[j])
+                            * (longitudes[i] - longitudes[j]) / (latitudes[i] - latitudes[j])) {
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+
+    private static double min(double[] values) {
+        double min = Double.POSITIVE_INFINITY;
+        for (double value : values) {
+            min = Math.min(min, value);
+        }
+        return min;
+    }
+
+    private static double max(double[] values) {
+        double max = Double.NEGATIVE_INFINITY;
+        for (double value : values) {
+            max = Math.max(max, value);
+        }
+        return max;
+    }
+}
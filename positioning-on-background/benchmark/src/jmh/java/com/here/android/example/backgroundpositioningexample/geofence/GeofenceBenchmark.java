@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2021 HERE Europe B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.here.android.example.backgroundpositioningexample.geofence;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to check one fix against the geofences of a city, about 55 by 55 km. Fences have radii of
+ * 50 to 500 m, polygons have 8 to 32 vertices. The fixes are a vehicle driving through the city
+ * at 15 m per fix. linearScan tests every fence, for comparison with the grid.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GeofenceBenchmark {
+
+    private static final double MIN_LATITUDE = 52.25;
+    private static final double MAX_LATITUDE = 52.75;
+    private static final double MIN_LONGITUDE = 13.0;
+    private static final double MAX_LONGITUDE = 13.8;
+    private static final int TRACE_LENGTH = 100000;
+
+    @Param({ "1000", "10000" })
+    public int fences;
+
+    @Param({ "CIRCLE", "POLYGON" })
+    public String shape;
+
+    private Geofence[] geofences;
+    private GeofenceEngine engine;
+    private double[] latitudes;
+    private double[] longitudes;
+    private int next;
+    private long time;
+    /** Events sent, so that the listener is not optimized away. */
+    public long events;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final Random random = new Random(1);
+        geofences = new Geofence[fences];
+        engine = new GeofenceEngine(new GeofenceEngine.Listener() {
+            @Override
+            public void onGeofenceEvent(Geofence geofence, int transition, long time) {
+                events++;
+            }
+        });
+        for (int i = 0; i < fences; i++) {
+            final double latitude = MIN_LATITUDE + random.nextDouble() * (MAX_LATITUDE - MIN_LATITUDE);
+            final double longitude = MIN_LONGITUDE + random.nextDouble() * (MAX_LONGITUDE - MIN_LONGITUDE);
+            final double radius = 50 + random.nextDouble() * 450;
+            geofences[i] = "CIRCLE".equals(shape)
+                    ? new CircleGeofence("fence" + i, latitude, longitude, radius, 60000)
+                    : polygon("fence" + i, latitude, longitude, radius, 8 + random.nextInt(25), random);
+            engine.add(geofences[i]);
+        }
+        latitudes = new double[TRACE_LENGTH];
+        longitudes = new double[TRACE_LENGTH];
+        double latitude = (MIN_LATITUDE + MAX_LATITUDE) / 2;
+        double longitude = (MIN_LONGITUDE + MAX_LONGITUDE) / 2;
+        double heading = 0;
+        final double metersPerLongitude = Geofence.METERS_PER_DEGREE * Math.cos(Math.toRadians(latitude));
+        for (int i = 0; i < TRACE_LENGTH; i++) {
+            heading += random.nextGaussian() * 0.1;
+            latitude += 15 * Math.cos(heading) / Geofence.METERS_PER_DEGREE;
+            longitude += 15 * Math.sin(heading) / metersPerLongitude;
+            if (latitude < MIN_LATITUDE || latitude > MAX_LATITUDE
+                    || longitude < MIN_LONGITUDE || longitude > MAX_LONGITUDE) {
+                // Turn around at the city limits
+                heading += Math.PI;
+                latitude = Math.min(Math.max(latitude, MIN_LATITUDE), MAX_LATITUDE);
+                longitude = Math.min(Math.max(longitude, MIN_LONGITUDE), MAX_LONGITUDE);
+            }
+            latitudes[i] = latitude;
+            longitudes[i] = longitude;
+        }
+        // Build the grid outside of the measurement
+        engine.update(0, latitudes[0], longitudes[0]);
+    }
+
+    /**
+     * Star shaped polygon around a center.
+     */
+    private static PolygonGeofence polygon(String id, double latitude, double longitude,
+            double radius, int vertices, Random random) {
+        final double[] polygonLatitudes = new double[vertices];
+        final double[] polygonLongitudes = new double[vertices];
+        final double metersPerLongitude = Geofence.METERS_PER_DEGREE * Math.cos(Math.toRadians(latitude));
+        for (int i = 0; i < vertices; i++) {
+            final double angle = 2 * Math.PI * i / vertices;
+            final double distance = radius * (0.5 + 0.5 * random.nextDouble());
+            polygonLatitudes[i] = latitude + distance * Math.cos(angle) / Geofence.METERS_PER_DEGREE;
+            polygonLongitudes[i] = longitude + distance * Math.sin(angle) / metersPerLongitude;
+        }
+        return new PolygonGeofence(id, polygonLatitudes, polygonLongitudes, 60000);
+    }
+
+    @Benchmark
+    public void update() {
+        final int i = next;
+        next = i + 1 == TRACE_LENGTH ? 0 : i + 1;
+        time += 1000;
+        engine.update(time, latitudes[i], longitudes[i]);
+    }
+
+    @Benchmark
+    public int linearScan() {
+        final int i = next;
+        next = i + 1 == TRACE_LENGTH ? 0 : i + 1;
+        int inside = 0;
+        for (Geofence geofence : geofences) {
+            if (geofence.contains(latitudes[i], longitudes[i])) {
+                inside++;
+            }
+        }
+        return inside;
+    }
+}
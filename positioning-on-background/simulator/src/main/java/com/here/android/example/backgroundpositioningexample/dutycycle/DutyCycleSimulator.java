@@ -0,0 +1,396 @@
+/*
+ * Copyright (c) 2021 HERE Europe B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.here.android.example.backgroundpositioningexample.dutycycle;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Replays position traces through a duty cycle policy and estimates the fixes it saves compared
+ * to continuous positioning.
+ *
+ * A trace is what continuous positioning delivers, one fix per line of CSV:
+ * time in milliseconds, latitude, longitude, accuracy in meters, speed in m/s. Lines that do not
+ * start with a number are skipped, empty accuracy or speed fields are unknown. Without arguments
+ * a synthetic day of a fleet vehicle is generated.
+ *
+ * The simulation takes the trace fix at or after each time the policy asks for one. A receiver
+ * that was off only delivers its first fix after a time to first fix, which counts as receiver
+ * on time. The position error is the distance between each trace fix and the last fix the
+ * policy got, i.e. how far off an app showing the latest fix would be.
+ */
+public class DutyCycleSimulator {
+
+    /** Time to first fix of a receiver that was off, by DutyCycle.Method ordinal. */
+    private static final long[] TIME_TO_FIX_MS = { 5000, 2000, 5000 };
+
+    /** Trace, one array per value. */
+    private final long[] mTime;
+    private final double[] mLatitude;
+    private final double[] mLongitude;
+    private final double[] mAccuracy;
+    private final double[] mSpeed;
+    private final int mCount;
+
+    private DutyCycleSimulator(long[] time, double[] latitude, double[] longitude, double[] accuracy,
+            double[] speed, int count) {
+        mTime = time;
+        mLatitude = latitude;
+        mLongitude = longitude;
+        mAccuracy = accuracy;
+        mSpeed = speed;
+        mCount = count;
+    }
+
+    /**
+     * Simulation result.
+     */
+    static class Result {
+        /** Fixes of continuous positioning, i.e. the trace. */
+        long baselineFixes;
+        /** Fixes taken by the policy, by DutyCycle.Method ordinal. */
+        final long[] fixes = new long[DutyCycle.Method.values().length];
+        /** Receiver on time of continuous positioning. */
+        long baselineOnTimeMs;
+        /** Receiver on time of the policy, by DutyCycle.Method ordinal. */
+        final long[] onTimeMs = new long[DutyCycle.Method.values().length];
+        /** Time spent in each MotionState. */
+        final long[] stateTimeMs = new long[MotionState.values().length];
+        /** Number of state changes. */
+        int stateChanges;
+        /** Position error at every trace fix, sorted. */
+        double[] errors;
+
+        long totalFixes() {
+            long total = 0;
+            for (long count : fixes) {
+                total += count;
+            }
+            return total;
+        }
+
+        long totalOnTimeMs() {
+            long total = 0;
+            for (long time : onTimeMs) {
+                total += time;
+            }
+            return total;
+        }
+
+        double errorPercentile(double percentile) {
+            if (errors.length == 0) {
+                return 0;
+            }
+            return errors[Math.min((int) (errors.length * percentile), errors.length - 1)];
+        }
+
+        double meanError() {
+            double sum = 0;
+            for (double error : errors) {
+                sum += error;
+            }
+            return errors.length > 0 ? sum / errors.length : 0;
+        }
+    }
+
+    /**
+     * Replay the trace through a policy.
+     * @param policy Policy to simulate.
+     * @return Simulation result.
+     */
+    Result run(DutyCyclePolicy policy) {
+        final Result result = new Result();
+        result.baselineFixes = mCount;
+        result.baselineOnTimeMs = mCount > 1 ? mTime[mCount - 1] - mTime[0] : 0;
+        result.errors = new double[mCount];
+        if (mCount == 0) {
+            return result;
+        }
+        DutyCycle dutyCycle = policy.reset();
+        // Receiver is off at start, the first fix needs a time to first fix
+        long requestTime = mTime[0];
+        boolean receiverOn = false;
+        int next = 0;
+        int lastFix = -1;
+        long stateSince = mTime[0];
+        for (int i = 0; i < mCount; i++) {
+            final boolean due = receiverOn
+                    || mTime[i] >= requestTime + TIME_TO_FIX_MS[dutyCycle.method.ordinal()];
+            if (i >= next && due) {
+                final int method = dutyCycle.method.ordinal();
+                result.fixes[method]++;
+                result.onTimeMs[method] += mTime[i] - (receiverOn && lastFix >= 0 ? mTime[lastFix] : requestTime);
+                lastFix = i;
+                final DutyCycle previous = dutyCycle;
+                dutyCycle = policy.onFix(mTime[i], mLatitude[i], mLongitude[i], mAccuracy[i], mSpeed[i]);
+                if (dutyCycle.state != previous.state) {
+                    result.stateTimeMs[previous.state.ordinal()] += mTime[i] - stateSince;
+                    stateSince = mTime[i];
+                    result.stateChanges++;
+                }
+                if (dutyCycle.isContinuous()) {
+                    // A receiver that is on keeps delivering, one that was off starts now
+                    if (!receiverOn) {
+                        requestTime = mTime[i];
+                    }
+                    receiverOn = true;
+                    next = i + 1;
+                } else {
+                    receiverOn = false;
+                    requestTime = mTime[i] + dutyCycle.intervalMs;
+                    next = i + 1;
+                    while (next < mCount && mTime[next] < requestTime) {
+                        next++;
+                    }
+                }
+            }
+            result.errors[i] = lastFix < 0 ? 0
+                    : SpeedDutyCyclePolicy.distance(mLatitude[lastFix], mLongitude[lastFix], mLatitude[i], mLongitude[i]);
+        }
+        result.stateTimeMs[dutyCycle.state.ordinal()] += mTime[mCount - 1] - stateSince;
+        Arrays.sort(result.errors);
+        return result;
+    }
+
+    /**
+     * Read a CSV trace.
+     * @param path File path.
+     * @return Simulator of the trace.
+     * @throws IOException If reading fails.
+     */
+    static DutyCycleSimulator read(String path) throws IOException {
+        final TraceBuilder builder = new TraceBuilder();
+        final BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(path), Charset.forName("UTF-8")));
+        try {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || !(Character.isDigit(line.charAt(0)) || line.charAt(0) == '-')) {
+                    continue;
+                }
+                final String[] fields = line.split(",", -1);
+                if (fields.length < 3) {
+                    throw new IOException(path + ":" + lineNumber + ": expected time, latitude, longitude");
+                }
+                try {
+                    builder.add(Long.parseLong(fields[0].trim()),
+                            Double.parseDouble(fields[1].trim()),
+                            Double.parseDouble(fields[2].trim()),
+                            parseOptional(fields, 3),
+                            parseOptional(fields, 4));
+                } catch (NumberFormatException ex) {
+                    throw new IOException(path + ":" + lineNumber + ": " + ex.getMessage());
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return builder.build();
+    }
+
+    private static double parseOptional(String[] fields, int index) {
+        if (index >= fields.length || fields[index].trim().isEmpty()) {
+            return Double.NaN;
+        }
+        return Double.parseDouble(fields[index].trim());
+    }
+
+    /**
+     * Generate a day of a fleet vehicle at one fix per second: parked, walking to and from the
+     * vehicle, driving in the city with traffic lights, and on the highway. Fixes get GPS noise.
+     * @param seed Random seed.
+     * @return Simulator of the trace.
+     */
+    static DutyCycleSimulator synthesize(long seed) {
+        final TraceBuilder builder = new TraceBuilder();
+        final Random random = new Random(seed);
+        final Motion motion = new Motion(random, 52.5200, 13.4050);
+        motion.park(builder, 2 * 3600);
+        motion.walk(builder, 240);
+        motion.driveCity(builder, 1500);
+        motion.driveHighway(builder, 2400);
+        motion.driveCity(builder, 600);
+        motion.walk(builder, 180);
+        motion.park(builder, 3 * 3600);
+        motion.walk(builder, 300);
+        motion.park(builder, 1800);
+        motion.walk(builder, 300);
+        motion.driveCity(builder, 1800);
+        motion.walk(builder, 120);
+        motion.park(builder, 4 * 3600);
+        return builder.build();
+    }
+
+    /**
+     * Growing trace arrays.
+     */
+    private static class TraceBuilder {
+        private long[] mTime = new long[1024];
+        private double[] mLatitude = new double[1024];
+        private double[] mLongitude = new double[1024];
+        private double[] mAccuracy = new double[1024];
+        private double[] mSpeed = new double[1024];
+        private int mCount;
+
+        void add(long time, double latitude, double longitude, double accuracy, double speed) {
+            if (mCount == mTime.length) {
+                final int capacity = mCount * 2;
+                mTime = Arrays.copyOf(mTime, capacity);
+                mLatitude = Arrays.copyOf(mLatitude, capacity);
+                mLongitude = Arrays.copyOf(mLongitude, capacity);
+                mAccuracy = Arrays.copyOf(mAccuracy, capacity);
+                mSpeed = Arrays.copyOf(mSpeed, capacity);
+            }
+            mTime[mCount] = time;
+            mLatitude[mCount] = latitude;
+            mLongitude[mCount] = longitude;
+            mAccuracy[mCount] = accuracy;
+            mSpeed[mCount] = speed;
+            mCount++;
+        }
+
+        DutyCycleSimulator build() {
+            return new DutyCycleSimulator(mTime, mLatitude, mLongitude, mAccuracy, mSpeed, mCount);
+        }
+    }
+
+    /**
+     * Moves a point over a flat earth and writes noisy fixes of it, one per second.
+     */
+    private static class Motion {
+        /** Standard deviation of the position noise, meters. */
+        private static final double POSITION_NOISE = 4.0;
+        /** Accuracy reported with every fix, meters. */
+        private static final double ACCURACY = 8.0;
+        /** Standard deviation of the speed noise, m/s. */
+        private static final double SPEED_NOISE = 0.3;
+        /** Meters per degree of latitude. */
+        private static final double METERS_PER_DEGREE = 111195.0;
+
+        private final Random mRandom;
+        private double mLatitude;
+        private double mLongitude;
+        private double mHeading;
+        private double mSpeed;
+        private long mTime;
+
+        Motion(Random random, double latitude, double longitude) {
+            mRandom = random;
+            mLatitude = latitude;
+            mLongitude = longitude;
+        }
+
+        void park(TraceBuilder builder, int seconds) {
+            for (int i = 0; i < seconds; i++) {
+                step(builder, 0);
+            }
+        }
+
+        void walk(TraceBuilder builder, int seconds) {
+            for (int i = 0; i < seconds; i++) {
+                step(builder, 1.3 + mRandom.nextGaussian() * 0.1);
+            }
+        }
+
+        void driveHighway(TraceBuilder builder, int seconds) {
+            for (int i = 0; i < seconds; i++) {
+                step(builder, approach(30.0, 1.5));
+            }
+        }
+
+        /** City driving: 90 s at up to 14 m/s, then 40 s at a traffic light. */
+        void driveCity(TraceBuilder builder, int seconds) {
+            for (int i = 0; i < seconds; i++) {
+                final boolean stopped = i % 130 >= 90;
+                step(builder, approach(stopped ? 0 : 14.0, stopped ? 3.0 : 2.0));
+            }
+        }
+
+        /** Accelerate or brake towards a target speed. */
+        private double approach(double target, double rate) {
+            if (mSpeed < target) {
+                return Math.min(mSpeed + rate, target);
+            }
+            return Math.max(mSpeed - rate, target);
+        }
+
+        private void step(TraceBuilder builder, double speed) {
+            mSpeed = Math.max(speed, 0);
+            mHeading += mRandom.nextGaussian() * 0.05;
+            mLatitude += mSpeed * Math.cos(mHeading) / METERS_PER_DEGREE;
+            mLongitude += mSpeed * Math.sin(mHeading)
+                    / (METERS_PER_DEGREE * Math.cos(Math.toRadians(mLatitude)));
+            final double noiseLatitude = mRandom.nextGaussian() * POSITION_NOISE / METERS_PER_DEGREE;
+            final double noiseLongitude = mRandom.nextGaussian() * POSITION_NOISE
+                    / (METERS_PER_DEGREE * Math.cos(Math.toRadians(mLatitude)));
+            builder.add(mTime, mLatitude + noiseLatitude, mLongitude + noiseLongitude, ACCURACY,
+                    Math.abs(mSpeed + mRandom.nextGaussian() * SPEED_NOISE));
+            mTime += 1000;
+        }
+    }
+
+    private static void print(String name, Result result) {
+        final long fixes = result.totalFixes();
+        final long duration = Math.max(result.baselineOnTimeMs, 1);
+        System.out.println(name);
+        System.out.println(String.format(Locale.US,
+                "  fixes: %d continuous, %d adaptive (%d GPS_NETWORK, %d NETWORK, %d GPS), %.1f%% saved",
+                result.baselineFixes, fixes,
+                result.fixes[DutyCycle.Method.GPS_NETWORK.ordinal()],
+                result.fixes[DutyCycle.Method.NETWORK.ordinal()],
+                result.fixes[DutyCycle.Method.GPS.ordinal()],
+                100.0 * (result.baselineFixes - fixes) / Math.max(result.baselineFixes, 1)));
+        System.out.println(String.format(Locale.US,
+                "  receiver on: %.1f h continuous, %.1f h adaptive (%.1f%% of the time)",
+                result.baselineOnTimeMs / 3600000.0, result.totalOnTimeMs() / 3600000.0,
+                100.0 * result.totalOnTimeMs() / duration));
+        final StringBuilder states = new StringBuilder("  states:");
+        for (MotionState state : MotionState.values()) {
+            states.append(String.format(Locale.US, " %s %.1f h,", state,
+                    result.stateTimeMs[state.ordinal()] / 3600000.0));
+        }
+        states.append(' ').append(result.stateChanges).append(" changes");
+        System.out.println(states);
+        System.out.println(String.format(Locale.US,
+                "  error to latest fix: mean %.0f m, 95%% %.0f m, max %.0f m",
+                result.meanError(), result.errorPercentile(0.95), result.errorPercentile(1.0)));
+    }
+
+    /**
+     * Simulate the default policy.
+     * @param args CSV trace files, a synthetic day if none.
+     * @throws IOException If reading a trace fails.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            print("synthetic fleet day", synthesize(1).run(new SpeedDutyCyclePolicy()));
+            return;
+        }
+        for (String path : args) {
+            print(path, read(path).run(new SpeedDutyCyclePolicy()));
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2021 HERE Europe B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.here.android.example.backgroundpositioningexample;
+
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stress test of PositionRingBuffer with one writer thread and several reader threads on the same
+ * direct buffer, each with its own read only view like a client process.
+ *
+ * Every value of fix n is derived from n, so a reader detects a fix that mixes two writes. Half
+ * of the readers poll the latest fix and check that its index never goes back. The other half
+ * follow the writer fix by fix and check that no fix in the buffer is skipped. The buffer is
+ * small, so the writer overwrites slots while they are being read all the time.
+ *
+ * Exits with status 1 if any inconsistent fix was accepted.
+ */
+public class PositionRingBufferStressTest {
+
+    private static final int CAPACITY = 64;
+    private static final int DEFAULT_READERS = 6;
+    private static final long DEFAULT_WRITES = 20000000L;
+
+    /** Set once the writer is done. */
+    private static volatile boolean sDone;
+    private static final AtomicLong sReads = new AtomicLong();
+    private static final AtomicLong sErrors = new AtomicLong();
+    /** Fixes that followers lost because the writer was more than CAPACITY ahead. */
+    private static final AtomicLong sOverrun = new AtomicLong();
+
+    public static void main(String[] args) throws InterruptedException {
+        final int readerCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_READERS;
+        final long writes = args.length > 1 ? Long.parseLong(args[1]) : DEFAULT_WRITES;
+
+        final ByteBuffer shared = ByteBuffer.allocateDirect(PositionRingBuffer.getBufferSize(CAPACITY));
+        final PositionRingBuffer writer = PositionRingBuffer.create(shared, CAPACITY);
+        final Thread[] readers = new Thread[readerCount];
+        for (int i = 0; i < readerCount; i++) {
+            final PositionRingBuffer ring = PositionRingBuffer.open(shared.asReadOnlyBuffer());
+            final boolean follow = i % 2 == 1;
+            readers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    if (follow) {
+                        follow(ring);
+                    } else {
+                        pollLatest(ring);
+                    }
+                }
+            }, (follow ? "follower-" : "poller-") + i);
+            readers[i].start();
+        }
+
+        final long start = System.nanoTime();
+        for (long n = 0; n < writes; n++) {
+            writer.write(n * 3, n * 0.5, -n, n + 1, n + 2, n + 3, n + 4, (int) (n % 7));
+        }
+        final long elapsed = System.nanoTime() - start;
+        sDone = true;
+        for (Thread reader : readers) {
+            reader.join();
+        }
+
+        System.out.println(String.format(Locale.US,
+                "%d writes in %d ms (%.0f ns per write), %d readers, %d reads, "
+                        + "%d inconsistent, %d overrun by the writer",
+                writes, elapsed / 1000000, (double) elapsed / writes, readerCount, sReads.get(),
+                sErrors.get(), sOverrun.get()));
+        if (sErrors.get() != 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Read the latest fix until the writer is done, its index must never decrease.
+     */
+    private static void pollLatest(PositionRingBuffer ring) {
+        final PositionRingBuffer.Fix fix = new PositionRingBuffer.Fix();
+        long last = -1;
+        long reads = 0;
+        while (!sDone) {
+            if (!ring.readLatest(fix)) {
+                continue;
+            }
+            if (fix.index < last || !isConsistent(fix)) {
+                sErrors.incrementAndGet();
+            }
+            last = fix.index;
+            reads++;
+        }
+        sReads.addAndGet(reads);
+    }
+
+    /**
+     * Read every fix in order until the last one. A fix may only be missing once the writer has
+     * moved more than the capacity past it.
+     */
+    private static void follow(PositionRingBuffer ring) {
+        final PositionRingBuffer.Fix fix = new PositionRingBuffer.Fix();
+        long next = 0;
+        long reads = 0;
+        while (true) {
+            final boolean done = sDone;
+            final long count = ring.getWriteCount();
+            if (next >= count) {
+                if (done) {
+                    break;
+                }
+                continue;
+            }
+            if (count - next > CAPACITY) {
+                sOverrun.addAndGet(count - CAPACITY - next);
+                next = count - CAPACITY;
+            }
+            if (!ring.read(next, fix)) {
+                if (ring.getWriteCount() - next <= CAPACITY - 1) {
+                    // Written and not overwritten, but not readable
+                    sErrors.incrementAndGet();
+                    next++;
+                }
+                continue;
+            }
+            if (fix.index != next || !isConsistent(fix)) {
+                sErrors.incrementAndGet();
+            }
+            next++;
+            reads++;
+        }
+        sReads.addAndGet(reads);
+    }
+
+    private static boolean isConsistent(PositionRingBuffer.Fix fix) {
+        final long n = fix.index;
+        return fix.time == n * 3 && fix.latitude == n * 0.5 && fix.longitude == -n
+                && fix.altitude == n + 1 && fix.accuracy == n + 2 && fix.heading == n + 3
+                && fix.speed == n + 4 && fix.locationMethod == (int) (n % 7);
+    }
+}
@@ -25,9 +25,12 @@ import android.content.pm.PackageManager;
 import android.graphics.PointF;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.util.SparseArray;
 import androidx.annotation.NonNull;
 import androidx.core.app.ActivityCompat;
 import androidx.appcompat.app.AppCompatActivity;
+import android.view.Choreographer;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuInflater;
@@ -76,6 +79,7 @@ import com.here.android.positioning.helpers.RadioMapLoadHelper;
 import com.here.android.positioning.radiomap.RadioMapLoader;
 
 import java.io.File;
+import java.io.IOException;
 import java.lang.ref.WeakReference;
 import java.util.List;
 import java.util.Locale;
@@ -162,12 +166,81 @@ public class BasicVenueActivity extends AppCompatActivity
     // Flag for user control over the map
     private boolean mUserControl;
 
-    // callback that is called when transforming ends
-    private Runnable mPendingUpdate;
+    // Latest position update that is not shown yet, reused for every update
+    private final PendingUpdate mPendingUpdate = new PendingUpdate();
+
+    // Flag that indicates whether showing the pending update is scheduled for the next frame
+    private boolean mUpdateScheduled;
+
+    // Shows the pending update on the next frame
+    private final Choreographer.FrameCallback mShowPendingUpdate = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            mUpdateScheduled = false;
+            showPendingUpdate();
+        }
+    };
+
+    // Building the map follows, null if the map does not follow an indoor position
+    private String mFollowedBuildingId;
+
+    // Floor the map follows, null if not selected yet
+    private Integer mFollowedFloorId;
+
+    // Levels of mLevelsVenueId by floor number
+    private final SparseArray<Level> mLevelsByFloor = new SparseArray<>();
+
+    // Venue mLevelsByFloor belongs to
+    private String mLevelsVenueId;
+
+    // Records the received positions for later analysis or replay, null if recording failed
+    private PositionTraceRecorder mTraceRecorder;
+
+    // Size limit of a position trace segment, about 15000 records
+    private static final long TRACE_SEGMENT_BYTES = 1024 * 1024;
+
+    // Number of position trace segments kept
+    private static final int TRACE_SEGMENTS = 8;
+
+    // Replays the position trace instead of live positions, null when positioning is live
+    private PositionTraceReplayer mTraceReplayer;
+
+    // Intent extra with the speed factor of a position trace replay, see PositionTraceReplayer
+    public static final String EXTRA_REPLAY_SPEED = "com.here.android.example.venuesandlogging.REPLAY_SPEED";
 
     // Constant for not found
     public static final int NOT_FOUND = -1;
 
+    /**
+     * Position update waiting to be shown.
+     */
+    private static class PendingUpdate {
+        PositioningManager.LocationMethod locationMethod;
+        GeoPosition geoPosition;
+        boolean mapMatched;
+        // Updates replaced by a newer one before they were shown
+        int coalescedCount;
+
+        boolean isPending() {
+            return geoPosition != null;
+        }
+
+        void set(PositioningManager.LocationMethod locationMethod, GeoPosition geoPosition, boolean mapMatched) {
+            if (this.geoPosition != null) {
+                coalescedCount++;
+            }
+            this.locationMethod = locationMethod;
+            this.geoPosition = geoPosition;
+            this.mapMatched = mapMatched;
+        }
+
+        void clear() {
+            locationMethod = null;
+            geoPosition = null;
+            coalescedCount = 0;
+        }
+    }
+
     /** Positioning status listener. */
     private StatusListener mPositioningStatusListener = new StatusListener() {
 
@@ -491,6 +564,15 @@ public class BasicVenueActivity extends AppCompatActivity
 
         // Enable logging...
         Log.mEnabled = true;
+        File traceDirectory = new File(getFilesDir(), "position-trace");
+        if (getIntent().hasExtra(EXTRA_REPLAY_SPEED)) {
+            // Replayed positions are not recorded again
+            mTraceReplayer = new PositionTraceReplayer(traceDirectory, this, new Handler(),
+                    getIntent().getFloatExtra(EXTRA_REPLAY_SPEED, PositionTraceReplayer.SPEED_REAL_TIME));
+        } else {
+            mTraceRecorder = new PositionTraceRecorder(traceDirectory, TRACE_SEGMENT_BYTES,
+                    TRACE_SEGMENTS);
+        }
 
         setContentView(R.layout.activity_main);
         // checking dynamically controlled permissions
@@ -506,6 +588,45 @@ public class BasicVenueActivity extends AppCompatActivity
     protected void onPause() {
         Log.v(TAG, "onPause");
         super.onPause();
+        if (mTraceRecorder != null) {
+            try {
+                mTraceRecorder.flush();
+            } catch (IOException e) {
+                traceFailed(e);
+            }
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        Choreographer.getInstance().removeFrameCallback(mShowPendingUpdate);
+        if (mTraceReplayer != null) {
+            mTraceReplayer.stop();
+        }
+        if (mTraceRecorder != null) {
+            try {
+                mTraceRecorder.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Closing the position trace failed: %s", e.getMessage());
+            }
+            mTraceRecorder = null;
+        }
+        super.onDestroy();
+    }
+
+    /**
+     * Stops recording the position trace after a write error.
+     * @param e The error.
+     */
+    private void traceFailed(IOException e) {
+        Log.w(TAG, "Position trace disabled after %d records: %s",
+                mTraceRecorder.getRecordCount(), e.getMessage());
+        try {
+            mTraceRecorder.close();
+        } catch (IOException ignored) {
+            // Already failed
+        }
+        mTraceRecorder = null;
     }
 
     @Override
@@ -609,6 +730,8 @@ public class BasicVenueActivity extends AppCompatActivity
         Log.v(TAG, "followPosition");
         if (mUserControl) {
             mUserControl = false;
+            // The user may have selected another level meanwhile
+            mFollowedFloorId = null;
             mMap.setCenter(mLastMapCenter, Map.Animation.NONE);
             Log.v(TAG, "Following position enabled");
         } else {
@@ -670,56 +793,118 @@ public class BasicVenueActivity extends AppCompatActivity
 
     @Override
     public void onPositionUpdated(final PositioningManager.LocationMethod locationMethod, final GeoPosition geoPosition, final boolean mapMatched) {
+        if (mTraceRecorder != null) {
+            try {
+                mTraceRecorder.record(locationMethod, geoPosition, mapMatched);
+            } catch (IOException e) {
+                traceFailed(e);
+            }
+        }
+        handlePositionUpdate(locationMethod, geoPosition, mapMatched);
+    }
+
+    /**
+     * Stores a position update to be shown on the next frame, or when the map transformation
+     * ends. Updates arriving in between replace it, so at most one is shown per frame.
+     */
+    private void handlePositionUpdate(PositioningManager.LocationMethod locationMethod, GeoPosition geoPosition, boolean mapMatched) {
         mLastReceivedPosition = geoPosition;
-        GeoCoordinate receivedCoordinate = mLastReceivedPosition.getCoordinate();
-        if (mTransforming) {
-            mPendingUpdate = new Runnable() {
-                @Override
-                public void run() {
-                    onPositionUpdated(locationMethod, geoPosition, mapMatched);
-                }
-            };
-        } else {
-            if (mVenueMapFragment != null) {
-                mLastMapCenter = receivedCoordinate;
-                if (!mUserControl) {
-                    // when "follow position" options selected than map centered according to position updates
-                    mMap.setCenter(receivedCoordinate, Map.Animation.NONE);
-                    // Correctly displaying indoor position inside the venue
-                    if (geoPosition.getPositionSource() == GeoPosition.SOURCE_INDOOR) {
-                        if (!geoPosition.getBuildingId().isEmpty() && mPrivateVenues) {
-                            mVenueMapFragment.selectVenueAsync(geoPosition.getBuildingId());
-                            mVenueMapFragment.getVenueController(mVenueMapFragment.getSelectedVenue());
-                            selectLevelByFloorId(geoPosition.getFloorId());
-                        }
-                    }
+        if (mRadioMapLoader != null) {
+            // Radio maps of the nearest venues are loaded first
+            mRadioMapLoader.setPosition(geoPosition.getCoordinate());
+        }
+        mPendingUpdate.set(locationMethod, geoPosition, mapMatched);
+        scheduleUpdate();
+    }
+
+    /**
+     * Schedules showing the pending update on the next frame, unless the map is transforming.
+     */
+    private void scheduleUpdate() {
+        if (!mTransforming && !mUpdateScheduled && mPendingUpdate.isPending()) {
+            mUpdateScheduled = true;
+            Choreographer.getInstance().postFrameCallback(mShowPendingUpdate);
+        }
+    }
+
+    /**
+     * Shows the pending position update.
+     */
+    private void showPendingUpdate() {
+        if (mTransforming || !mPendingUpdate.isPending()) {
+            return;
+        }
+        PositioningManager.LocationMethod locationMethod = mPendingUpdate.locationMethod;
+        GeoPosition geoPosition = mPendingUpdate.geoPosition;
+        if (mPendingUpdate.coalescedCount > 0) {
+            Log.v(TAG, "showPendingUpdate: %d updates coalesced", mPendingUpdate.coalescedCount);
+        }
+        mPendingUpdate.clear();
+
+        GeoCoordinate receivedCoordinate = geoPosition.getCoordinate();
+        if (mVenueMapFragment != null) {
+            mLastMapCenter = receivedCoordinate;
+            if (!mUserControl) {
+                // when "follow position" options selected than map centered according to position updates
+                mMap.setCenter(receivedCoordinate, Map.Animation.NONE);
+                // Correctly displaying indoor position inside the venue
+                if (geoPosition.getPositionSource() == GeoPosition.SOURCE_INDOOR
+                        && !geoPosition.getBuildingId().isEmpty() && mPrivateVenues) {
+                    followIndoorPosition(geoPosition.getBuildingId(), geoPosition.getFloorId());
+                } else {
+                    mFollowedBuildingId = null;
                 }
             }
-            // Write updated position to the log and to info view
-            updateLocationInfo(locationMethod, geoPosition);
+        }
+        // Write updated position to the log and to info view
+        updateLocationInfo(locationMethod, geoPosition);
+    }
+
+    /**
+     * Selects the venue and level of an indoor position, if they changed since the last one
+     * @param buildingId building of the position
+     * @param floorId floor of the position, may be null
+     */
+    private void followIndoorPosition(String buildingId, Integer floorId) {
+        if (!buildingId.equals(mFollowedBuildingId)) {
+            mFollowedBuildingId = buildingId;
+            mFollowedFloorId = null;
+            // The level is selected once the venue is, see onVenueSelected
+            mVenueMapFragment.selectVenueAsync(buildingId);
+        }
+        if (floorId != null && !floorId.equals(mFollowedFloorId) && selectLevelByFloorId(floorId)) {
+            mFollowedFloorId = floorId;
         }
     }
 
     /**
      * Selecting venue level by given floorID
      * @param floorId current indoor position
+     * @return true if the level was selected, false if the followed venue is not selected yet or
+     * has no such level
      */
-    protected void selectLevelByFloorId(int floorId) {
+    protected boolean selectLevelByFloorId(int floorId) {
         if (mVenueMapFragment != null) {
             Venue venue = mVenueMapFragment.getSelectedVenue();
-            if (venue != null) {
-                mVenueMapFragment.setFloorChangingAnimation(true);
-                List<Level> levels = venue.getLevels();
-                for (Level item : levels) {
-                    if (item != null) {
-                        if (item.getFloorNumber() == floorId) {
-                            mVenueMapFragment.getVenueController(venue).selectLevel(item);
-                            break;
+            if (venue != null && venue.getId().equals(mFollowedBuildingId)) {
+                if (!venue.getId().equals(mLevelsVenueId)) {
+                    mLevelsByFloor.clear();
+                    for (Level item : venue.getLevels()) {
+                        if (item != null) {
+                            mLevelsByFloor.put(item.getFloorNumber(), item);
                         }
                     }
+                    mLevelsVenueId = venue.getId();
+                }
+                Level level = mLevelsByFloor.get(floorId);
+                if (level != null) {
+                    mVenueMapFragment.setFloorChangingAnimation(true);
+                    mVenueMapFragment.getVenueController(venue).selectLevel(level);
+                    return true;
                 }
             }
         }
+        return false;
     }
 
     @Override
@@ -740,10 +925,7 @@ public class BasicVenueActivity extends AppCompatActivity
     public void onMapTransformEnd(MapState mapState) {
         Log.v(TAG, "onMapTransformEnd");
         mTransforming = false;
-        if (mPendingUpdate != null) {
-            mPendingUpdate.run();
-            mPendingUpdate = null;
-        }
+        scheduleUpdate();
     }
 
     /**
@@ -919,10 +1101,17 @@ public class BasicVenueActivity extends AppCompatActivity
         Toast.makeText(getApplicationContext(), venueId + ": " + venueName, Toast.LENGTH_SHORT)
                 .show();
         Log.v(TAG, "Venue selected: %s: %s", venueId, venueName);
+        if (venueId.equals(mFollowedBuildingId) && mFollowedFloorId == null
+                && mLastReceivedPosition != null && mLastReceivedPosition.getFloorId() != null
+                && selectLevelByFloorId(mLastReceivedPosition.getFloorId())) {
+            mFollowedFloorId = mLastReceivedPosition.getFloorId();
+        }
     }
 
     @Override
     public void onVenueDeselected(Venue var1, DeselectionSource var2) {
+        // Selected again when following the position is enabled
+        mFollowedBuildingId = null;
         mUserControl = true;
         invalidateOptionsMenu();
     }
@@ -1199,7 +1388,13 @@ public class BasicVenueActivity extends AppCompatActivity
 
         mPositioningManager.setDataSource(mHereLocation);
         try {
-            mPositioningManager.addListener(new WeakReference<PositioningManager.OnPositionChangedListener>(mActivity));
+            if (mTraceReplayer != null) {
+                // The replay stands in for the positioning manager, it starts from the beginning
+                Log.v(TAG, "Replaying the position trace instead of live positions");
+                mTraceReplayer.start();
+            } else {
+                mPositioningManager.addListener(new WeakReference<PositioningManager.OnPositionChangedListener>(mActivity));
+            }
             if (mIndoorPositioning) {
                 mLocationMethod = PositioningManager.LocationMethod.GPS_NETWORK_INDOOR;
                 Log.v(TAG, "Location method set to GPS_NETWORK_INDOOR");
@@ -1207,7 +1402,7 @@ public class BasicVenueActivity extends AppCompatActivity
                 mLocationMethod = PositioningManager.LocationMethod.GPS_NETWORK;
                 Log.v(TAG, "Location method set to GPS_NETWORK");
             }
-            if (!mPositioningManager.start(mLocationMethod)) {
+            if (mTraceReplayer == null && !mPositioningManager.start(mLocationMethod)) {
                 Log.e(TAG, "startPositionUpdates: PositioningManager.start returned error");
             }
         } catch (Exception ex) {
@@ -1232,7 +1427,15 @@ public class BasicVenueActivity extends AppCompatActivity
                             Log.i(TAG, "Radio map for venue: " + venue.getId() + ", completed with status: " + status);
                             // Radio map loading completed with status.
                         }
+
+                        @Override
+                        public void onTotalProgress(int finished, int total, int progress) {
+                            Log.v(TAG, "Radio maps: %d of %d venues finished, progress: %d", finished, total, progress);
+                        }
                     });
+            if (mLastReceivedPosition != null) {
+                mRadioMapLoader.setPosition(mLastReceivedPosition.getCoordinate());
+            }
             mVenueService.addVenueLoadListener(mVenueLoadListener);
         } catch (Exception ex) {
             Log.e(TAG, "startPositionUpdates: setting up radio map loader failed", ex);
@@ -1246,12 +1449,16 @@ public class BasicVenueActivity extends AppCompatActivity
      */
     protected void stopPositioningUpdates() {
         Log.v(TAG, "stopPositioningUpdates");
+        if (mTraceReplayer != null) {
+            mTraceReplayer.stop();
+        }
         if (mPositioningManager != null) {
             mPositioningManager.stop();
             mPositioningManager.removeListener(mActivity);
         }
         if (mRadioMapLoader != null) {
             mVenueService.removeVenueLoadListener(mVenueLoadListener);
+            mRadioMapLoader.release();
             mRadioMapLoader = null;
         }
     }
@@ -1262,6 +1469,8 @@ public class BasicVenueActivity extends AppCompatActivity
     protected void stopVenueMaps() {
         Log.v(TAG, "stopVenueMaps");
         stopPositioningUpdates();
+        mFollowedBuildingId = null;
+        mLevelsVenueId = null;
         mVenueMapFragment = null;
         mMap = null;
         mFloorsControllerWidget = null;
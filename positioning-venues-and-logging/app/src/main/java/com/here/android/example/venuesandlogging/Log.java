@@ -17,12 +17,80 @@
 package com.here.android.example.venuesandlogging;
 
 import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
 
+/**
+ * Logging facade that keeps formatting and writing to logcat off the calling thread.
+ *
+ * Callers only store the priority, tag, format and arguments in a slot of a fixed size ring
+ * buffer, without locking or allocating. A background thread formats the records and writes them
+ * to logcat in batches. Since formatting happens later, arguments must not be modified after they
+ * are logged.
+ *
+ * When the ring buffer is full, VERBOSE, DEBUG and INFO records are dropped and counted, the
+ * number of dropped records is logged once there is room again. WARN and ERROR records are
+ * written synchronously instead, so they are never lost.
+ */
 public class Log {
 
     // Flag for enabling logs
     public static boolean mEnabled;
 
+    // Number of records the ring buffer holds, a power of two
+    private static final int CAPACITY = 1024;
+    // Records written per batch, before checking for dropped records again
+    private static final int BATCH_SIZE = 64;
+    // How long the writer thread sleeps when there is nothing to write, it is woken up by the
+    // next record anyway
+    private static final long IDLE_NANOS = 1000L * 1000 * 1000;
+
+    private static class Record {
+        int priority;
+        String tag;
+        String format;
+        Object[] arguments;
+    }
+
+    private static final Record[] mRecords = new Record[CAPACITY];
+    // The sequence number of each slot: equal to the position of the next record to store in it
+    // when the slot is free, and one more than the record's position when it is filled. This lets
+    // producers claim slots with a single CAS and publishes the record to the writer thread.
+    private static final AtomicLongArray mSequences = new AtomicLongArray(CAPACITY);
+    // Position of the next record to store
+    private static final AtomicLong mTail = new AtomicLong();
+    // Position of the next record to write, only used by the writer thread
+    private static long mHead = 0;
+
+    private static final AtomicLong mDropped = new AtomicLong();
+    private static final AtomicLong mWritten = new AtomicLong();
+    private static final AtomicLong mBatches = new AtomicLong();
+    private static volatile boolean mWriterIdle = false;
+
+    static {
+        for (int i = 0; i < CAPACITY; i++) {
+            mRecords[i] = new Record();
+            mSequences.set(i, i);
+        }
+    }
+
+    // Starts the writer thread when the first record is logged
+    private static class Writer {
+        static final Thread mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeRecords();
+            }
+        }, "Log");
+
+        static {
+            mThread.setDaemon(true);
+            mThread.setPriority(Thread.MIN_PRIORITY);
+            mThread.start();
+        }
+    }
+
     /**
      * Logs a VERBOSE message.
      * @param tag Trace tag.
@@ -96,13 +164,130 @@ public class Log {
             final String format,
             final Object... arguments) {
         if (mEnabled) {
-            android.util.Log.println(
-                    priority,
-                    tag,
-                    arguments.length > 0 ?
-                            String.format(Locale.US, format, arguments) :
-                            format);
+            if (!offer(priority, tag, format, arguments)) {
+                if (priority >= android.util.Log.WARN) {
+                    write(priority, tag, format, arguments);
+                } else {
+                    mDropped.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return Number of records dropped because the ring buffer was full.
+     */
+    public static long getDroppedCount() {
+        return mDropped.get();
+    }
+
+    /**
+     * @return Number of records written to logcat.
+     */
+    public static long getWrittenCount() {
+        return mWritten.get();
+    }
+
+    /**
+     * @return Number of batches the records were written in.
+     */
+    public static long getBatchCount() {
+        return mBatches.get();
+    }
+
+    // Stores a record in the ring buffer, returns false if it is full.
+    private static boolean offer(int priority, String tag, String format, Object[] arguments) {
+        Thread writer = Writer.mThread;
+        long position;
+        Record record;
+        while (true) {
+            position = mTail.get();
+            int index = (int) position & (CAPACITY - 1);
+            long available = mSequences.get(index) - position;
+            if (available == 0) {
+                if (mTail.compareAndSet(position, position + 1)) {
+                    record = mRecords[index];
+                    break;
+                }
+            } else if (available < 0) {
+                // The writer thread has not written the record CAPACITY positions back yet
+                return false;
+            }
+            // else another thread claimed this position, try the next one
+        }
+        record.priority = priority;
+        record.tag = tag;
+        record.format = format;
+        record.arguments = arguments;
+        // A full volatile write, not lazySet: the read of mWriterIdle must not be reordered
+        // before it, or the writer thread could miss the record and sleep with it in the buffer.
+        mSequences.set((int) position & (CAPACITY - 1), position + 1);
+        if (mWriterIdle) {
+            LockSupport.unpark(writer);
+        }
+        return true;
+    }
+
+    private static void writeRecords() {
+        long reportedDrops = 0;
+        while (true) {
+            int written = 0;
+            while (written < BATCH_SIZE) {
+                int index = (int) mHead & (CAPACITY - 1);
+                if (mSequences.get(index) != mHead + 1) {
+                    break;
+                }
+                Record record = mRecords[index];
+                int priority = record.priority;
+                String tag = record.tag;
+                String format = record.format;
+                Object[] arguments = record.arguments;
+                record.tag = null;
+                record.format = null;
+                record.arguments = null;
+                // Hand the slot back to the producers before the slow part
+                mSequences.lazySet(index, mHead + CAPACITY);
+                mHead++;
+                write(priority, tag, format, arguments);
+                written++;
+            }
+            if (written > 0) {
+                mBatches.incrementAndGet();
+            }
+
+            long dropped = mDropped.get();
+            if (dropped != reportedDrops) {
+                android.util.Log.w("Log", "Dropped " + (dropped - reportedDrops)
+                        + " log records, the buffer was full");
+                reportedDrops = dropped;
+            }
+
+            if (written < BATCH_SIZE) {
+                // Check again after announcing that we sleep, so that a record stored in the
+                // meantime either is seen here or wakes us up. Both sides write their volatile
+                // before reading the other's, so at least one of them sees the other's write.
+                mWriterIdle = true;
+                if (mSequences.get((int) mHead & (CAPACITY - 1)) != mHead + 1) {
+                    LockSupport.parkNanos(IDLE_NANOS);
+                }
+                mWriterIdle = false;
+            }
+        }
+    }
+
+    private static void write(int priority, String tag, String format, Object[] arguments) {
+        String message;
+        try {
+            message = arguments.length > 0 ?
+                    String.format(Locale.US, format, arguments) :
+                    String.valueOf(format);
+        } catch (RuntimeException e) {
+            // A bad format or an argument whose toString() throws must not stop the writer
+            // thread, so the record is written unformatted instead
+            message = String.valueOf(format);
         }
+        android.util.Log.println(priority, tag, message);
+        mWritten.incrementAndGet();
     }
 
     /**
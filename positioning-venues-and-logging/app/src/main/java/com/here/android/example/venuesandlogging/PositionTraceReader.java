@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2011-2021 HERE Europe B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.here.android.example.venuesandlogging;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Streams the records of a trace written by {@link PositionTraceRecorder}, oldest segment first.
+ *
+ * Segments are read through a small buffer, so traces of any size can be read. A segment with
+ * an unknown header is skipped, and a segment ends at its first truncated or malformed record,
+ * which is what a recorder that was killed while writing leaves behind.
+ */
+public class PositionTraceReader {
+
+    // TAG string for logging purposes
+    private static final String TAG = "VenuesAndLogging.PositionTraceReader";
+
+    // Size of the read buffer, also the largest record that can be read
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    // Directory of the segments
+    private final File mDirectory;
+
+    // Sequence numbers of the segments, in the order they are read
+    private final int[] mSegments;
+
+    // Index of the next segment to open
+    private int mNextSegment;
+
+    // Segment being read, null between segments
+    private FileChannel mChannel;
+
+    // Bytes read from the segment that are not parsed yet
+    private final ByteBuffer mBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    /**
+     * Creates a reader for the segments that are in the directory now.
+     * @param directory Directory the recorder writes to.
+     */
+    public PositionTraceReader(File directory) {
+        mDirectory = directory;
+        mSegments = PositionTraceRecorder.listSegments(directory);
+    }
+
+    /**
+     * Reads the next record.
+     * @param record Record to read into, may be reused between calls.
+     * @return The record, or null if there are no more records.
+     */
+    public PositionTraceRecorder.Record next(PositionTraceRecorder.Record record)
+            throws IOException {
+        while (true) {
+            if (mChannel == null && !openNextSegment()) {
+                return null;
+            }
+            if (fill(4)) {
+                int length = mBuffer.getInt();
+                if (length > 0 && length <= BUFFER_SIZE && fill(length)) {
+                    int end = mBuffer.position() + length;
+                    if (parse(record, end)) {
+                        mBuffer.position(end);
+                        return record;
+                    }
+                }
+                Log.w(TAG, "Malformed record in trace segment %d",
+                        mSegments[mNextSegment - 1]);
+            }
+            closeSegment();
+        }
+    }
+
+    /**
+     * Closes the segment being read.
+     */
+    public void close() throws IOException {
+        closeSegment();
+        mNextSegment = mSegments.length;
+    }
+
+    private boolean parse(PositionTraceRecorder.Record record, int end) {
+        if (end - mBuffer.position() < 8 + 8 + 8 + 8 + 8 + 4 + 1 + 1 + 4 + 2) {
+            return false;
+        }
+        record.time = mBuffer.getLong();
+        record.latitude = mBuffer.getDouble();
+        record.longitude = mBuffer.getDouble();
+        record.altitude = mBuffer.getDouble();
+        record.accuracy = mBuffer.getDouble();
+        record.source = mBuffer.getInt();
+        record.locationMethod = mBuffer.get();
+        record.mapMatched = mBuffer.get() != 0;
+        record.floorId = mBuffer.getInt();
+        int buildingIdLength = mBuffer.getShort();
+        if (buildingIdLength < 0) {
+            record.buildingId = null;
+        } else if (buildingIdLength <= end - mBuffer.position()) {
+            byte[] buildingId = new byte[buildingIdLength];
+            mBuffer.get(buildingId);
+            record.buildingId = new String(buildingId, PositionTraceRecorder.UTF_8);
+        } else {
+            return false;
+        }
+        // Later versions may append fields, they are skipped by the caller
+        return true;
+    }
+
+    private boolean openNextSegment() throws IOException {
+        while (mNextSegment < mSegments.length) {
+            int segment = mSegments[mNextSegment++];
+            File file = PositionTraceRecorder.segmentFile(mDirectory, segment);
+            if (!file.isFile()) {
+                // Deleted by the recorder since the reader was created
+                continue;
+            }
+            mChannel = new FileInputStream(file).getChannel();
+            mBuffer.clear();
+            mBuffer.flip();
+            if (fill(PositionTraceRecorder.HEADER_SIZE)
+                    && mBuffer.getInt() == PositionTraceRecorder.MAGIC
+                    && mBuffer.getInt() == PositionTraceRecorder.VERSION) {
+                return true;
+            }
+            Log.w(TAG, "Skipping trace segment %d with an unknown header", segment);
+            closeSegment();
+        }
+        return false;
+    }
+
+    // Makes sure that the buffer holds at least count bytes, returns false at the end of the
+    // segment.
+    private boolean fill(int count) throws IOException {
+        if (mBuffer.remaining() >= count) {
+            return true;
+        }
+        mBuffer.compact();
+        while (mBuffer.position() < count) {
+            if (mChannel.read(mBuffer) < 0) {
+                mBuffer.flip();
+                return false;
+            }
+        }
+        mBuffer.flip();
+        return true;
+    }
+
+    private void closeSegment() throws IOException {
+        if (mChannel != null) {
+            mChannel.close();
+            mChannel = null;
+        }
+    }
+}
@@ -0,0 +1,398 @@
+/*
+ * Copyright (c) 2011-2021 HERE Europe B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.here.android.example.venuesandlogging;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+
+import com.here.android.mpa.common.GeoCoordinate;
+import com.here.android.mpa.common.GeoPosition;
+import com.here.android.mpa.common.PositioningManager;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Records position updates to a binary trace, so that field sessions can be analysed or replayed
+ * later with {@link PositionTraceReader}.
+ *
+ * The trace is split into segment files named trace-NNNNNNNN.bin in one directory. A segment
+ * starts with a header (int magic, int version) followed by records, each an int length and that
+ * many bytes of payload:
+ * <pre>
+ *   long time (ms since epoch), double latitude, double longitude, double altitude,
+ *   double accuracy, int source, byte locationMethod, byte mapMatched, int floorId,
+ *   short buildingId length (-1 for none), UTF-8 buildingId
+ * </pre>
+ * All values are big endian. Records are collected in a buffer and written when it is full or
+ * on {@link #flush()}. When a segment reaches its size limit, a new one is started and the oldest
+ * segments beyond the segment limit are deleted, which caps the size of the whole trace.
+ *
+ * Only filling the buffer happens on the calling thread, which is usually the main thread. Full
+ * buffers are handed to a background thread, which writes them and starts the new segments, so
+ * the position callback never waits for the disk. A write error is thrown by the next call on
+ * the calling thread. The methods must all be called from the same thread.
+ */
+public class PositionTraceRecorder {
+
+    // TAG string for logging purposes
+    private static final String TAG = "VenuesAndLogging.PositionTraceRecorder";
+
+    static final int MAGIC = 0x50545243; // "PTRC"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 4 + 4;
+    static final String PREFIX = "trace-";
+    static final String SUFFIX = ".bin";
+    // Value of Record.floorId if there is no floor
+    public static final int NO_FLOOR = Integer.MIN_VALUE;
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // Size of the write buffer, a record takes about 70 bytes
+    private static final int BUFFER_SIZE = 16 * 1024;
+    // Longest building id that is stored, longer ones are truncated
+    private static final int MAX_BUILDING_ID_BYTES = 256;
+
+    /**
+     * A position update as stored in the trace.
+     */
+    public static class Record {
+        public long time;
+        public double latitude;
+        public double longitude;
+        // GeoCoordinate.UNKNOWN_ALTITUDE if unknown
+        public double altitude;
+        // GeoPosition.UNKNOWN if unknown
+        public double accuracy;
+        // GeoPosition.SOURCE_* flags
+        public int source;
+        // Ordinal of the PositioningManager.LocationMethod, -1 if unknown
+        public int locationMethod;
+        public boolean mapMatched;
+        public String buildingId;
+        // NO_FLOOR if unknown
+        public int floorId;
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%d: %.6f, %.6f, %.1fm, accuracy %.1fm, source %d, "
+                    + "building %s, floor %d", time, latitude, longitude, altitude, accuracy,
+                    source, buildingId, floorId);
+        }
+    }
+
+    // Directory the segments are written to, only accessed on the writer thread
+    private final File mDirectory;
+
+    // Size limit of a segment
+    private final long mMaxSegmentBytes;
+
+    // Number of segments that are kept, including the one being written
+    private final int mMaxSegments;
+
+    // Thread the segments are written on
+    private final HandlerThread mThread;
+
+    // Handler of the writer thread
+    private final Handler mHandler;
+
+    // Buffers the writer thread is done with, reused by the calling thread
+    private final ArrayDeque<ByteBuffer> mFreeBuffers = new ArrayDeque<>();
+
+    // First write error of the writer thread, thrown on the calling thread
+    private volatile IOException mError;
+
+    // Records not handed to the writer thread yet
+    private ByteBuffer mBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    // True once a segment has been started, kept by the calling thread
+    private boolean mSegmentStarted;
+
+    // Bytes in the segment being written, including the buffered ones, kept by the calling thread
+    private long mSegmentBytes;
+
+    // Number of records written
+    private long mRecordCount;
+
+    // Segment being written, null until the first record, only accessed on the writer thread
+    private FileChannel mChannel;
+
+    // Sequence number of the next segment, only accessed on the writer thread
+    private int mSegment;
+
+    /**
+     * Creates a recorder that appends to a new segment after the existing ones.
+     * @param directory Directory for the segments, created if needed.
+     * @param maxSegmentBytes Size limit of a segment.
+     * @param maxSegments Number of segments kept.
+     */
+    public PositionTraceRecorder(File directory, long maxSegmentBytes, int maxSegments) {
+        mDirectory = directory;
+        mMaxSegmentBytes = maxSegmentBytes;
+        mMaxSegments = Math.max(maxSegments, 1);
+        mThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                int[] segments = listSegments(mDirectory);
+                mSegment = segments.length > 0 ? segments[segments.length - 1] + 1 : 0;
+            }
+        });
+    }
+
+    /**
+     * Appends a position update to the trace.
+     * @param locationMethod Location method the update came from, may be null.
+     * @param geoPosition Position update.
+     * @param mapMatched True if the position is map matched.
+     * @throws IOException If writing the trace failed since the previous call.
+     */
+    public void record(PositioningManager.LocationMethod locationMethod, GeoPosition geoPosition,
+            boolean mapMatched) throws IOException {
+        throwError();
+        GeoCoordinate coordinate = geoPosition.getCoordinate();
+        byte[] buildingId = null;
+        if (geoPosition.getBuildingId() != null) {
+            buildingId = geoPosition.getBuildingId().getBytes(UTF_8);
+            if (buildingId.length > MAX_BUILDING_ID_BYTES) {
+                buildingId = Arrays.copyOf(buildingId, MAX_BUILDING_ID_BYTES);
+            }
+        }
+        Integer floorId = geoPosition.getFloorId();
+        int length = 8 + 8 + 8 + 8 + 8 + 4 + 1 + 1 + 4 + 2
+                + (buildingId != null ? buildingId.length : 0);
+
+        // A segment gets at least one record, however small the limit
+        if (!mSegmentStarted
+                || (mSegmentBytes + 4 + length > mMaxSegmentBytes
+                        && mSegmentBytes > HEADER_SIZE)) {
+            rotate();
+        }
+        if (mBuffer.remaining() < 4 + length) {
+            writeBuffer();
+        }
+        mBuffer.putInt(length);
+        mBuffer.putLong(geoPosition.getTimestamp() != null
+                ? geoPosition.getTimestamp().getTime() : System.currentTimeMillis());
+        mBuffer.putDouble(coordinate.getLatitude());
+        mBuffer.putDouble(coordinate.getLongitude());
+        mBuffer.putDouble(coordinate.getAltitude());
+        mBuffer.putDouble(geoPosition.getLatitudeAccuracy());
+        mBuffer.putInt(geoPosition.getPositionSource());
+        mBuffer.put((byte) (locationMethod != null ? locationMethod.ordinal() : -1));
+        mBuffer.put((byte) (mapMatched ? 1 : 0));
+        mBuffer.putInt(floorId != null ? floorId : NO_FLOOR);
+        if (buildingId != null) {
+            mBuffer.putShort((short) buildingId.length);
+            mBuffer.put(buildingId);
+        } else {
+            mBuffer.putShort((short) -1);
+        }
+        mSegmentBytes += 4 + length;
+        mRecordCount++;
+    }
+
+    /**
+     * Hands the buffered records to the writer thread.
+     * @throws IOException If writing the trace failed since the previous call.
+     */
+    public void flush() throws IOException {
+        throwError();
+        if (mSegmentStarted) {
+            writeBuffer();
+        }
+    }
+
+    /**
+     * Writes the buffered records, closes the segment and stops the writer thread once everything
+     * is written. The recorder must not be used afterwards.
+     * @throws IOException If writing the trace failed since the previous call.
+     */
+    public void close() throws IOException {
+        if (mSegmentStarted) {
+            writeBuffer();
+            mSegmentStarted = false;
+        }
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    closeSegment();
+                } catch (IOException e) {
+                    fail(e);
+                }
+            }
+        });
+        mThread.quitSafely();
+        throwError();
+    }
+
+    /**
+     * @return Number of records written since the recorder was created.
+     */
+    public long getRecordCount() {
+        return mRecordCount;
+    }
+
+    private void throwError() throws IOException {
+        IOException error = mError;
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    // Hands the buffered records to the writer thread and starts a new segment after them.
+    private void rotate() {
+        if (mSegmentStarted) {
+            writeBuffer();
+        }
+        mSegmentStarted = true;
+        mSegmentBytes = HEADER_SIZE;
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mError != null) {
+                    return;
+                }
+                try {
+                    startSegment();
+                } catch (IOException e) {
+                    fail(e);
+                }
+            }
+        });
+    }
+
+    // Hands the buffer to the writer thread and continues with a free one.
+    private void writeBuffer() {
+        final ByteBuffer buffer = mBuffer;
+        synchronized (mFreeBuffers) {
+            mBuffer = mFreeBuffers.poll();
+        }
+        if (mBuffer == null) {
+            // The writer thread is behind, it returns the extra buffer when it catches up
+            mBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+        buffer.flip();
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (mError == null) {
+                        while (buffer.hasRemaining()) {
+                            mChannel.write(buffer);
+                        }
+                    }
+                } catch (IOException e) {
+                    fail(e);
+                }
+                buffer.clear();
+                synchronized (mFreeBuffers) {
+                    mFreeBuffers.push(buffer);
+                }
+            }
+        });
+    }
+
+    // Runs on the writer thread.
+    private void startSegment() throws IOException {
+        closeSegment();
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new IOException("Unable to create " + mDirectory);
+        }
+        mChannel = new FileOutputStream(segmentFile(mDirectory, mSegment)).getChannel();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.flip();
+        while (header.hasRemaining()) {
+            mChannel.write(header);
+        }
+
+        // Drop the oldest segments, keeping mMaxSegments including the new one
+        int[] segments = listSegments(mDirectory);
+        for (int i = 0; i < segments.length - mMaxSegments; i++) {
+            if (!segmentFile(mDirectory, segments[i]).delete()) {
+                Log.w(TAG, "Unable to delete trace segment %d", segments[i]);
+            }
+        }
+        Log.v(TAG, "Started trace segment %d", mSegment);
+    }
+
+    // Runs on the writer thread.
+    private void closeSegment() throws IOException {
+        if (mChannel != null) {
+            try {
+                mChannel.close();
+            } finally {
+                mChannel = null;
+                mSegment++;
+            }
+        }
+    }
+
+    // Runs on the writer thread. Stops writing, the error is thrown on the calling thread.
+    private void fail(IOException e) {
+        if (mError == null) {
+            mError = e;
+        }
+        try {
+            closeSegment();
+        } catch (IOException ignored) {
+            // Already failed
+        }
+    }
+
+    static File segmentFile(File directory, int segment) {
+        return new File(directory, String.format(Locale.US, "%s%08d%s", PREFIX, segment, SUFFIX));
+    }
+
+    /**
+     * @return Sequence numbers of the segments in the directory, oldest first.
+     */
+    static int[] listSegments(File directory) {
+        String[] names = directory.list();
+        if (names == null) {
+            return new int[0];
+        }
+        int[] segments = new int[names.length];
+        int count = 0;
+        for (String name : names) {
+            if (name.startsWith(PREFIX) && name.endsWith(SUFFIX)) {
+                try {
+                    segments[count] = Integer.parseInt(
+                            name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+                    count++;
+                } catch (NumberFormatException e) {
+                    // Not one of ours
+                }
+            }
+        }
+        segments = Arrays.copyOf(segments, count);
+        Arrays.sort(segments);
+        return segments;
+    }
+}
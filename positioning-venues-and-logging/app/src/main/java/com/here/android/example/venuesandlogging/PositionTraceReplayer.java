@@ -0,0 +1,324 @@
+/*
+ * Copyright (c) 2011-2021 HERE Europe B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.here.android.example.venuesandlogging;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+import com.here.android.mpa.common.GeoCoordinate;
+import com.here.android.mpa.common.GeoPosition;
+import com.here.android.mpa.common.PositioningManager;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Date;
+
+/**
+ * Replays a trace written by {@link PositionTraceRecorder} to an OnPositionChangedListener, as a
+ * local stand-in for PositioningManager.
+ *
+ * Positions are delivered on the handler's thread, one message each, so they interleave with
+ * map transformations and other UI events the same way live updates do. The replay runs at
+ * the recorded pace scaled by a speed factor, or as fast as the handler takes the messages.
+ * The trace holds no fix changes, so they are derived from it: AVAILABLE before the first
+ * position and whenever the location method changes, TEMPORARILY_UNAVAILABLE when no position
+ * was recorded for FIX_TIMEOUT_MS, and OUT_OF_SERVICE at the end of the trace.
+ */
+public class PositionTraceReplayer {
+
+    // TAG string for logging purposes
+    private static final String TAG = "VenuesAndLogging.PositionTraceReplayer";
+
+    // Speed factor for replaying at the recorded pace
+    public static final float SPEED_REAL_TIME = 1.0f;
+
+    // Speed factor for replaying ten times faster than recorded
+    public static final float SPEED_10X = 10.0f;
+
+    // Speed factor for replaying as fast as possible
+    public static final float SPEED_MAX = 0.0f;
+
+    // Gap between positions after which the fix is reported lost, in trace time
+    private static final long FIX_TIMEOUT_MS = 5000;
+
+    // Longest gap that is replayed, in trace time. Longer gaps are between recording sessions
+    // and are shortened to this, as are jumps back in time.
+    private static final long MAX_GAP_MS = 10000;
+
+    /**
+     * A position built from a trace record.
+     */
+    public static class ReplayedPosition extends GeoPosition {
+        private final Date mTimestamp;
+        private final double mAccuracy;
+        private final int mSource;
+        private final String mBuildingId;
+        private final Integer mFloorId;
+
+        ReplayedPosition(PositionTraceRecorder.Record record) {
+            super(new GeoCoordinate(record.latitude, record.longitude, record.altitude));
+            mTimestamp = new Date(record.time);
+            mAccuracy = record.accuracy;
+            mSource = record.source;
+            mBuildingId = record.buildingId;
+            mFloorId = record.floorId != PositionTraceRecorder.NO_FLOOR ? record.floorId : null;
+        }
+
+        @Override
+        public Date getTimestamp() {
+            return mTimestamp;
+        }
+
+        @Override
+        public double getLatitudeAccuracy() {
+            return mAccuracy;
+        }
+
+        @Override
+        public double getLongitudeAccuracy() {
+            return mAccuracy;
+        }
+
+        @Override
+        public int getPositionSource() {
+            return mSource;
+        }
+
+        @Override
+        public String getBuildingId() {
+            return mBuildingId;
+        }
+
+        @Override
+        public Integer getFloorId() {
+            return mFloorId;
+        }
+    }
+
+    // Directory of the trace
+    private final File mDirectory;
+
+    // Listener the positions are delivered to
+    private final PositioningManager.OnPositionChangedListener mListener;
+
+    // Handler the positions are delivered on
+    private final Handler mHandler;
+
+    // Speed factor, SPEED_MAX or less for as fast as possible
+    private final float mSpeed;
+
+    // Reader of the trace, null when not replaying
+    private PositionTraceReader mReader;
+
+    // Next record to deliver, null at the end of the trace
+    private PositionTraceRecorder.Record mNext;
+
+    // Uptime the next record is due at, and the one of the last record delivered
+    private double mNextDue;
+    private double mLastDue;
+
+    // Trace time of the last record read
+    private long mLastTime;
+
+    // Fix status and location method last reported
+    private PositioningManager.LocationStatus mStatus;
+    private PositioningManager.LocationMethod mMethod;
+
+    // Statistics
+    private long mDeliveredCount;
+    private long mMaxLatenessMs;
+    private long mTotalLatenessMs;
+    private long mStartUptime;
+
+    private final Runnable mStep = new Runnable() {
+        @Override
+        public void run() {
+            step();
+        }
+    };
+
+    /**
+     * @param directory Directory of the trace.
+     * @param listener Listener the positions are delivered to.
+     * @param handler Handler the positions are delivered on.
+     * @param speed Speed factor, e.g. SPEED_REAL_TIME, SPEED_10X or SPEED_MAX.
+     */
+    public PositionTraceReplayer(File directory, PositioningManager.OnPositionChangedListener listener,
+            Handler handler, float speed) {
+        mDirectory = directory;
+        mListener = listener;
+        mHandler = handler;
+        mSpeed = speed;
+    }
+
+    /**
+     * Starts the replay from the oldest record of the trace. Does nothing if already replaying.
+     */
+    public void start() {
+        if (mReader != null) {
+            return;
+        }
+        Log.i(TAG, "Replaying position trace at speed %.1f", mSpeed);
+        mReader = new PositionTraceReader(mDirectory);
+        mStatus = null;
+        mMethod = null;
+        mDeliveredCount = 0;
+        mMaxLatenessMs = 0;
+        mTotalLatenessMs = 0;
+        mStartUptime = SystemClock.uptimeMillis();
+        mLastDue = mStartUptime;
+        mNext = null;
+        readNext();
+        mHandler.post(mStep);
+    }
+
+    /**
+     * Stops the replay without reporting the fix lost.
+     */
+    public void stop() {
+        mHandler.removeCallbacks(mStep);
+        closeReader();
+    }
+
+    /**
+     * @return True from start() until the end of the trace or stop().
+     */
+    public boolean isReplaying() {
+        return mReader != null;
+    }
+
+    /**
+     * @return Number of positions delivered since start().
+     */
+    public long getDeliveredCount() {
+        return mDeliveredCount;
+    }
+
+    /**
+     * @return Largest delay between the time a position was due and its delivery, in ms.
+     */
+    public long getMaxLatenessMs() {
+        return mMaxLatenessMs;
+    }
+
+    private void step() {
+        if (mReader == null) {
+            return;
+        }
+        long now = SystemClock.uptimeMillis();
+        if (mNext == null) {
+            finish(now);
+            return;
+        }
+
+        // Report the fix lost in a gap, before the position after it
+        if (mStatus == PositioningManager.LocationStatus.AVAILABLE
+                && mNext.time - mLastTime > FIX_TIMEOUT_MS) {
+            double lostDue = mLastDue + uptime(FIX_TIMEOUT_MS);
+            if (now < lostDue) {
+                mHandler.postAtTime(mStep, (long) Math.ceil(lostDue));
+                return;
+            }
+            reportStatus(mMethod, PositioningManager.LocationStatus.TEMPORARILY_UNAVAILABLE);
+        }
+        if (now < mNextDue) {
+            mHandler.postAtTime(mStep, (long) Math.ceil(mNextDue));
+            return;
+        }
+
+        PositionTraceRecorder.Record record = mNext;
+        PositioningManager.LocationMethod method = locationMethod(record.locationMethod);
+        if (mStatus != PositioningManager.LocationStatus.AVAILABLE || method != mMethod) {
+            reportStatus(method, PositioningManager.LocationStatus.AVAILABLE);
+        }
+        long lateness = mSpeed > SPEED_MAX ? now - (long) mNextDue : 0;
+        mMaxLatenessMs = Math.max(mMaxLatenessMs, lateness);
+        mTotalLatenessMs += lateness;
+        mDeliveredCount++;
+        mLastDue = mNextDue;
+        mLastTime = record.time;
+        mListener.onPositionUpdated(method, new ReplayedPosition(record), record.mapMatched);
+
+        // The listener may have stopped the replay
+        if (mReader != null) {
+            readNext();
+            mHandler.post(mStep);
+        }
+    }
+
+    // Reads the record after mNext and computes when it is due
+    private void readNext() {
+        try {
+            mNext = mReader.next(mNext != null ? mNext : new PositionTraceRecorder.Record());
+        } catch (IOException e) {
+            Log.w(TAG, "Reading the position trace failed: %s", e.getMessage());
+            mNext = null;
+        }
+        if (mNext == null) {
+            return;
+        }
+        if (mDeliveredCount == 0) {
+            mNextDue = mLastDue;
+        } else {
+            long gap = mNext.time - mLastTime;
+            if (gap < 0 || gap > MAX_GAP_MS) {
+                gap = MAX_GAP_MS;
+                // Keeps the gap check in step() working on the shortened gap
+                mLastTime = mNext.time - gap;
+            }
+            mNextDue = mLastDue + uptime(gap);
+        }
+    }
+
+    // Converts a duration in trace time to uptime
+    private double uptime(long traceMs) {
+        return mSpeed > SPEED_MAX ? traceMs / (double) mSpeed : 0;
+    }
+
+    private void reportStatus(PositioningManager.LocationMethod method,
+            PositioningManager.LocationStatus status) {
+        mStatus = status;
+        mMethod = method;
+        mListener.onPositionFixChanged(method, status);
+    }
+
+    private void finish(long now) {
+        closeReader();
+        if (mStatus != null) {
+            reportStatus(mMethod, PositioningManager.LocationStatus.OUT_OF_SERVICE);
+        }
+        Log.i(TAG, "Replayed %d positions in %d ms, lateness max %d ms, average %d ms",
+                mDeliveredCount, now - mStartUptime, mMaxLatenessMs,
+                mDeliveredCount > 0 ? mTotalLatenessMs / mDeliveredCount : 0);
+    }
+
+    private void closeReader() {
+        if (mReader != null) {
+            try {
+                mReader.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Closing the position trace failed: %s", e.getMessage());
+            }
+            mReader = null;
+        }
+    }
+
+    private static PositioningManager.LocationMethod locationMethod(int ordinal) {
+        PositioningManager.LocationMethod[] methods = PositioningManager.LocationMethod.values();
+        return ordinal >= 0 && ordinal < methods.length ? methods[ordinal] : null;
+    }
+}
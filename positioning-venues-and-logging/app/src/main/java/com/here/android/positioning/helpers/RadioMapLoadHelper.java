@@ -17,115 +17,324 @@
 package com.here.android.positioning.helpers;
 
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.Looper;
+import android.os.SystemClock;
 import androidx.annotation.NonNull;
 import android.util.Log;
-import android.util.Pair;
 
+import com.here.android.mpa.common.GeoBoundingBox;
+import com.here.android.mpa.common.GeoCoordinate;
 import com.here.android.mpa.venues3d.Venue;
 import com.here.android.positioning.radiomap.RadioMapLoader;
 
-import java.util.Iterator;
-import java.util.LinkedHashSet;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
 
 /**
- * Helper class for handling radio map downloading in sequence.
+ * Helper class for handling radio map downloading for many venues.
+ *
+ * Venues are downloaded in parallel, up to a limit. Waiting venues are started by priority and
+ * then by distance to the position given with {@link #setPosition(GeoCoordinate)}, nearest
+ * first. Failed downloads are retried with an exponential backoff. The queue runs on a
+ * background thread, listener methods are called on the main thread.
  */
 public class RadioMapLoadHelper {
 
     private static final String TAG = "RadioMapLoadHelper";
 
+    // Default number of venues downloaded at the same time
+    public static final int DEFAULT_MAX_CONCURRENT_LOADS = 3;
+
+    // Default venue priority, venues with a higher priority are downloaded first
+    public static final int PRIORITY_DEFAULT = 0;
+
+    // Number of download attempts per venue
+    private static final int MAX_ATTEMPTS = 5;
+
+    // Delay before the first retry, doubled for each further one
+    private static final long RETRY_DELAY_MS = 2000;
+
+    // Longest delay between retries
+    private static final long MAX_RETRY_DELAY_MS = 60000;
+
     // Radio map loader
     private final RadioMapLoader mApi;
 
     // Helper listener
     private final Listener mListener;
 
-    // Android handler
+    // Number of venues downloaded at the same time
+    private final int mMaxConcurrentLoads;
+
+    // Thread the queue runs on
+    private final HandlerThread mThread;
+
+    // Handler of the queue thread
     private final Handler mHandler;
 
-    // Loader implementation
+    // Handler of the main thread, for listener calls
+    private final Handler mListenerHandler;
+
+    // Position venues are prioritized by, null if unknown
+    private volatile GeoCoordinate mPosition;
+
+    // Venue to download
+    private static class Request {
+        Venue venue;
+        String id;
+        int priority;
+        // Center of the venue, null if unknown
+        GeoCoordinate center;
+        // Order of queuing, breaks ties
+        long sequence;
+        int attempts;
+        // Uptime before which the venue is not retried
+        long notBefore;
+        // Active download job, null while waiting
+        RadioMapLoader.Job job;
+        int progress;
+    }
+
+    // Loader implementation, all methods but the RadioMapLoader.Listener ones run on mThread
     private class Loader implements RadioMapLoader.Listener, Runnable {
 
-        // Current venue queue
-        private final Set<Venue> mLoadQue = new LinkedHashSet<>();
+        // Venues waiting for download, including the ones waiting for a retry
+        private final List<Request> mLoadQue = new ArrayList<>();
 
-        // Active download job
-        private Pair<Venue, RadioMapLoader.Job> mCurrentJob;
+        // Active download jobs
+        private final List<Request> mActive = new ArrayList<>();
+
+        // Venues queued and finished since the queue was last empty, for the total progress
+        private int mTotal;
+        private int mFinished;
+
+        // Sequence number of the next request
+        private long mSequence;
+
+        // Jitter for the retry delays, so that failed venues do not retry in lockstep
+        private final Random mRandom = new Random();
 
         @Override
-        public void onProgressUpdated(RadioMapLoader.Job job) {
-            Log.i(TAG, "onProgressUpdated: " + mCurrentJob.first.getId() + ", progress: " + job.getProgress());
-            mListener.onProgress(mCurrentJob.first, job.getProgress());
+        public void onProgressUpdated(final RadioMapLoader.Job job) {
+            final int progress = job.getProgress();
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    progress(job, progress);
+                }
+            });
         }
 
         @Override
-        public void onCompleted(RadioMapLoader.Job job) {
-            if (mCurrentJob == null) {
-                Log.i(TAG, "onCompleted: status: " + job.getStatus());
-            } else {
-                Log.i(TAG, "onCompleted: " + mCurrentJob.first.getId() + ", status: " + job.getStatus());
-                mListener.onCompleted(mCurrentJob.first, job.getStatus());
-                mCurrentJob = null;
-            }
-            schedule();
+        public void onCompleted(final RadioMapLoader.Job job) {
+            final RadioMapLoader.Status status = job.getStatus();
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    completed(job, status);
+                }
+            });
         }
 
+        // Starts waiting venues while there are free download slots
         @Override
         public void run() {
-            if (mCurrentJob != null) {
-                Log.w(TAG, "Loader.run: downloading already in process");
-                return;
+            mHandler.removeCallbacks(this);
+            long now = SystemClock.uptimeMillis();
+            long nextRetry = Long.MAX_VALUE;
+            while (mActive.size() < mMaxConcurrentLoads) {
+                Request next = null;
+                for (Request request : mLoadQue) {
+                    if (request.notBefore > now) {
+                        nextRetry = Math.min(nextRetry, request.notBefore);
+                    } else if (next == null || isBefore(request, next)) {
+                        next = request;
+                    }
+                }
+                if (next == null) {
+                    break;
+                }
+                mLoadQue.remove(next);
+                start(next);
             }
-            final Iterator<Venue> it = mLoadQue.iterator();
-            if (!it.hasNext()) {
+            if (mActive.isEmpty() && mLoadQue.isEmpty()) {
                 Log.v(TAG, "Loader.run: everything downloaded");
-                return;
-            }
-            try {
-                final Venue venue = it.next();
-                final RadioMapLoader.Job job = mApi.load(this, venue);
-                switch (job.getStatus()) {
-                    case OK:
-                    case PENDING:
-                        mCurrentJob = new Pair<>(venue, job);
-                        break;
-                    default:
-                        mListener.onError(venue, job.getStatus());
-                        schedule();
-                        break;
-                }
-            } finally {
-                it.remove();
+                mTotal = 0;
+                mFinished = 0;
+            } else if (nextRetry != Long.MAX_VALUE && mActive.size() < mMaxConcurrentLoads) {
+                mHandler.postAtTime(this, nextRetry);
             }
         }
 
-        // Load venue
-        boolean load(@NonNull Venue venue) {
-            if (mLoadQue.add(venue)) {
-                return schedule();
+        // Queue venue
+        void load(Request request) {
+            for (Request other : mLoadQue) {
+                if (other.id.equals(request.id)) {
+                    return;
+                }
             }
-            return false;
+            for (Request other : mActive) {
+                if (other.id.equals(request.id)) {
+                    return;
+                }
+            }
+            request.sequence = mSequence++;
+            mLoadQue.add(request);
+            mTotal++;
+            run();
         }
 
-        // Cancels current download and clears download que.
+        // Cancels current downloads and clears download que.
         void cancel() {
-            mLoadQue.clear();
             mHandler.removeCallbacks(this);
-            if (mCurrentJob != null) {
-                mCurrentJob.second.cancel();
-                mCurrentJob = null;
+            mLoadQue.clear();
+            for (Request request : mActive) {
+                request.job.cancel();
             }
+            mActive.clear();
+            mTotal = 0;
+            mFinished = 0;
         }
 
-        // Schedule downloading
-        private boolean schedule() {
-            if (mCurrentJob != null) {
-                return true;
+        private void start(Request request) {
+            request.attempts++;
+            request.progress = 0;
+            final RadioMapLoader.Job job = mApi.load(this, request.venue);
+            switch (job.getStatus()) {
+                case OK:
+                case PENDING:
+                    request.job = job;
+                    mActive.add(request);
+                    break;
+                default:
+                    failed(request, job.getStatus(), true);
+                    break;
+            }
+        }
+
+        private void progress(RadioMapLoader.Job job, int progress) {
+            Request request = find(job);
+            if (request == null) {
+                return;
+            }
+            Log.i(TAG, "onProgressUpdated: " + request.id + ", progress: " + progress);
+            request.progress = progress;
+            notifyProgress(request.venue, progress);
+        }
+
+        private void completed(RadioMapLoader.Job job, RadioMapLoader.Status status) {
+            Request request = find(job);
+            if (request == null) {
+                // Cancelled
+                Log.i(TAG, "onCompleted: status: " + status);
+                return;
+            }
+            Log.i(TAG, "onCompleted: " + request.id + ", status: " + status);
+            mActive.remove(request);
+            request.job = null;
+            if (status == RadioMapLoader.Status.OK) {
+                finished(request);
+                notifyCompleted(request.venue, status);
+            } else {
+                failed(request, status, false);
+            }
+            run();
+        }
+
+        // Queues a failed venue for a retry, or gives up after MAX_ATTEMPTS
+        private void failed(Request request, RadioMapLoader.Status status, boolean onStart) {
+            if (request.attempts < MAX_ATTEMPTS) {
+                long delay = Math.min(RETRY_DELAY_MS << (request.attempts - 1), MAX_RETRY_DELAY_MS);
+                delay += (long) (delay * 0.25 * mRandom.nextDouble());
+                Log.w(TAG, "Loading " + request.id + " failed with status " + status + ", retry "
+                        + request.attempts + " in " + delay + " ms");
+                request.notBefore = SystemClock.uptimeMillis() + delay;
+                mLoadQue.add(request);
+                return;
+            }
+            Log.w(TAG, "Loading " + request.id + " failed with status " + status + ", giving up");
+            finished(request);
+            if (onStart) {
+                notifyError(request.venue, status);
+            } else {
+                notifyCompleted(request.venue, status);
             }
-            mHandler.removeCallbacks(this);
-            return mHandler.post(this);
+        }
+
+        private void finished(Request request) {
+            mFinished++;
+            notifyTotalProgress();
+        }
+
+        private Request find(RadioMapLoader.Job job) {
+            for (Request request : mActive) {
+                if (request.job == job) {
+                    return request;
+                }
+            }
+            return null;
+        }
+
+        // Checks if a should be downloaded before b
+        private boolean isBefore(Request a, Request b) {
+            if (a.priority != b.priority) {
+                return a.priority > b.priority;
+            }
+            GeoCoordinate position = mPosition;
+            if (position != null && a.center != null && b.center != null) {
+                double distanceA = position.distanceTo(a.center);
+                double distanceB = position.distanceTo(b.center);
+                if (distanceA != distanceB) {
+                    return distanceA < distanceB;
+                }
+            }
+            return a.sequence < b.sequence;
+        }
+
+        private void notifyProgress(final Venue venue, final int progress) {
+            mListenerHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    mListener.onProgress(venue, progress);
+                }
+            });
+            notifyTotalProgress();
+        }
+
+        private void notifyTotalProgress() {
+            long sum = mFinished * 100L;
+            for (Request request : mActive) {
+                sum += request.progress;
+            }
+            final int finished = mFinished;
+            final int total = mTotal;
+            final int progress = total > 0 ? (int) (sum / total) : 100;
+            mListenerHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    mListener.onTotalProgress(finished, total, progress);
+                }
+            });
+        }
+
+        private void notifyError(final Venue venue, final RadioMapLoader.Status status) {
+            mListenerHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    mListener.onError(venue, status);
+                }
+            });
+        }
+
+        private void notifyCompleted(final Venue venue, final RadioMapLoader.Status status) {
+            mListenerHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    mListener.onCompleted(venue, status);
+                }
+            });
         }
     }
 
@@ -139,6 +348,14 @@ public class RadioMapLoadHelper {
         void onError(@NonNull  Venue venue, RadioMapLoader.Status status);
         void onProgress(@NonNull Venue venue, int progress);
         void onCompleted(@NonNull Venue venue, RadioMapLoader.Status status);
+
+        /**
+         * Progress of all venues queued since the queue was last empty.
+         * @param finished Number of venues finished, successfully or not
+         * @param total Number of venues queued
+         * @param progress Progress of all venues, 0 to 100
+         */
+        void onTotalProgress(int finished, int total, int progress);
     }
 
     /**
@@ -147,19 +364,65 @@ public class RadioMapLoadHelper {
      * @param listener Helper listener
      */
     public RadioMapLoadHelper(@NonNull RadioMapLoader api, @NonNull Listener listener) {
+        this(api, listener, DEFAULT_MAX_CONCURRENT_LOADS);
+    }
+
+    /**
+     * Constructor
+     * @param api Radio map loader
+     * @param listener Helper listener
+     * @param maxConcurrentLoads Number of venues downloaded at the same time
+     */
+    public RadioMapLoadHelper(@NonNull RadioMapLoader api, @NonNull Listener listener,
+            int maxConcurrentLoads) {
         mApi = api;
         mListener = listener;
-        mHandler = new Handler(Looper.getMainLooper());
+        mMaxConcurrentLoads = Math.max(maxConcurrentLoads, 1);
+        mThread = new HandlerThread(TAG);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+        mListenerHandler = new Handler(Looper.getMainLooper());
     }
 
     /**
      * Que venue for loading
      * @param venue Venue instance
-     * @return True if venue queued successfully
+     * @return True if the venue was passed to the queue, a venue that is queued already is not
+     * queued again
      */
     public boolean load(@NonNull Venue venue) {
-        Log.v(TAG, "load: " + venue.getId());
-        return mLoader.load(venue);
+        return load(venue, PRIORITY_DEFAULT);
+    }
+
+    /**
+     * Que venue for loading
+     * @param venue Venue instance
+     * @param priority Venues with a higher priority are downloaded first
+     * @return True if the venue was passed to the queue, a venue that is queued already is not
+     * queued again
+     */
+    public boolean load(@NonNull Venue venue, int priority) {
+        Log.v(TAG, "load: " + venue.getId() + ", priority: " + priority);
+        final Request request = new Request();
+        request.venue = venue;
+        request.id = venue.getId();
+        request.priority = priority;
+        GeoBoundingBox box = venue.getBoundingBox();
+        request.center = box != null ? box.getCenter() : null;
+        return mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mLoader.load(request);
+            }
+        });
+    }
+
+    /**
+     * Set the position that venues waiting for download are prioritized by, nearest first
+     * @param position Current position, or null if unknown
+     */
+    public void setPosition(GeoCoordinate position) {
+        mPosition = position;
     }
 
     /**
@@ -167,7 +430,21 @@ public class RadioMapLoadHelper {
      */
     public void cancel() {
         Log.v(TAG, "cancel");
-        mLoader.cancel();
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mLoader.cancel();
+            }
+        });
+    }
+
+    /**
+     * Cancel downloads and stop the background thread. The helper can not be used afterwards.
+     */
+    public void release() {
+        Log.v(TAG, "release");
+        cancel();
+        mThread.quitSafely();
     }
 
 }
@@ -0,0 +1,102 @@
+package com.here.example.speedlimit;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * LRU cache of speed limits by road element, so that fixes on the same road element do not ask
+ * the SDK again. Keys are permanent directed link ids, the limit can differ between directions.
+ * Not thread safe.
+ */
+class SpeedLimitCache {
+
+    enum Unit {
+        KMH,
+        MPH
+    }
+
+    static class Entry {
+        // Speed limit in unit, 0 if not valid
+        final int limit;
+        final Unit unit;
+        // False if the road element has no speed limit
+        final boolean valid;
+
+        Entry(int limit, Unit unit) {
+            this.valid = limit > 0;
+            this.limit = valid ? limit : 0;
+            this.unit = unit;
+        }
+    }
+
+    private final LinkedHashMap<Long, Entry> entries;
+
+    // The last lookup, fixes on the same road element skip the map
+    private long lastLinkId;
+    private Entry lastEntry;
+
+    private long hits;
+    private long misses;
+
+    SpeedLimitCache(final int capacity) {
+        // Access order, the eldest entry is the least recently used one
+        entries = new LinkedHashMap<Long, Entry>(capacity * 4 / 3 + 1, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * @return The cached entry of a road element in unit, or null if there is none.
+     */
+    Entry get(long linkId, Unit unit) {
+        Entry entry = lastEntry != null && lastLinkId == linkId ? lastEntry : entries.get(linkId);
+        if (entry == null || entry.unit != unit) {
+            misses++;
+            return null;
+        }
+        hits++;
+        lastLinkId = linkId;
+        lastEntry = entry;
+        return entry;
+    }
+
+    /**
+     * Caches the speed limit of a road element.
+     * @param limit Speed limit in unit, 0 or less if the road element has none.
+     * @return The new entry.
+     */
+    Entry put(long linkId, int limit, Unit unit) {
+        Entry entry = new Entry(limit, unit);
+        entries.put(linkId, entry);
+        lastLinkId = linkId;
+        lastEntry = entry;
+        return entry;
+    }
+
+    void clear() {
+        entries.clear();
+        lastEntry = null;
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return Share of lookups that found an entry, 0 before the first lookup.
+     */
+    double getHitRate() {
+        long lookups = hits + misses;
+        return lookups > 0 ? (double) hits / lookups : 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%d entries, %d hits, %d misses, hit rate %.1f%%",
+                entries.size(), hits, misses, 100 * getHitRate());
+    }
+}
@@ -2,6 +2,7 @@ package com.here.example.speedlimit;
 
 import android.content.Context;
 import android.os.Bundle;
+import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -12,10 +13,12 @@ import androidx.core.content.ContextCompat;
 import androidx.fragment.app.Fragment;
 
 import com.here.android.mpa.common.GeoBoundingBox;
+import com.here.android.mpa.common.GeoCoordinate;
 import com.here.android.mpa.common.GeoPosition;
 import com.here.android.mpa.common.MapEngine;
 import com.here.android.mpa.common.MatchedGeoPosition;
 import com.here.android.mpa.common.PositioningManager;
+import com.here.android.mpa.common.RoadElement;
 import com.here.android.mpa.prefetcher.MapDataPrefetcher;
 
 import java.lang.ref.WeakReference;
@@ -23,11 +26,25 @@ import java.lang.ref.WeakReference;
 
 public class SpeedLimitFragment extends Fragment {
 
+    private static final String TAG = "SpeedLimitFragment";
+
+    private static final int SPEED_LIMIT_CACHE_SIZE = 1024;
+
+    // Map data is fetched 500 m around the position, so it is not fetched again within 250 m
+    private static final int FETCH_AREA_SIZE = 500;
+
     private LinearLayout currentSpeedContainerView;
     private TextView currentSpeedView;
     private TextView currentSpeedLimitView;
 
     private boolean fetchingDataInProgress = false;
+    private GeoCoordinate lastFetchCenter;
+
+    private final SpeedLimitCache speedLimitCache = new SpeedLimitCache(SPEED_LIMIT_CACHE_SIZE);
+
+    // Values on screen, the views are only updated when they change
+    private int shownSpeed = -1;
+    private int shownSpeedLimit = -1;
 
     public SpeedLimitFragment() {
         // Required empty public constructor
@@ -52,6 +69,8 @@ public class SpeedLimitFragment extends Fragment {
         View fragmentView = inflater.inflate(R.layout.fragment_speed_limit, container, false);
 
         setElements(fragmentView);
+        shownSpeed = -1;
+        shownSpeedLimit = -1;
         return fragmentView;
     }
 
@@ -81,6 +100,11 @@ public class SpeedLimitFragment extends Fragment {
     public void stopWatching() {
         PositioningManager.getInstance().removeListener(positionLister);
         MapDataPrefetcher.getInstance().removeListener(prefetcherListener);
+        Log.d(TAG, "Speed limit cache: " + speedLimitCache);
+    }
+
+    public double getSpeedLimitCacheHitRate() {
+        return speedLimitCache.getHitRate();
     }
 
     private void setElements(View fragmentView) {
@@ -89,6 +113,32 @@ public class SpeedLimitFragment extends Fragment {
         currentSpeedContainerView = (LinearLayout) fragmentView.findViewById(R.id.currentSpeedContainer);
     }
 
+    private int getSpeedLimit(RoadElement roadElement) {
+        long linkId = roadElement.getPermanentDirectedLinkId();
+        SpeedLimitCache.Entry entry = speedLimitCache.get(linkId, SpeedLimitCache.Unit.KMH);
+        if (entry == null) {
+            entry = speedLimitCache.put(linkId,
+                    meterPerSecToKmPerHour(roadElement.getSpeedLimit()), SpeedLimitCache.Unit.KMH);
+        }
+        return entry.limit;
+    }
+
+    private void showSpeed(int currentSpeed, int currentSpeedLimit) {
+        if (currentSpeed != shownSpeed || currentSpeedLimit != shownSpeedLimit) {
+            updateCurrentSpeedView(currentSpeed, currentSpeedLimit);
+            shownSpeed = currentSpeed;
+        }
+        if (currentSpeedLimit != shownSpeedLimit) {
+            updateCurrentSpeedLimitView(currentSpeedLimit);
+            shownSpeedLimit = currentSpeedLimit;
+        }
+    }
+
+    private boolean needsMapData(GeoCoordinate position) {
+        return !fetchingDataInProgress
+                && (lastFetchCenter == null || lastFetchCenter.distanceTo(position) > FETCH_AREA_SIZE / 2);
+    }
+
     private void updateCurrentSpeedView(int currentSpeed, int currentSpeedLimit) {
         int colorValue =
                 (currentSpeed > currentSpeedLimit && currentSpeedLimit > 0)
@@ -126,6 +176,10 @@ public class SpeedLimitFragment extends Fragment {
         public void onStatus(int requestId, PrefetchStatus status) {
             if(status != PrefetchStatus.PREFETCH_IN_PROGRESS) {
                 fetchingDataInProgress = false;
+                if (status != PrefetchStatus.PREFETCH_SUCCESS) {
+                    // Try again with the next fix
+                    lastFetchCenter = null;
+                }
             }
         }
     };
@@ -135,26 +189,25 @@ public class SpeedLimitFragment extends Fragment {
         public void onPositionUpdated(PositioningManager.LocationMethod locationMethod,
                                       GeoPosition geoPosition, boolean b) {
 
-            if (PositioningManager.getInstance().getRoadElement() == null && !fetchingDataInProgress) {
-                GeoBoundingBox areaAround = new GeoBoundingBox(geoPosition.getCoordinate(), 500, 500);
+            // The road element of the fix, the same the positioning manager reports
+            RoadElement roadElement = geoPosition instanceof MatchedGeoPosition
+                    ? ((MatchedGeoPosition) geoPosition).getRoadElement()
+                    : null;
+
+            if (roadElement == null && needsMapData(geoPosition.getCoordinate())) {
+                GeoBoundingBox areaAround = new GeoBoundingBox(geoPosition.getCoordinate(),
+                        FETCH_AREA_SIZE, FETCH_AREA_SIZE);
                 MapDataPrefetcher.getInstance().fetchMapData(areaAround);
                 fetchingDataInProgress = true;
+                lastFetchCenter = geoPosition.getCoordinate();
             }
 
             if (geoPosition.isValid() && geoPosition instanceof MatchedGeoPosition) {
 
-                MatchedGeoPosition mgp = (MatchedGeoPosition) geoPosition;
-
-                int currentSpeedLimitTransformed = 0;
-                int currentSpeed = meterPerSecToKmPerHour(mgp.getSpeed());
-
-                if (mgp.getRoadElement() != null) {
-                    double currentSpeedLimit = mgp.getRoadElement().getSpeedLimit();
-                    currentSpeedLimitTransformed  = meterPerSecToKmPerHour(currentSpeedLimit);
-                }
+                int currentSpeed = meterPerSecToKmPerHour(geoPosition.getSpeed());
+                int currentSpeedLimit = roadElement != null ? getSpeedLimit(roadElement) : 0;
 
-                updateCurrentSpeedView(currentSpeed, currentSpeedLimitTransformed);
-                updateCurrentSpeedLimitView(currentSpeedLimitTransformed);
+                showSpeed(currentSpeed, currentSpeedLimit);
 
             } else {
                 //handle error